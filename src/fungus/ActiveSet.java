@@ -0,0 +1,188 @@
+/* Copyright (c) 2014, Paul L. Snyder <paul@pataprogramming.com>,
+ * Daniel Dubois, Nicolo Calcavecchia.
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option)
+ * Any later version. It may also be redistributed and/or modified under the
+ * terms of the BSD 3-Clause License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+
+
+package fungus;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import peersim.cdsim.CDProtocol;
+import peersim.cdsim.CDState;
+import peersim.core.Node;
+import peersim.core.Protocol;
+
+// Registry of sleeping nodes for ActiveSetNextCycle.
+//
+// A node is put to sleep after a cycle in which every cycle-driven
+// protocol on it reported itself Quiescent, and is woken by any
+// change its protocols could react to: a link added or removed, a
+// neighbor changing state or type, its own state, type or capacity
+// changing, a neighbor's capacity changing, or chemicals arriving.
+// Hyphae look two hops out for biomass, so a node gaining or losing a
+// biomass neighbor also wakes the hyphae linked to it.  Those hooks live in HyphaLink, HyphaData and
+// ChemicalManager.
+//
+// A node whose protocols still act at random (see Scheduled) is also
+// given a due cycle as it goes to sleep, drawn ahead of time, and is
+// woken when that comes round; its strategy then asks takeDue()
+// instead of drawing for itself.
+//
+// Nothing is tracked unless ActiveSetNextCycle is configured, so the
+// hooks cost one branch in ordinary runs and under ParallelNextCycle.
+
+public class ActiveSet {
+  private static boolean enabled = false;
+  private static IndexedNodeSet asleep = new IndexedNodeSet();
+
+  private static final HyphaType[] hyphaStates =
+      { HyphaType.IMMOBILE, HyphaType.BRANCHING, HyphaType.EXTENDING };
+
+  // Sleeping nodes by the cycle their random action falls due in, and
+  // each node's due cycle.  A node woken early keeps its entry until
+  // it runs or settles again; the calendar's stale copy is skipped.
+  private static Map<Integer,List<MycoNode>> calendar =
+      new HashMap<Integer,List<MycoNode>>();
+  private static Map<MycoNode,Integer> due = new HashMap<MycoNode,Integer>();
+
+  static void enable() {
+    enabled = true;
+  }
+
+  public static boolean isEnabled() {
+    return enabled;
+  }
+
+  public static void wake(MycoNode n) {
+    if (enabled && n != null) {
+      asleep.remove(n);
+    }
+  }
+
+  // Wake the hyphae linked to n, which see n's neighbors as their
+  // two-hop neighborhood
+  public static void wakeHyphae(MycoNode n) {
+    if (!enabled || n == null || asleep.isEmpty()) {
+      return;
+    }
+    HyphaLink link = n.getHyphaLink();
+    for (HyphaType t : hyphaStates) {
+      for (MycoNode neighbor : link.neighbors(t)) {
+        asleep.remove(neighbor);
+      }
+    }
+  }
+
+  // Wake n, everything linked to it, and the hyphae linked to those
+  public static void wakeNeighborhood(MycoNode n) {
+    if (!enabled || n == null) {
+      return;
+    }
+    asleep.remove(n);
+    for (MycoNode neighbor : n.getHyphaLink().neighbors()) {
+      asleep.remove(neighbor);
+      wakeHyphae(neighbor);
+    }
+  }
+
+  // Wake the sleeping nodes whose random action falls due in cycle
+  static void wakeDue(int cycle) {
+    List<MycoNode> l = calendar.remove(cycle);
+    if (l == null) {
+      return;
+    }
+    for (MycoNode n : l) {
+      Integer c = due.get(n);
+      if (c == null || c.intValue() != cycle) {
+        continue;
+      }
+      if (n.isUp()) {
+        asleep.remove(n);
+      } else {
+        due.remove(n);
+      }
+    }
+  }
+
+  // Whether n's random action was scheduled for this cycle.  The entry
+  // is dropped either way: a node running for any other reason draws
+  // for itself, as it would if it had never slept.
+  public static boolean takeDue(MycoNode n) {
+    if (!enabled) {
+      return false;
+    }
+    Integer c = due.remove(n);
+    return c != null && c.intValue() == CDState.getCycle();
+  }
+
+  public static boolean isAsleep(Node n) {
+    return enabled && asleep.contains(n);
+  }
+
+  // Put n to sleep if all of its cycle-driven protocols are quiescent
+  public static boolean settle(MycoNode n) {
+    if (!enabled || !n.isUp()) {
+      return false;
+    }
+    for (int k = 0; k < n.protocolSize(); k++) {
+      Protocol p = n.getProtocol(k);
+      if (!(p instanceof CDProtocol)) {
+        continue;
+      }
+      if (!(p instanceof Quiescent) || !((Quiescent) p).isQuiescent(n)) {
+        return false;
+      }
+    }
+    due.remove(n);
+    int when = -1;
+    for (int k = 0; k < n.protocolSize(); k++) {
+      Protocol p = n.getProtocol(k);
+      if (p instanceof Scheduled) {
+        int c = ((Scheduled) p).nextDueCycle(n);
+        if (c >= 0 && (when < 0 || c < when)) {
+          when = c;
+        }
+      }
+    }
+    if (when >= 0) {
+      due.put(n, when);
+      List<MycoNode> l = calendar.get(when);
+      if (l == null) {
+        l = new ArrayList<MycoNode>();
+        calendar.put(when, l);
+      }
+      l.add(n);
+    }
+    asleep.add(n);
+    return true;
+  }
+
+  // Forget every node at once, when the whole network is replaced
+  static void clear() {
+    asleep.clear();
+    calendar.clear();
+    due.clear();
+  }
+
+  public static int countAsleep() {
+    return asleep.size();
+  }
+}
@@ -0,0 +1,75 @@
+/* Copyright (c) 2014, Paul L. Snyder <paul@pataprogramming.com>,
+ * Daniel Dubois, Nicolo Calcavecchia.
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option)
+ * Any later version. It may also be redistributed and/or modified under the
+ * terms of the BSD 3-Clause License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+
+
+package fungus;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import peersim.cdsim.CDState;
+import peersim.core.Node;
+
+// Opt-in replacement for the default cycle driver that skips nodes
+// with nothing to do.  Use it by setting simulation.nodefaultcycle and
+// adding it after every other control, as with MyconetNextCycle,
+// whose dispatch it shares:
+//
+//   control.cycle fungus.ActiveSetNextCycle
+//
+// A node whose protocols are all Quiescent after its turn is put to
+// sleep and skipped until ActiveSet wakes it.  In a settled overlay
+// that is most attached biomass and immobile hyphae, as long as the
+// failure alerter's strategies are the null ones and no chemicals are
+// circulating.  An immobile hypha's random spawn is drawn ahead as a
+// geometric wait, and the node is woken in the cycle it falls due;
+// extending and branching hyphae always run.  Skipped nodes draw no
+// random numbers and report no messages to MessageObserver, so runs
+// differ from the default driver's even with the same seed.  getpair
+// is not supported.
+
+public class ActiveSetNextCycle extends MyconetNextCycle {
+  private static Logger log =
+      Logger.getLogger(ActiveSetNextCycle.class.getName());
+
+  private int ran;
+
+  public ActiveSetNextCycle(String prefix) {
+    super(prefix);
+    ActiveSet.enable();
+  }
+
+  public boolean execute() {
+    ran = 0;
+    ActiveSet.wakeDue(CDState.getCycle());
+    super.execute();
+    log.log(Level.FINE, "Cycle " + CDState.getCycle() + ": ran " + ran
+            + " nodes, " + ActiveSet.countAsleep() + " asleep");
+    return false;
+  }
+
+  protected boolean skip(Node node) {
+    return ActiveSet.isAsleep(node);
+  }
+
+  protected void ran(Node node) {
+    ran++;
+    ActiveSet.settle((MycoNode) node);
+  }
+}
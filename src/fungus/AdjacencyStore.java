@@ -0,0 +1,382 @@
+/* Copyright (c) 2014, Paul L. Snyder <paul@pataprogramming.com>,
+ * Daniel Dubois, Nicolo Calcavecchia.
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option)
+ * Any later version. It may also be redistributed and/or modified under the
+ * terms of the BSD 3-Clause License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+
+
+package fungus;
+
+import java.util.Arrays;
+
+// Shared undirected adjacency for the whole overlay, stored as int
+// slots in one slab (CSR-style, but with a growable segment per node).
+//
+// Every node gets a dense slot number.  A node's neighbors live in a
+// contiguous segment of the slab, one int (the neighbor's slot) per
+// endpoint.  Membership scans the shorter of the two segments, which
+// in Myconet is almost always a single-parent biomass node.  A segment
+// longer than HASHED (a hypha with its biomass children) also gets an
+// open-addressing index from neighbor slot to position, so looking up
+// an edge there, for membership or removal, takes constant time.
+//
+// Each slot also records its node's HyphaType ordinal, so HyphaLink
+// can walk a node's neighbors in a given state without keeping a
+// separate list of them.
+//
+// A segment that fills up is moved to the end of the slab with twice
+// the room; the hole it leaves is reclaimed by compact() once holes
+// outweigh live segments.
+
+public class AdjacencyStore {
+
+  private static final int MIN_SEGMENT = 4;
+
+  // Segments get a position index above this length, and lose it
+  // again below half of it
+  private static final int HASHED = 16;
+
+  // Per-endpoint data
+  private int[] nbr;
+  private int top;
+  private int waste;
+
+  // Per-slot data
+  private int[] start;
+  private int[] cap;
+  private int[] len;
+  private MycoNode[] owner;
+  private byte[] state;
+  private int slots;
+
+  // Position index of each long segment, or null.  Pairs of ints: the
+  // neighbor's slot plus one (0 marks an empty pair) and its position
+  // in the segment, probed linearly from the slot's hash.
+  private int[][] index;
+
+  private int[] free;
+  private int freeCount;
+
+  public AdjacencyStore() {
+    this(1024);
+  }
+
+  public AdjacencyStore(int initialSlots) {
+    int n = Math.max(initialSlots, 16);
+    nbr = new int[n * MIN_SEGMENT];
+    start = new int[n];
+    cap = new int[n];
+    len = new int[n];
+    owner = new MycoNode[n];
+    state = new byte[n];
+    index = new int[n][];
+    free = new int[16];
+    slots = 0;
+    freeCount = 0;
+    top = 0;
+    waste = 0;
+  }
+
+  public int allocate() {
+    int s;
+    if (freeCount > 0) {
+      s = free[--freeCount];
+    } else {
+      if (slots == start.length) {
+        int n = start.length * 2;
+        start = Arrays.copyOf(start, n);
+        cap = Arrays.copyOf(cap, n);
+        len = Arrays.copyOf(len, n);
+        owner = Arrays.copyOf(owner, n);
+        state = Arrays.copyOf(state, n);
+        index = Arrays.copyOf(index, n);
+      }
+      s = slots++;
+    }
+    start[s] = 0;
+    cap[s] = 0;
+    len[s] = 0;
+    owner[s] = null;
+    state[s] = 0;
+    index[s] = null;
+    return s;
+  }
+
+  // Unlink all of s's edges, keeping the slot and its segment
+  public void clear(int s) {
+    index[s] = null;
+    while (len[s] > 0) {
+      int last = --len[s];
+      int b = nbr[start[s] + last];
+      unlink(b, find(b, s));
+    }
+  }
+
+  // Give a slot back; any remaining edges are unlinked first
+  public void release(int s) {
+    clear(s);
+    waste += cap[s];
+    cap[s] = 0;
+    owner[s] = null;
+    index[s] = null;
+    if (freeCount == free.length) {
+      free = Arrays.copyOf(free, free.length * 2);
+    }
+    free[freeCount++] = s;
+  }
+
+  public void bind(int s, MycoNode n) {
+    owner[s] = n;
+  }
+
+  public MycoNode node(int s) {
+    return owner[s];
+  }
+
+  public void setState(int s, int ordinal) {
+    state[s] = (byte) ordinal;
+  }
+
+  public int state(int s) {
+    return state[s];
+  }
+
+  // State of the i-th neighbor in s's segment
+  public int neighborState(int s, int i) {
+    return state[nbr[start[s] + i]];
+  }
+
+  public int degree(int s) {
+    return len[s];
+  }
+
+  public int neighbor(int s, int i) {
+    return nbr[start[s] + i];
+  }
+
+  public MycoNode neighborNode(int s, int i) {
+    return owner[nbr[start[s] + i]];
+  }
+
+  public boolean contains(int a, int b) {
+    if (index[a] != null) { return find(a, b) >= 0; }
+    if (index[b] != null) { return find(b, a) >= 0; }
+    return (len[a] <= len[b]) ? find(a, b) >= 0 : find(b, a) >= 0;
+  }
+
+  // Position of b in a's segment, or -1
+  private int find(int a, int b) {
+    int[] t = index[a];
+    if (t != null) {
+      int mask = t.length - 2;
+      for (int h = hash(b) & mask; t[h] != 0; h = (h + 2) & mask) {
+        if (t[h] == b + 1) { return t[h + 1]; }
+      }
+      return -1;
+    }
+    int base = start[a];
+    for (int i = 0; i < len[a]; i++) {
+      if (nbr[base + i] == b) { return i; }
+    }
+    return -1;
+  }
+
+  public boolean addEdge(int a, int b) {
+    if (a == b || contains(a, b)) {
+      return false;
+    }
+    append(a, b);
+    append(b, a);
+    return true;
+  }
+
+  private void append(int s, int b) {
+    ensureRoom(s);
+    int i = len[s]++;
+    nbr[start[s] + i] = b;
+    if (index[s] != null) {
+      put(s, b, i);
+    } else if (len[s] > HASHED) {
+      reindex(s);
+    }
+  }
+
+  // Make s's segment hold exactly nbrs, in that order.  Only s's own
+  // entries are written, so the other ends must be set the same way,
+  // as when a saved overlay is restored node by node.
+  public void setNeighbors(int s, int[] nbrs) {
+    len[s] = 0;
+    while (cap[s] < nbrs.length) {
+      // ensureRoom() only grows a full segment
+      len[s] = cap[s];
+      ensureRoom(s);
+    }
+    System.arraycopy(nbrs, 0, nbr, start[s], nbrs.length);
+    len[s] = nbrs.length;
+    index[s] = null;
+    if (len[s] > HASHED) {
+      reindex(s);
+    }
+  }
+
+  // Search an indexed or else the shorter segment first, so a missing
+  // edge costs no more than a membership test
+  public boolean removeEdge(int a, int b) {
+    if (index[b] != null || (index[a] == null && len[a] > len[b])) {
+      int t = a;
+      a = b;
+      b = t;
+    }
+    int i = find(a, b);
+    if (i < 0) {
+      return false;
+    }
+    unlink(a, i);
+    unlink(b, find(b, a));
+    return true;
+  }
+
+  // Drop position i from s's segment by moving the last entry into it
+  private void unlink(int s, int i) {
+    int last = --len[s];
+    int[] t = index[s];
+    if (t != null) {
+      if (len[s] < HASHED / 2) {
+        index[s] = null;
+      } else {
+        delete(t, nbr[start[s] + i]);
+        if (i != last) {
+          put(s, nbr[start[s] + last], i);
+        }
+      }
+    }
+    if (i != last) {
+      nbr[start[s] + i] = nbr[start[s] + last];
+    }
+  }
+
+  // Even offset of b's home pair (masked by the caller)
+  private static int hash(int b) {
+    int h = b * 0x9E3779B9;
+    return (h ^ (h >>> 16)) << 1;
+  }
+
+  // Rebuild s's position index, with room for the segment to double
+  private void reindex(int s) {
+    int n = Integer.highestOneBit(len[s] * 2) * 4;
+    index[s] = new int[n];
+    for (int i = 0; i < len[s]; i++) {
+      put(s, nbr[start[s] + i], i);
+    }
+  }
+
+  // Set (or add) b's position in s's index
+  private void put(int s, int b, int pos) {
+    int[] t = index[s];
+    int mask = t.length - 2;
+    int h = hash(b) & mask;
+    while (t[h] != 0 && t[h] != b + 1) {
+      h = (h + 2) & mask;
+    }
+    if (t[h] == 0 && len[s] * 4 > t.length) {
+      // Over half full once this is added; len[s] already counts it
+      reindex(s);
+      return;
+    }
+    t[h] = b + 1;
+    t[h + 1] = pos;
+  }
+
+  // Remove b from an index, shifting back later entries of its probe
+  // run so that no lookup stops short at the hole
+  private static void delete(int[] t, int b) {
+    int mask = t.length - 2;
+    int h = hash(b) & mask;
+    while (t[h] != b + 1) {
+      if (t[h] == 0) { return; }
+      h = (h + 2) & mask;
+    }
+    int hole = h;
+    for (h = (h + 2) & mask; t[h] != 0; h = (h + 2) & mask) {
+      int home = hash(t[h] - 1) & mask;
+      // Move the entry into the hole unless its home lies cyclically
+      // after the hole and at or before where it sits now
+      if (((h - home) & mask) >= ((h - hole) & mask)) {
+        t[hole] = t[h];
+        t[hole + 1] = t[h + 1];
+        hole = h;
+      }
+    }
+    t[hole] = 0;
+  }
+
+  private void ensureRoom(int s) {
+    if (len[s] < cap[s]) {
+      return;
+    }
+    int newCap = Math.max(MIN_SEGMENT, cap[s] * 2);
+    if (start[s] + cap[s] == top && cap[s] > 0) {
+      // Last segment in the slab can simply grow in place
+      reserve(newCap - cap[s]);
+      top += newCap - cap[s];
+      cap[s] = newCap;
+      return;
+    }
+    if (waste > top / 2) {
+      compact();
+    }
+    reserve(newCap);
+    System.arraycopy(nbr, start[s], nbr, top, len[s]);
+    waste += cap[s];
+    start[s] = top;
+    cap[s] = newCap;
+    top += newCap;
+  }
+
+  private void reserve(int extra) {
+    if (top + extra > nbr.length) {
+      int n = Math.max(nbr.length * 2, top + extra);
+      nbr = Arrays.copyOf(nbr, n);
+    }
+  }
+
+  // Squeeze out holes left behind by moved or released segments
+  public void compact() {
+    int[] newNbr = new int[nbr.length];
+    int pos = 0;
+    for (int s = 0; s < slots; s++) {
+      if (cap[s] == 0) { continue; }
+      System.arraycopy(nbr, start[s], newNbr, pos, len[s]);
+      start[s] = pos;
+      pos += cap[s];
+    }
+    nbr = newNbr;
+    top = pos;
+    waste = 0;
+  }
+
+  public int slotCount() {
+    return slots - freeCount;
+  }
+
+  public long endpointCount() {
+    long ret = 0;
+    for (int s = 0; s < slots; s++) {
+      ret += len[s];
+    }
+    return ret;
+  }
+}
@@ -31,20 +31,18 @@ public class AlertHormone extends Chemical {
   private static final String PAR_MAX_CONCENTRATION =
       "config.alert.max_concentration";
 
-  private static double diffusionRate;
-  private static double decayRate;
-  private static double maxConcentration;
+  // Hormones are created for every failure alert; bind the rates once
+  private static final ConfigValue diffusionRate =
+      new ConfigValue(PAR_DIFFUSION_RATE);
+  private static final ConfigValue decayRate =
+      new ConfigValue(PAR_DECAY_RATE);
+  private static final ConfigValue maxConcentration =
+      new ConfigValue(PAR_MAX_CONCENTRATION);
 
-  private boolean initialized = false;
   public AlertHormone(double amount) {
     super();
     name = "AlertHormone";
 
-    if (!initialized) {
-      diffusionRate = Configuration.getDouble(PAR_DIFFUSION_RATE);
-      decayRate = Configuration.getDouble(PAR_DECAY_RATE);
-      maxConcentration = Configuration.getDouble(PAR_MAX_CONCENTRATION);
-    }
     this.setAmount(amount);
   }
 
@@ -54,9 +52,11 @@ public class AlertHormone extends Chemical {
   }
 
 
-  public double getDiffusionRate() { return diffusionRate; }
-  public double getDecayRate() { return decayRate; }
-  public double getMaxConcentration() { return maxConcentration; }
+  public double getDiffusionRate() { return diffusionRate.getDouble(); }
+  public double getDecayRate() { return decayRate.getDouble(); }
+  public double getMaxConcentration() {
+    return maxConcentration.getDouble();
+  }
 
   public Object clone() {
     AlertHormone ret = new AlertHormone(amount);
@@ -43,6 +43,18 @@ public class BasicBiomassStrategy extends DynamicsStrategy {
   }
 
 
+  // Attached to exactly one hypha and no biomass, there is nothing
+  // to join, sever or clean up
+  public boolean isSettled(MycoNode node, HyphaData data, HyphaLink link) {
+    return link.hyphaDegree() == 1 && link.biomassDegree() == 0;
+  }
+
+  // Join strategies other than the null one change the joining nodes
+  // directly
+  public boolean isDeferrable() {
+    return joinStrategy instanceof NullJoinStrategy;
+  }
+
   public void doDynamics(MycoNode node, HyphaData data, HyphaLink link) {
     // If this is free-floating biomass, attach to a foraging hypha
     MycoCast mycoCast = node.getMycoCast();
@@ -56,7 +68,7 @@ public class BasicBiomassStrategy extends DynamicsStrategy {
       hyphaNode = mycoCast.getForagingHypha();
     }
     if (link.isDisconnected()
-        || link.getHyphae().isEmpty()) {
+        || link.hyphaDegree() == 0) {
       if (hyphaNode == null) {
         // No appropriate foraging hyphae, so spore as extending hypha
         log.log(Level.FINER, node + " CAN'T FIND A FORAGER", node);
@@ -81,11 +93,14 @@ public class BasicBiomassStrategy extends DynamicsStrategy {
     // Ensure only one parent
     MycoList sn = link.getHyphae();
     while (sn.size() > 1) {
-      MycoNode excess = sn.getRandom();
+      MycoNode excess = sn.getRandom(node.getRandomStream());
       log.log(Level.FINE, node + " SEVERING EXCESS PARENT " +
               excess, new Object [] { node, excess});
-      link.removeNeighbor(sn.getRandom());
-      sn = link.getHyphae();
+      MycoNode severed = sn.getRandom(node.getRandomStream());
+      link.removeNeighbor(severed);
+      // Dropped here rather than read back from link, which under
+      // BspNextCycle does not change until the commit
+      sn.remove(severed);
     }
 
     // Clean up any biomass connections
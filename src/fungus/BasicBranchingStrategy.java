@@ -38,7 +38,7 @@ public class BasicBranchingStrategy extends BasicHyphaStrategy {
     MycoList hyphae = link.getHyphae();
 
     // Randomly permute order so selections will be random
-    java.util.Collections.shuffle(hyphae);
+    java.util.Collections.shuffle(hyphae, node.getRandomStream());
     MycoList extending = hyphae.getExtending();
     MycoList branching = hyphae.getBranching();
     MycoList immobile = hyphae.getImmobile();
@@ -118,7 +118,8 @@ public class BasicBranchingStrategy extends BasicHyphaStrategy {
     // If under hyphal capacity:
     // Connect to a random hyphae in 2-neighborhood
     if (link.isUnderHyphae()) {
-      MycoNode candidate = link.get2Neighbors().getHyphae().getRandom();
+      MycoNode candidate = link.getRandom2Neighbor(HyphaType.IMMOBILE,
+          HyphaType.BRANCHING, HyphaType.EXTENDING);
       if (candidate != null) {
         log.log(Level.FINE,
                 node
@@ -31,6 +31,10 @@ public class BasicBulwarkStrategy extends DynamicsStrategy {
   private static Logger log =
       Logger.getLogger(BasicBulwarkStrategy.class.getName());
 
+  public boolean isDeferrable() {
+    return true;
+  }
+
   public void doDynamics(MycoNode node, HyphaData data, HyphaLink link) {
     MycoCast mycoCast = (MycoCast) node.getMycoCast();
 
@@ -50,7 +54,7 @@ public class BasicBulwarkStrategy extends DynamicsStrategy {
     } else if (link.degree() > data.getBulwarkMax()) {
       log.log(Level.FINER, "Bulwark node " + node +
               " is over maximum neighbor count", node);
-      MycoNode candidate = link.getNeighbors().getRandom();
+      MycoNode candidate = link.getNeighbors().getRandom(node.getRandomStream());
       if (candidate == null) {
         log.log(Level.FINE, "Bulwark node " + node +
                 " could not find neighbor to drop!!!", node);
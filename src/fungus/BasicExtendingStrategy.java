@@ -40,7 +40,7 @@ public class BasicExtendingStrategy extends BasicHyphaStrategy {
     MycoList hyphae = link.getHyphae();
 
     // Randomly permute order so selections will be random
-    java.util.Collections.shuffle(hyphae);
+    java.util.Collections.shuffle(hyphae, node.getRandomStream());
     MycoList extending = hyphae.getExtending();
     MycoList branching = hyphae.getBranching();
     MycoList immobile = hyphae.getImmobile();
@@ -93,7 +93,7 @@ public class BasicExtendingStrategy extends BasicHyphaStrategy {
     }
 
     // If not attached to at least parent_target stable hypha, grow a link
-    if (link.getStable().size() < Math.floor(data.getParentTarget())) {
+    if (link.stableDegree() < Math.floor(data.getParentTarget())) {
       MycoCast myco = node.getMycoCast();
       MycoNode o = myco.getStableHypha();
       if (o != null) {
@@ -122,12 +122,13 @@ public class BasicExtendingStrategy extends BasicHyphaStrategy {
       // If over hyphal connections target, drop the excess
       MycoList hyp = link.getHyphae();
       while (hyp.size() > Math.floor(data.getParentTarget())) {
-        MycoNode candidate = hyp.getRandom();
+        MycoNode candidate = hyp.getRandom(node.getRandomStream());
         log.log(Level.FINE, node + " has more than one hypha, randomly " +
                 " dropping connection to " + candidate,
                 new Object[] { node, candidate });
         link.removeNeighbor(candidate);
-        hyp = link.getHyphae();
+        // As in BasicBiomassStrategy, not read back from link
+        hyp.remove(candidate);
       }
     }
   }
@@ -24,6 +24,8 @@ import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import com.google.common.collect.Iterables;
+
 import peersim.config.Configuration;
 import peersim.core.CommonState;
 
@@ -33,6 +35,32 @@ public abstract class BasicHyphaStrategy extends DynamicsStrategy {
   private static Logger log =
       Logger.getLogger(BasicHyphaStrategy.class.getName());
 
+  public boolean isDeferrable() {
+    return true;
+  }
+
+  // Whether doCommonDynamics() would leave the node alone: attached to
+  // a stable hypha, and no biomass within two hops worth stealing or
+  // swapping with.  The hunt for a hypha only logs what it finds.
+  protected boolean isCommonSettled(MycoNode node, HyphaData data,
+                                    HyphaLink link) {
+    if (link.hyphaDegree() == 0
+        || (link.stableDegree() == 0 && !data.isExtending())) {
+      return false;
+    }
+    MycoNode myMaxBiomass = link.getMaxBiomass();
+    if (myMaxBiomass == null) {
+      return true;
+    }
+    int myCapacity = data.getMaxCapacity();
+    if (myMaxBiomass.getMaxCapacity() > myCapacity) {
+      return false;
+    }
+    List<MycoNode> twoHopBiomass = link.get2NeighborBiomass();
+    return twoHopBiomass.isEmpty()
+        || twoHopBiomass.get(0).getHyphaData().getMaxCapacity() <= myCapacity;
+  }
+
   /* Logic for dynamics common to all hyphal states */
   public void doCommonDynamics(MycoNode node, HyphaData data, HyphaLink link) {
     // Clean up dead neighbors
@@ -48,13 +76,8 @@ public abstract class BasicHyphaStrategy extends DynamicsStrategy {
 
     // If disconnected from other hypha, pick a random stable hypha
     // (if possible) and connect to it
-    MycoList hyphaeList = link.getHyphae();
-    MycoList stableList = link.getStable();
-
-    MycoList biomassList = link.getBiomass();
-
-    if (hyphaeList.isEmpty()
-        || (stableList.isEmpty() && !data.isExtending())) {
+    if (link.hyphaDegree() == 0
+        || (link.stableDegree() == 0 && !data.isExtending())) {
       log.log(Level.FINER, node + " IS DISCONNECTED FROM OTHER HYPHAE",
               node);
 
@@ -78,12 +101,14 @@ public abstract class BasicHyphaStrategy extends DynamicsStrategy {
       maxBiomassCapacity = 0;
     }
 
-    // Find largest biomass attached to a neighbor
-    for (MycoNode n : link.get2Neighbors().getBiomass()) {
-      d = n.getHyphaData();
+    // Find largest biomass attached to a neighbor (the two-hop biomass
+    // list is sorted largest first, so only its head matters)
+    List<MycoNode> twoHopBiomass = link.get2NeighborBiomass();
+    if (!twoHopBiomass.isEmpty()) {
+      d = twoHopBiomass.get(0).getHyphaData();
       if (d.getMaxCapacity() > maxBiomassCapacity) {
         maxBiomassCapacity = d.getMaxCapacity();
-        maxBiomass = n;
+        maxBiomass = twoHopBiomass.get(0);
       }
     }
 
@@ -112,14 +137,15 @@ public abstract class BasicHyphaStrategy extends DynamicsStrategy {
     } else {
       // If we're not attached to a hyphae, go hunting
       log.log(Level.FINER, "HUNTING FOR HYPHA", node);
-      if (link.getSameNeighbors().getHyphae().size() == 0) {
+      if (link.sameHyphaDegree() == 0) {
         log.log(Level.FINER, node
                 + " IS NOT ATTACHED TO A HYPHA", node);
-        MycoList candidates = link.get2Neighborhood().getHyphae();
+        MycoList candidates = new MycoList(Iterables.filter(
+            link.get2Neighborhood(), MycoList.hyphaPredicate));
         log.log(Level.FINER, "hyphae in 2-neighborhood are: "
                 + candidates, node);
         if (candidates.size() > 0) {
-          MycoNode target = candidates.getRandom();
+          MycoNode target = candidates.getRandom(node.getRandomStream());
           log.log(Level.FINER, "FOUND " + candidates.size()
                   + "candidates, connecting to " + target);
         }
@@ -25,7 +25,6 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import peersim.config.Configuration;
-import peersim.core.CommonState;
 
 public class BasicImmobileStrategy extends BasicHyphaStrategy {
 
@@ -40,6 +39,39 @@ public class BasicImmobileStrategy extends BasicHyphaStrategy {
     spawnProb = Configuration.getDouble(PAR_SPAWN_PROB);
   }
 
+  // None of the rules below would fire on the current neighborhood.
+  // The random spawn is left to actionProbability().
+  public boolean isSettled(MycoNode node, HyphaData data, HyphaLink link) {
+    if (!isCommonSettled(node, data, link)
+        || link.stateDegree(HyphaType.EXTENDING) > 1
+        || link.isUnderHyphae()
+        || link.isOverHyphae()
+        || (link.isOverBiomass() && link.hyphaDegree() > 0)
+        || (((float) link.biomassDegree())
+            / (float) data.getIdealBiomass()) < 0.80) {
+      return false;
+    }
+    if (link.isUnderBiomass()) {
+      for (MycoNode neighbor : link.getHyphae()) {
+        HyphaLink nl = neighbor.getHyphaLink();
+        if (!neighbor.getHyphaData().isImmobile()
+            && nl.biomassDegree() > 0) {
+          return false;
+        }
+        if (data.getMaxCapacity() > neighbor.getHyphaData().getMaxCapacity()
+            && nl.sameBiomassDegree() <= link.amountUnderBiomass()) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  public double actionProbability(MycoNode node, HyphaData data,
+                                  HyphaLink link) {
+    return spawnProb;
+  }
+
   public void doDynamics(MycoNode node, HyphaData data, HyphaLink link) {
     // Execute logic common to all hyphal states
     doCommonDynamics(node, data, link);
@@ -47,7 +79,7 @@ public class BasicImmobileStrategy extends BasicHyphaStrategy {
     MycoList hyphae = link.getHyphae();
 
     // Randomly permute order so selections will be random
-    java.util.Collections.shuffle(hyphae);
+    java.util.Collections.shuffle(hyphae, node.getRandomStream());
     MycoList extending = hyphae.getExtending();
     MycoList branching = hyphae.getBranching();
     MycoList immobile = hyphae.getImmobile();
@@ -100,7 +132,8 @@ public class BasicImmobileStrategy extends BasicHyphaStrategy {
     }
 
     // Shake things up by sometimes randomly connecting to a new hypha
-    if (CommonState.r.nextDouble() < spawnProb) {
+    if (ActiveSet.takeDue(node)
+        || node.getRandomStream().nextDouble() < spawnProb) {
       MycoCast myco = node.getMycoCast();
       MycoNode stable = myco.getStableHypha();
       if (stable != null) {
@@ -178,7 +211,7 @@ public class BasicImmobileStrategy extends BasicHyphaStrategy {
     if (link.isOverHyphae()) {
       //&& (link.hyphaDegree() > data.getIdealHyphae())) {
       log.log(Level.FINER, node + " IS OVER HYPHAL CAPACITY", node);
-      MycoNode candidate = link.getStable().getRandom();
+      MycoNode candidate = link.getStable().getRandom(node.getRandomStream());
 
       if (candidate != null) {
         log.log(Level.FINER, node + " SEVERING HYPHA TO " + candidate,
@@ -0,0 +1,279 @@
+/* Copyright (c) 2014, Paul L. Snyder <paul@pataprogramming.com>,
+ * Daniel Dubois, Nicolo Calcavecchia.
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option)
+ * Any later version. It may also be redistributed and/or modified under the
+ * terms of the BSD 3-Clause License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+
+
+package fungus;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import peersim.cdsim.CDProtocol;
+import peersim.cdsim.CDState;
+import peersim.cdsim.FullNextCycle;
+import peersim.config.Configuration;
+import peersim.config.IllegalParameterException;
+import peersim.core.CommonState;
+import peersim.core.Network;
+import peersim.core.Node;
+
+// Opt-in replacement for the default cycle driver with bulk-synchronous
+// dynamics: every node's strategy decides against the overlay as it
+// stood at the start of the cycle, and the decisions are applied
+// together afterwards.  Use it by setting simulation.nodefaultcycle and
+// adding it after every other control, e.g.
+//
+//   control.cycle fungus.BspNextCycle
+//   control.cycle.threads 4
+//
+// Each cycle runs in five steps:
+//
+//   1. the protocols ahead of FungalGrowth (in protocol order, as
+//      CycleDispatch selects them) on every node, one node at a time
+//      in index order, as the default driver would;
+//   2. FungalGrowth's message accounting and dead link cleanup for
+//      every node, in ID order;
+//   3. the decide phase: each live node's strategy runs with its
+//      changes to the overlay recorded rather than made (see BspOps),
+//      so every node sees the same frozen state.  With threads above 1
+//      the nodes are split over a ForkJoinPool;
+//   4. the commit phase: the recorded operations are applied node by
+//      node in ID order, each dropped as a conflict if what it was
+//      decided on no longer holds;
+//   5. FungalGrowth's MycoCast bookkeeping, then the protocols after
+//      FungalGrowth, on every node.
+//
+// Nodes are ordered by ID, so the result does not depend on Shuffle or
+// on the network's index order, and, with random.streams set, not on
+// the thread count either.  Only strategy maps whose strategies are all
+// deferrable (see DynamicsStrategy.isDeferrable()) are supported; this
+// is checked at start-up.  The getpair and shuffle options of
+// FullNextCycle are not supported.
+
+public class BspNextCycle extends FullNextCycle {
+  private static final String PAR_THREADS = "threads";
+  private static final String PAR_MIN_BATCH = "min_batch";
+
+  private static Logger log =
+      Logger.getLogger(BspNextCycle.class.getName());
+
+  static final Comparator<MycoNode> byID =
+      new Comparator<MycoNode>() {
+        public int compare(MycoNode a, MycoNode b) {
+          return Long.compare(a.getID(), b.getID());
+        }
+      };
+
+  // Null when deciding on the calling thread
+  private final ForkJoinPool pool;
+  private final int minBatch;
+  private final CycleDispatch dispatch;
+
+  public BspNextCycle(String prefix) {
+    this(prefix, 1);
+  }
+
+  // For subclasses whose decide phase should default to more threads
+  protected BspNextCycle(String prefix, int defaultThreads) {
+    super(prefix);
+    int threads = Configuration.getInt(prefix + "." + PAR_THREADS,
+                                       defaultThreads);
+    minBatch = Configuration.getInt(prefix + "." + PAR_MIN_BATCH, 64);
+    pool = (threads > 1) ? new ForkJoinPool(threads) : null;
+    dispatch = new CycleDispatch(protSchedules, false);
+    if (!FungalGrowth.isDeferrable()) {
+      throw new IllegalParameterException(prefix,
+          "the FungalGrowth strategy map has strategies that cannot be "
+          + "deferred");
+    }
+    if (getpair_rand || shuffle) {
+      log.warning("getpair and shuffle are ignored by "
+                  + getClass().getSimpleName());
+    }
+    if (pool != null && !RandomStreams.isSplit()) {
+      // ExtendedRandom steps atomically, XoshiroRandom does not
+      if (CommonState.r instanceof XoshiroRandom) {
+        throw new IllegalParameterException(prefix + "." + PAR_THREADS,
+            "a shared XoshiroRandom is not thread-safe; set random.streams "
+            + "or decide on one thread");
+      }
+      log.warning("Without random.streams, nodes decided in parallel "
+                  + "share one generator and runs are not reproducible");
+    }
+  }
+
+  public boolean execute() {
+    final int cycle = CDState.getCycle();
+    int[] pids = dispatch.pids(cycle);
+    int growthPid = -1;
+    for (int k : pids) {
+      if (Network.prototype.getProtocol(k) instanceof FungalGrowth) {
+        growthPid = k;
+      }
+    }
+
+    int g = 0;
+    while (g < pids.length && pids[g] != growthPid) {
+      g++;
+    }
+    runClassic(pids, 0, g);
+    if (g < pids.length && FungalGrowth.isActiveCycle()) {
+      runGrowth(growthPid);
+    }
+    runClassic(pids, g + 1, pids.length);
+    return false;
+  }
+
+  // Run pids[from..to) on every node in index order
+  private void runClassic(int[] pids, int from, int to) {
+    if (from >= to) {
+      return;
+    }
+    for (int j = 0; j < Network.size(); j++) {
+      Node node = Network.get(j);
+      if (!node.isUp()) {
+        continue;
+      }
+      CDState.setNode(node);
+      CDState.setCycleT(j);
+      for (int i = from; i < to; i++) {
+        CDState.setPid(pids[i]);
+        ((CDProtocol) node.getProtocol(pids[i])).nextCycle(node, pids[i]);
+        if (!node.isUp()) {
+          break;
+        }
+      }
+    }
+  }
+
+  // Steps 2 to 5 of the cycle for FungalGrowth at pid
+  protected void runGrowth(int pid) {
+    List<MycoNode> nodes = new ArrayList<MycoNode>(Network.size());
+    for (int j = 0; j < Network.size(); j++) {
+      if (Network.get(j).isUp()) {
+        nodes.add((MycoNode) Network.get(j));
+      }
+    }
+    Collections.sort(nodes, byID);
+
+    BspOps.resetCounts();
+    prepareAll(nodes, pid);
+    commitAll(nodes, decideAll(nodes, pid));
+    log.log(Level.FINE, "Cycle " + CDState.getCycle() + ": "
+            + BspOps.appliedCount() + " operations applied, "
+            + BspOps.conflictCount() + " conflicts");
+  }
+
+  // FungalGrowth's message accounting and dead link cleanup for the
+  // given nodes, in list order, ahead of deciding for them
+  protected void prepareAll(List<MycoNode> nodes, int pid) {
+    CDState.setPid(pid);
+    for (MycoNode node : nodes) {
+      CDState.setNode(node);
+      growth(node, pid).prepare(node, node.getHyphaData(),
+                                node.getHyphaLink());
+      // Anything the decide phase would otherwise set up lazily on
+      // shared structures is set up here
+      MycoCast.verify(node, node.getHyphaData().getState());
+      node.getHyphaLink().neighbors();
+    }
+  }
+
+  // Apply the buffers decided for nodes, in list order, then bring
+  // MycoCast up to date with the nodes' new states
+  protected void commitAll(List<MycoNode> nodes, BspOps.Buffer[] buffers) {
+    for (BspOps.Buffer buf : buffers) {
+      BspOps.commit(buf);
+    }
+    for (MycoNode node : nodes) {
+      if (node.isUp()) {
+        MycoCast.verify(node, node.getHyphaData().getState());
+      }
+    }
+  }
+
+  // The decide phase: run the strategies of the given nodes (in ID
+  // order) and return their buffers in the same order
+  protected BspOps.Buffer[] decideAll(List<MycoNode> nodes, int pid) {
+    BspOps.Buffer[] buffers = new BspOps.Buffer[nodes.size()];
+    BspOps.setDeciding(true);
+    try {
+      if (pool == null) {
+        decide(nodes, buffers, pid, 0, nodes.size());
+      } else {
+        pool.invoke(new Batch(nodes, buffers, pid, 0, nodes.size()));
+      }
+    } finally {
+      BspOps.setDeciding(false);
+    }
+    return buffers;
+  }
+
+  private static FungalGrowth growth(Node node, int pid) {
+    return (FungalGrowth) node.getProtocol(pid);
+  }
+
+  private static void decide(List<MycoNode> nodes, BspOps.Buffer[] buffers,
+                             int pid, int from, int to) {
+    for (int i = from; i < to; i++) {
+      MycoNode node = nodes.get(i);
+      buffers[i] = BspOps.begin(node);
+      try {
+        growth(node, pid).decide(node, node.getHyphaData(),
+                                 node.getHyphaLink());
+      } finally {
+        BspOps.end();
+      }
+    }
+  }
+
+  private class Batch extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    private final List<MycoNode> nodes;
+    private final BspOps.Buffer[] buffers;
+    private final int pid;
+    private final int from;
+    private final int to;
+
+    Batch(List<MycoNode> nodes, BspOps.Buffer[] buffers, int pid, int from,
+          int to) {
+      this.nodes = nodes;
+      this.buffers = buffers;
+      this.pid = pid;
+      this.from = from;
+      this.to = to;
+    }
+
+    protected void compute() {
+      if (to - from <= minBatch) {
+        decide(nodes, buffers, pid, from, to);
+        return;
+      }
+      int mid = (from + to) >>> 1;
+      invokeAll(new Batch(nodes, buffers, pid, from, mid),
+                new Batch(nodes, buffers, pid, mid, to));
+    }
+  }
+}
@@ -0,0 +1,393 @@
+/* Copyright (c) 2014, Paul L. Snyder <paul@pataprogramming.com>,
+ * Daniel Dubois, Nicolo Calcavecchia.
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option)
+ * Any later version. It may also be redistributed and/or modified under the
+ * terms of the BSD 3-Clause License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+
+
+package fungus;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+// Deferred overlay changes for BspNextCycle.
+//
+// While BspNextCycle runs its decide phase, the mutators of HyphaLink
+// and HyphaData, MessageObserver's counters and MycoCast's random draws
+// first offer their arguments to the methods here.  If the calling
+// thread is deciding for a node they are recorded in that node's
+// Buffer, the mutator returns without touching anything shared, and
+// the strategy goes on reading the overlay as it was at the start of
+// the cycle.  Outside the decide phase every hook returns false at the
+// cost of one static read.
+//
+// commit() later applies a node's operations in the order they were
+// recorded, each only if what it was decided on still holds: its
+// issuer is up and in the state it meant to be in, the link it works
+// on is still there, a transfer of biomass still has a surplus to
+// push or a shortfall to fill (and moves no more than that), and so
+// on.  An operation that fails its check is a conflict and is dropped.
+//
+// A strategy may run under BspNextCycle only if it changes the overlay
+// through the hooked methods alone, and never waits for one of its own
+// changes to show up in what it reads (see
+// DynamicsStrategy.isDeferrable()).
+
+public class BspOps {
+  public enum Kind {
+    ADD, REMOVE, TRANSFER, TRANSFER_BIOMASS, ABSORB, SWAP, GROW, BECOME
+  }
+
+  // MessageObserver counters, as indices into Buffer.messages
+  public static final int GOSSIP = 0;
+  public static final int LOAD_QUERY = 1;
+  public static final int LOAD_ACTION = 2;
+  public static final int TOPO_QUERY = 3;
+  public static final int TOPO_ACTION = 4;
+
+  // Set by BspNextCycle around the decide phase only
+  private static boolean deciding = false;
+
+  private static final ThreadLocal<Buffer> current =
+      new ThreadLocal<Buffer>();
+
+  private static long applied = 0;
+  private static long conflicts = 0;
+
+  // One recorded call.  actor is the node whose HyphaLink or HyphaData
+  // was called; a and b are its node arguments in call order.
+  private static class Op {
+    final Kind kind;
+    final MycoNode actor;
+    final MycoNode a;
+    final MycoNode b;
+    final int quantity;
+    final HyphaType state;
+    // The issuer's intended state when the call was made
+    final HyphaType expect;
+    // For BECOME, the state actor was in (or, for the issuer, meant
+    // to be in) when the call was made
+    final HyphaType from;
+
+    Op(Kind kind, MycoNode actor, MycoNode a, MycoNode b, int quantity,
+       HyphaType state, HyphaType expect, HyphaType from) {
+      this.kind = kind;
+      this.actor = actor;
+      this.a = a;
+      this.b = b;
+      this.quantity = quantity;
+      this.state = state;
+      this.expect = expect;
+      this.from = from;
+    }
+  }
+
+  // The operations one node decided on in one cycle
+  public static class Buffer {
+    private final MycoNode node;
+    private final List<Op> ops = new ArrayList<Op>();
+    private final int[] messages = new int[TOPO_ACTION + 1];
+    // The state node will be in once its own BECOMEs (and SWAPs) so
+    // far are applied
+    private HyphaType intended;
+
+    Buffer(MycoNode node) {
+      this.node = node;
+      this.intended = node.getHyphaData().getState();
+    }
+
+    public MycoNode getNode() {
+      return node;
+    }
+
+    public int size() {
+      return ops.size();
+    }
+
+    private void add(Kind kind, MycoNode actor, MycoNode a, MycoNode b,
+                     int quantity, HyphaType state) {
+      HyphaType from = null;
+      if (kind == Kind.BECOME) {
+        from = (actor == node) ? intended : actor.getHyphaData().getState();
+      }
+      ops.add(new Op(kind, actor, a, b, quantity, state, intended, from));
+      if (actor == node) {
+        if (kind == Kind.BECOME) {
+          intended = state;
+        } else if (kind == Kind.SWAP) {
+          intended = HyphaType.BIOMASS;
+        }
+      }
+    }
+  }
+
+  static void setDeciding(boolean d) {
+    deciding = d;
+  }
+
+  public static boolean isDeciding() {
+    return deciding;
+  }
+
+  // Start recording for node on the calling thread
+  static Buffer begin(MycoNode node) {
+    Buffer ret = new Buffer(node);
+    current.set(ret);
+    return ret;
+  }
+
+  static void end() {
+    current.remove();
+  }
+
+  private static Buffer recording() {
+    return deciding ? current.get() : null;
+  }
+
+  // Record a call if the calling thread is deciding; true if the
+  // caller should return without doing anything
+  public static boolean defer(Kind kind, MycoNode actor, MycoNode a) {
+    return defer(kind, actor, a, null, 0, null);
+  }
+
+  public static boolean defer(Kind kind, MycoNode actor, MycoNode a,
+                              MycoNode b) {
+    return defer(kind, actor, a, b, 0, null);
+  }
+
+  public static boolean defer(Kind kind, MycoNode actor, MycoNode a,
+                              int quantity) {
+    return defer(kind, actor, a, null, quantity, null);
+  }
+
+  public static boolean defer(Kind kind, MycoNode actor, HyphaType state) {
+    return defer(kind, actor, null, null, 0, state);
+  }
+
+  private static boolean defer(Kind kind, MycoNode actor, MycoNode a,
+                               MycoNode b, int quantity, HyphaType state) {
+    Buffer buf = recording();
+    if (buf == null) {
+      return false;
+    }
+    buf.add(kind, actor, a, b, quantity, state);
+    return true;
+  }
+
+  // Hold back a MessageObserver count until the node's buffer is
+  // committed
+  public static boolean deferMessages(int counter, int count) {
+    Buffer buf = recording();
+    if (buf == null) {
+      return false;
+    }
+    buf.messages[counter] += count;
+    return true;
+  }
+
+  // The deciding node's own stream, so that its draws do not depend on
+  // which other nodes were decided before it, or on which thread;
+  // fallback outside the decide phase
+  public static Random random(Random fallback) {
+    Buffer buf = recording();
+    return (buf == null) ? fallback : buf.node.getRandomStream();
+  }
+
+  // Apply buf's operations to the overlay.  Must not be called while
+  // deciding.
+  static void commit(Buffer buf) {
+    MycoNode issuer = buf.node;
+    for (Op op : buf.ops) {
+      if (apply(issuer, op)) {
+        applied++;
+      } else {
+        conflicts++;
+      }
+    }
+    int[] m = buf.messages;
+    MessageObserver.gossipMessages(m[GOSSIP]);
+    MessageObserver.loadQueryMessages(m[LOAD_QUERY]);
+    MessageObserver.loadActionMessages(m[LOAD_ACTION]);
+    MessageObserver.topoQueryMessages(m[TOPO_QUERY]);
+    MessageObserver.topoActionMessages(m[TOPO_ACTION]);
+  }
+
+  private static boolean apply(MycoNode issuer, Op op) {
+    if (!issuer.isUp() || issuer.getHyphaData().getState() != op.expect) {
+      return false;
+    }
+    HyphaLink link = op.actor.getHyphaLink();
+    switch (op.kind) {
+      case ADD:
+        if (!alive(op.actor) || !alive(op.a)) {
+          return false;
+        }
+        link.addNeighbor(op.a);
+        return true;
+      case REMOVE:
+        if (!link.isNeighbor(op.a)) {
+          return false;
+        }
+        link.removeNeighbor(op.a);
+        return true;
+      case TRANSFER:
+        if (!link.isNeighbor(op.a) || !alive(op.b)) {
+          return false;
+        }
+        link.transferNeighbor(op.a, op.b);
+        return true;
+      case TRANSFER_BIOMASS: {
+        int q = op.quantity;
+        if (op.actor == issuer) {
+          q = Math.min(q, link.amountOverBiomass());
+        } else if (op.a == issuer) {
+          q = Math.min(q, issuer.getHyphaLink().amountUnderBiomass());
+        }
+        if (q <= 0 || !alive(op.a)) {
+          return false;
+        }
+        link.transferBiomass(op.a, q);
+        return true;
+      }
+      case ABSORB:
+        if (!link.isNeighbor(op.a) || !liveNonBiomass(op.actor)
+            || !liveNonBiomass(op.a)) {
+          return false;
+        }
+        link.absorbHypha(op.a);
+        return true;
+      case SWAP:
+        if (!link.isNeighbor(op.a) || !liveNonBiomass(op.actor)
+            || !op.a.getHyphaData().isBiomass()) {
+          return false;
+        }
+        link.swapHyphae(op.a);
+        return true;
+      case GROW:
+        if (!link.isNeighbor(op.a) || !op.a.getHyphaData().isBiomass()) {
+          return false;
+        }
+        op.a.getHyphaData().becomeExtending(op.a);
+        return true;
+      case BECOME:
+        if (!op.actor.isUp()
+            || op.actor.getHyphaData().getState() != op.from) {
+          return false;
+        }
+        op.actor.getHyphaData().become(op.actor, op.state);
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  private static boolean alive(MycoNode n) {
+    return n.isUp() && !n.getHyphaData().isDead();
+  }
+
+  private static boolean liveNonBiomass(MycoNode n) {
+    HyphaData d = n.getHyphaData();
+    return n.isUp() && !d.isBiomass() && !d.isDead();
+  }
+
+  // Write a decided buffer for another process running a replica of
+  // the same overlay (see ReplicatedNextCycle).  Nodes go by ID.  The
+  // node's random stream is written too, since deciding advanced it
+  // only in this process.
+  static void write(Buffer buf, DataOutput out) throws IOException {
+    out.writeLong(buf.node.getID());
+    out.writeInt(buf.ops.size());
+    for (Op op : buf.ops) {
+      out.writeByte(op.kind.ordinal());
+      out.writeLong(op.actor.getID());
+      out.writeLong(op.a == null ? -1 : op.a.getID());
+      out.writeLong(op.b == null ? -1 : op.b.getID());
+      out.writeInt(op.quantity);
+      out.writeByte(op.state == null ? -1 : op.state.ordinal());
+      out.writeByte(op.expect.ordinal());
+      out.writeByte(op.from == null ? -1 : op.from.ordinal());
+    }
+    for (int m : buf.messages) {
+      out.writeInt(m);
+    }
+    for (long s : ((XoshiroRandom) buf.node.getRandomStream()).getState()) {
+      out.writeLong(s);
+    }
+  }
+
+  // Read a buffer written by write(), resolving IDs through nodes, and
+  // bring the local copy of its node's random stream up to date
+  static Buffer read(DataInput in, Map<Long,MycoNode> nodes)
+      throws IOException {
+    Buffer ret = new Buffer(node(in.readLong(), nodes));
+    Kind[] kinds = Kind.values();
+    for (int n = in.readInt(); n > 0; n--) {
+      Kind kind = kinds[in.readByte()];
+      MycoNode actor = node(in.readLong(), nodes);
+      MycoNode a = node(in.readLong(), nodes);
+      MycoNode b = node(in.readLong(), nodes);
+      int quantity = in.readInt();
+      HyphaType state = state(in.readByte());
+      HyphaType expect = state(in.readByte());
+      HyphaType from = state(in.readByte());
+      ret.ops.add(new Op(kind, actor, a, b, quantity, state, expect, from));
+    }
+    for (int i = 0; i < ret.messages.length; i++) {
+      ret.messages[i] = in.readInt();
+    }
+    long[] s = new long[4];
+    for (int i = 0; i < s.length; i++) {
+      s[i] = in.readLong();
+    }
+    ((XoshiroRandom) ret.node.getRandomStream()).setState(s);
+    return ret;
+  }
+
+  private static MycoNode node(long id, Map<Long,MycoNode> nodes) {
+    if (id < 0) {
+      return null;
+    }
+    MycoNode ret = nodes.get(id);
+    if (ret == null) {
+      throw new IllegalStateException("No node with ID " + id
+                                      + " in this replica");
+    }
+    return ret;
+  }
+
+  private static HyphaType state(int ordinal) {
+    return (ordinal < 0) ? null : HyphaType.values()[ordinal];
+  }
+
+  // Operations applied and dropped as conflicts since the last reset
+  public static long appliedCount() {
+    return applied;
+  }
+
+  public static long conflictCount() {
+    return conflicts;
+  }
+
+  static void resetCounts() {
+    applied = 0;
+    conflicts = 0;
+  }
+}
@@ -20,6 +20,8 @@
 
 package fungus;
 
+import java.io.IOException;
+
 import peersim.cdsim.*;
 import peersim.config.*;
 import peersim.core.*;
@@ -27,7 +29,8 @@ import java.util.*;
 import java.util.logging.*;
 import java.util.Collections;
 
-public class ChemicalManager implements CDProtocol, Cleanable {
+public class ChemicalManager implements CDProtocol, Quiescent,
+                                        Cleanable, Snapshottable {
   private static final String PAR_START_CYCLE = "start_cycle";
   private static final String PAR_PERIOD = "period";
 
@@ -66,6 +69,7 @@ public class ChemicalManager implements CDProtocol, Cleanable {
       Chemical chem = (Chemical) chemType.newInstance();
       chem.setAmount(conc);
       chemicals.put(chemType, chem);
+      ActiveSet.wake(myNode);
     } catch (InstantiationException e) {
       throw new RuntimeException(e);
     } catch (IllegalAccessException e) {
@@ -84,6 +88,35 @@ public class ChemicalManager implements CDProtocol, Cleanable {
     return ret;
   }
 
+  public void writeState(SnapshotOutput out) throws IOException {
+    out.putInt(chemicals.size());
+    for (Chemical c : chemicals.values()) {
+      out.putString(c.getClass().getName());
+      out.putDouble(c.amount);
+      out.putDouble(c.cutoff);
+    }
+  }
+
+  public void readState(MycoNode node, SnapshotInput in) {
+    myNode = node;
+    chemicals.clear();
+    for (int n = in.getInt(); n > 0; n--) {
+      String name = in.getString();
+      try {
+        Chemical c = (Chemical) Class.forName(name).newInstance();
+        c.amount = in.getDouble();
+        c.cutoff = in.getDouble();
+        chemicals.put(c.getClass(), c);
+      } catch (ClassNotFoundException e) {
+        throw new RuntimeException(e);
+      } catch (InstantiationException e) {
+        throw new RuntimeException(e);
+      } catch (IllegalAccessException e) {
+        throw new RuntimeException(e);
+      }
+    }
+  }
+
   public void wipe() {
     chemicals.clear();
   }
@@ -103,12 +136,14 @@ public class ChemicalManager implements CDProtocol, Cleanable {
     if (CDState.getCycle() < startCycle || CDState.getCycle() % period != 0)
         return;
 
-    List<ChemicalManager> neighbors = new LinkedList<ChemicalManager>();
+    HyphaLink link = myNode.getHyphaLink();
+    List<ChemicalManager> neighbors =
+        new ArrayList<ChemicalManager>(link.degree());
 
-    for (MycoNode n : myNode.getHyphaLink().getNeighbors()) {
+    for (MycoNode n : link.neighbors()) {
       neighbors.add((ChemicalManager) n.getProtocol(chemicalManagerPid));
     }
-    Collections.shuffle(neighbors);
+    Collections.shuffle(neighbors, myNode.getRandomStream());
     for (Chemical c : chemicals.values()) {
       c.doDynamics(this, neighbors);
     }
@@ -117,6 +152,10 @@ public class ChemicalManager implements CDProtocol, Cleanable {
     }
   }
 
+  public boolean isQuiescent(Node node) {
+    return chemicals.isEmpty();
+  }
+
   public void add(Chemical c) {
     Class chemType = c.getClass();
     Chemical current = chemicals.get(chemType);
@@ -130,6 +169,7 @@ public class ChemicalManager implements CDProtocol, Cleanable {
       newAmount = current.amount;
       chemicals.put(chemType,c);
     }
+    ActiveSet.wake(myNode);
     log.log(Level.FINER, "Local concentration of " + chemType.getName() +
             " is now " + newAmount, myNode);
   }
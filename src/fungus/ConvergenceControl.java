@@ -0,0 +1,156 @@
+/* Copyright (c) 2014, Paul L. Snyder <paul@pataprogramming.com>,
+ * Daniel Dubois, Nicolo Calcavecchia.
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option)
+ * Any later version. It may also be redistributed and/or modified under the
+ * terms of the BSD 3-Clause License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+
+
+package fungus;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import peersim.cdsim.CDState;
+import peersim.config.Configuration;
+import peersim.core.Control;
+
+// Stops the simulation once the overlay has settled.
+//
+// Each time it runs it compares three cheap signals against limits:
+// the number of state transitions (from HyphaDataListener) and of link
+// events per live node (from HyphaLinkListener) since its last run,
+// and the largest change in the biomass, hypha and bulwark ratios that
+// StateObserver reports.  Immobile hyphae keep probing random links in
+// a settled overlay, so some churn never dies down; the default
+// max_churn of 0.05 sits above that and well below a growing overlay.
+// Once all three have stayed within their limits for window
+// consecutive runs it returns true, which ends the experiment;
+// CDSimulator still runs the FINAL controls (CleanupControl, a FINAL
+// ExperimentWriter) afterwards.  The cycle at which the quiet window
+// began is recorded as the convergedCycle metric (-1 until then), so
+// give ExperimentWriter the FINAL flag to write a row that carries it.
+//
+// Controls ordered after this one are skipped in the stopping cycle,
+// so put it last but for the cycle driver, e.g.
+//
+//   control.conv fungus.ConvergenceControl
+//   control.conv.window 20
+//   control.conv.max_churn 0.02
+
+public class ConvergenceControl implements Control, HyphaDataListener,
+                                           HyphaLinkListener {
+  private static final String PAR_WINDOW = "window";
+  private static final String PAR_MAX_TRANSITIONS = "max_transitions";
+  private static final String PAR_MAX_CHURN = "max_churn";
+  private static final String PAR_EPSILON = "epsilon";
+
+  private static Logger log =
+      Logger.getLogger(ConvergenceControl.class.getName());
+
+  private final int window;
+  private final int maxTransitions;
+  private final double maxChurn;
+  private final double epsilon;
+
+  public static int convergedCycle = -1;
+  public static int transitions = 0;
+  public static int churn = 0;
+  public static double ratioDelta = 0.0;
+
+  private int pendingTransitions = 0;
+  private int pendingChurn = 0;
+  private double[] lastRatios = null;
+  private int quiet = 0;
+
+  public ConvergenceControl(String prefix) {
+    window = Configuration.getInt(prefix + "." + PAR_WINDOW, 10);
+    maxTransitions = Configuration.getInt(prefix + "." + PAR_MAX_TRANSITIONS,
+                                          0);
+    maxChurn = Configuration.getDouble(prefix + "." + PAR_MAX_CHURN, 0.05);
+    epsilon = Configuration.getDouble(prefix + "." + PAR_EPSILON, 0.0);
+
+    convergedCycle = -1;
+    HyphaData.addHyphaDataListener(this);
+    HyphaLink.addHyphaLinkListener(this);
+
+    ExperimentWriter.addMetric(new Metric<Integer>("convergedCycle") {
+        public Integer fetch() { return ConvergenceControl.convergedCycle; }});
+  }
+
+  public void nodeStateChanged(MycoNode n, HyphaType t, HyphaType old) {
+    if (t != old) {
+      pendingTransitions++;
+    }
+  }
+
+  public void linkAdded(MycoNode a, MycoNode b) {
+    pendingChurn++;
+  }
+
+  public void linkRemoved(MycoNode a, MycoNode b) {
+    pendingChurn++;
+  }
+
+  // Biomass, hypha and bulwark shares of the live nodes, as computed
+  // by StateObserver
+  private static double[] ratios() {
+    double tot = MycoCast.countAll();
+    if (tot == 0) {
+      return new double[] { 0.0, 0.0, 0.0 };
+    }
+    return new double[] { MycoCast.countBiomass() / tot,
+                          MycoCast.countHyphae() / tot,
+                          MycoCast.countBulwark() / tot };
+  }
+
+  public boolean execute() {
+    double[] ratios = ratios();
+    transitions = pendingTransitions;
+    churn = pendingChurn;
+    pendingTransitions = 0;
+    pendingChurn = 0;
+
+    if (lastRatios == null) {
+      ratioDelta = Double.POSITIVE_INFINITY;
+    } else {
+      ratioDelta = 0.0;
+      for (int i = 0; i < ratios.length; i++) {
+        ratioDelta = Math.max(ratioDelta, Math.abs(ratios[i] - lastRatios[i]));
+      }
+    }
+    lastRatios = ratios;
+
+    int live = MycoCast.countAll();
+    double churnRate = live == 0 ? 0.0 : ((double) churn) / live;
+    if (transitions <= maxTransitions && churnRate <= maxChurn
+        && ratioDelta <= epsilon) {
+      quiet++;
+    } else {
+      quiet = 0;
+    }
+    log.log(Level.FINE, "CONVERGENCE: " + transitions + " transitions, "
+            + churn + " link events, ratio delta " + ratioDelta
+            + "; quiet for " + quiet);
+
+    if (quiet >= window) {
+      convergedCycle = CDState.getCycle() - window;
+      log.info("CONVERGED at cycle " + convergedCycle + "; stopping at "
+               + CDState.getCycle());
+      return true;
+    }
+    return false;
+  }
+}
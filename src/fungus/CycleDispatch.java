@@ -0,0 +1,147 @@
+/* Copyright (c) 2014, Paul L. Snyder <paul@pataprogramming.com>,
+ * Daniel Dubois, Nicolo Calcavecchia.
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option)
+ * Any later version. It may also be redistributed and/or modified under the
+ * terms of the BSD 3-Clause License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+
+
+package fungus;
+
+import java.util.Arrays;
+
+import peersim.cdsim.CDProtocol;
+import peersim.cdsim.CDState;
+import peersim.core.Network;
+import peersim.core.Node;
+import peersim.core.Protocol;
+import peersim.core.Scheduler;
+
+// Per-cycle dispatch table for the Myconet cycle drivers.
+//
+// PeerSim's FullNextCycle asks every protocol's Scheduler, and checks
+// for CDProtocol, on every node in every cycle.  Every node is a clone
+// of the prototype, so this works out once per cycle which protocols
+// to run: the cycle-driven ones, minus PassiveProtocols, whose
+// schedules are active.  When HyphaLink is immediately followed by
+// FungalGrowth (as with "order.protocol fail dat lnk fng chem") the
+// two are fused into one entry that looks up the node's HyphaData and
+// HyphaLink once and hands them to FungalGrowth.step().
+
+public class CycleDispatch {
+  private static final int FUSED = -1;
+
+  private final Scheduler[] schedules;
+  private final boolean fuse;
+
+  // Cycle-driven, non-passive protocol ids in execution order
+  private int[] pids;
+  private int dataPid = -1;
+  private int linkPid = -1;
+  private int growthPid = -1;
+
+  // Tables for the cycle last asked about
+  private int cycle = -1;
+  private int[] active;
+  private int[] entries;
+
+  public CycleDispatch(Scheduler[] schedules, boolean fuse) {
+    this.schedules = schedules;
+    this.fuse = fuse;
+  }
+
+  private void build() {
+    Node proto = Network.prototype;
+    int[] ret = new int[proto.protocolSize()];
+    int n = 0;
+    for (int k = 0; k < proto.protocolSize(); k++) {
+      Protocol p = proto.getProtocol(k);
+      if (p instanceof HyphaData) {
+        dataPid = k;
+      } else if (p instanceof HyphaLink) {
+        linkPid = k;
+      } else if (p instanceof FungalGrowth) {
+        growthPid = k;
+      }
+      if (p instanceof CDProtocol && !(p instanceof PassiveProtocol)) {
+        ret[n++] = k;
+      }
+    }
+    pids = Arrays.copyOf(ret, n);
+  }
+
+  private void refresh(int c) {
+    if (pids == null) {
+      build();
+    }
+    if (c == cycle) {
+      return;
+    }
+    cycle = c;
+    int[] act = new int[pids.length];
+    int n = 0;
+    for (int k : pids) {
+      if (schedules[k].active(c)) {
+        act[n++] = k;
+      }
+    }
+    active = Arrays.copyOf(act, n);
+
+    int[] ent = new int[n];
+    int m = 0;
+    for (int i = 0; i < n; i++) {
+      if (fuse && dataPid >= 0 && active[i] == linkPid && i + 1 < n
+          && active[i + 1] == growthPid) {
+        ent[m++] = FUSED;
+        i++;
+      } else {
+        ent[m++] = active[i];
+      }
+    }
+    entries = Arrays.copyOf(ent, m);
+  }
+
+  // Protocols to run this cycle, one id each, never fused
+  public int[] pids(int c) {
+    refresh(c);
+    return active;
+  }
+
+  // Run this cycle's protocols on node.  As with FullNextCycle, a node
+  // that goes down part way through skips the rest.
+  public void run(Node node, int c) {
+    refresh(c);
+    for (int e : entries) {
+      if (e == FUSED) {
+        HyphaLink link = (HyphaLink) node.getProtocol(linkPid);
+        CDState.setPid(linkPid);
+        link.nextCycle(node, linkPid);
+        if (!node.isUp()) {
+          break;
+        }
+        CDState.setPid(growthPid);
+        ((FungalGrowth) node.getProtocol(growthPid))
+            .step((MycoNode) node, (HyphaData) node.getProtocol(dataPid),
+                  link);
+      } else {
+        CDState.setPid(e);
+        ((CDProtocol) node.getProtocol(e)).nextCycle(node, e);
+      }
+      if (!node.isUp()) {
+        break;
+      }
+    }
+  }
+}
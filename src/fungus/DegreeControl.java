@@ -94,7 +94,7 @@ public class DegreeControl implements Control {
       // detectedFailures.addValue(data.getKnownDisconnect());
 
       // This is an action! (and why DegreeControl is a control not an observer)
-      data.setObservedParents(n.getHyphaLink().getHyphae().size());
+      data.setObservedParents(n.getHyphaLink().hyphaDegree());
 
       // if (data.wasDisconnectDetected()) {
       //   disconnectCount += 1;
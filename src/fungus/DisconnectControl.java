@@ -93,7 +93,7 @@ public class DisconnectControl implements Control {
       oldValues = new HashMap(newValues);
       for (MycoNode n : g.getVertices()) {
         double myKnown = oldValues.get(n);
-        for (MycoNode m : n.getHyphaLink().getNeighbors()) {
+        for (MycoNode m : n.getHyphaLink().neighbors()) {
           newValues.put(m, Math.max(myKnown, oldValues.get(m)));
           //m.getHyphaData().recordKnownDisconnect(myKnown);
         }
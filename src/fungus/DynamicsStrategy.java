@@ -26,6 +26,30 @@ public abstract class DynamicsStrategy {
   // Rules to follow during a cycle (a protocol state implementation)
   public abstract void doDynamics(MycoNode n, HyphaData d, HyphaLink l);
 
+  // Whether doDynamics() would leave n untouched until something
+  // within two hops of n next changes (see Quiescent), but for the
+  // random action of actionProbability().  Strategies that act at
+  // random in other ways never settle.
+  public boolean isSettled(MycoNode n, HyphaData d, HyphaLink l) {
+    return false;
+  }
+
+  // Chance per cycle that a settled node acts at random all the same.
+  // Under ActiveSetNextCycle the wait for it is drawn when the node
+  // goes to sleep, and doDynamics() asks ActiveSet.takeDue() before
+  // drawing for itself.
+  public double actionProbability(MycoNode n, HyphaData d, HyphaLink l) {
+    return 0;
+  }
+
+  // Whether doDynamics() can run under BspNextCycle: it changes the
+  // overlay only through the mutators BspOps hooks, and makes no
+  // decision that waits on one of its own changes being visible (see
+  // BspOps).
+  public boolean isDeferrable() {
+    return false;
+  }
+
   public static DynamicsStrategy getStrategy(String configKey) {
     DynamicsStrategy ret = null;
     try {
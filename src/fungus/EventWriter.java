@@ -35,6 +35,7 @@ import java.util.HashMap;
 import java.util.AbstractMap.SimpleEntry;
 import java.util.logging.Logger;
 
+import peersim.ResultCache;
 import peersim.config.Configuration;
 import peersim.core.Control;
 import peersim.core.CommonState;
@@ -42,7 +43,7 @@ import peersim.core.Network;
 import peersim.cdsim.CDState;
 
 public class EventWriter implements Control, HyphaDataListener,
-                                    HyphaLinkListener, CleanupListener {
+                                    HyphaLinkBatchListener, CleanupListener {
   private static final String PAR_BASENAME = "config.basename";
   private static final String PAR_CHEMICALMANAGER_PROTO =
       "network.node.chemicalmanager_proto";
@@ -75,6 +76,7 @@ public class EventWriter implements Control, HyphaDataListener,
     f.format("%s/events-%s-%d.txt", dir.getPath(), basename,
              CommonState.seed);
     this.filename = fn.toString();
+    ResultCache.addOutput(new File(filename));
 
     try {
       FileWriter out = new FileWriter(filename, true);
@@ -122,4 +124,16 @@ public class EventWriter implements Control, HyphaDataListener,
   public void linkRemoved(MycoNode a, MycoNode b) {
     p.println("(e- " + a.getID() + " " + b.getID() + ")");
   }
+
+  // Same lines as edge-by-edge events, written out in one go
+  public void linksChanged(LinkBatch batch) {
+    StringBuilder b = new StringBuilder(batch.size() * 24);
+    String nl = System.lineSeparator();
+    for (int i = 0; i < batch.size(); i++) {
+      b.append(batch.isAdded(i) ? "(e+ " : "(e- ")
+          .append(batch.getSource(i).getID()).append(' ')
+          .append(batch.getTarget(i).getID()).append(')').append(nl);
+    }
+    p.print(b);
+  }
 }
@@ -30,6 +30,7 @@ import java.util.LinkedList;
 import java.util.Locale;
 import java.util.logging.Logger;
 
+import peersim.ResultCache;
 import peersim.config.Configuration;
 import peersim.core.CommonState;
 import peersim.core.Control;
@@ -67,16 +68,21 @@ public class ExperimentWriter implements Control {
     f.format("%s/%s-%d.txt", resultsDir.getPath(), basename,
              CommonState.seed);
     filename = fn.toString();
-
+    ResultCache.addOutput(new File(filename));
   }
 
   public static void addMetric(Metric m) {
     if (metrics.isEmpty()) {
       metrics.add(new Metric<Long>("cycle") {public Long fetch() { return CommonState.getTime(); }});
     }
-    if (! metrics.contains(m)) {
-      metrics.add(m);
+    // Controls created again for a branch of the run (see ForkControl)
+    // register their metrics again; keep one column per name
+    for (Metric<?> existing : metrics) {
+      if (existing == m || existing.name.equals(m.name)) {
+        return;
+      }
     }
+    metrics.add(m);
   }
 
   public boolean execute() {
@@ -20,14 +20,18 @@
 
 package fungus;
 
+import java.io.IOException;
+
 import peersim.cdsim.*;
 import peersim.core.*;
 import peersim.config.*;
 
+import java.util.List;
 import java.util.logging.*;
 
-public class FailureAlerter implements CDProtocol, FailureAnnouncementListener,
-                                       NeighborFailureListener {
+public class FailureAlerter implements Quiescent, FailureAnnouncementListener,
+                                       NeighborFailureListener,
+                                       Snapshottable {
 
   private static final String PAR_FAILUREALERTER_PROTO =
       "network.node.failurealerter_proto";
@@ -137,6 +141,17 @@ public class FailureAlerter implements CDProtocol, FailureAnnouncementListener,
     return ret;
   }
 
+  public void writeState(SnapshotOutput out) throws IOException {
+    out.putEnum(oldState);
+    out.putInt(switchAttempts);
+  }
+
+  public void readState(MycoNode node, SnapshotInput in) {
+    myNode = node;
+    oldState = in.getEnum(HyphaType.values());
+    switchAttempts = in.getInt();
+  }
+
   public void notifyFailing(MycoNode n, HyphaType t, int degree,
                             double parentTarget, MycoList neighbors) {
     for (MycoNode neighbor : neighbors) {
@@ -192,7 +207,7 @@ public class FailureAlerter implements CDProtocol, FailureAnnouncementListener,
   }
 
   public void severAllNeighbors(HyphaType t) {
-    MycoList neighbors = myNode.getHyphaLink().getNeighbors();
+    List<MycoNode> neighbors = myNode.getHyphaLink().neighbors();
 
     for (MycoNode neighbor : neighbors) {
       FailureAlerter fa = (FailureAlerter)
@@ -262,4 +277,14 @@ public class FailureAlerter implements CDProtocol, FailureAnnouncementListener,
     // myNode.getHyphaData().clearDisconnectDetected();
     // Only clear disconnect state in JoinStrategy, upon reconnect
   }
+
+  // Once the bulwark strategy agrees with the node's state and there
+  // is no hormone left to metabolize, another cycle changes nothing
+  public boolean isQuiescent(Node node) {
+    MycoNode n = (MycoNode) node;
+    ChemicalManager cm = (ChemicalManager) n.getProtocol(chemicalManagerPid);
+    return switchAttempts == 0
+        && bulwarkStrategy.apply(n) == n.getHyphaData().isBulwark()
+        && cm.isQuiescent(n);
+  }
 }
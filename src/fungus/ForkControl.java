@@ -0,0 +1,279 @@
+/* Copyright (c) 2014, Paul L. Snyder <paul@pataprogramming.com>,
+ * Daniel Dubois, Nicolo Calcavecchia.
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option)
+ * Any later version. It may also be redistributed and/or modified under the
+ * terms of the BSD 3-Clause License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+
+
+
+
+package fungus;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+
+import peersim.ResultCache;
+import peersim.SimulationContext;
+import peersim.Simulator;
+import peersim.cdsim.CDSimulator;
+import peersim.cdsim.CDState;
+import peersim.config.Configuration;
+import peersim.core.Control;
+
+// Branches what-if variants off a run at a chosen cycle, so experiments
+// that share a long warm-up and differ only in the perturbation do not
+// each re-simulate it.
+//
+// When it runs, it snapshots the simulation (see SnapshotWriter) to a
+// temporary file and lets the run carry on as the base case.  What
+// happens to the variants depends on threads:
+//
+// - 1 (the default): once the run is over, FINAL controls included,
+//   each variant in turn gets its configuration overrides applied, the
+//   snapshot restored from the memory-mapped file, a fresh set of
+//   controls and the rest of the cycles.  Only one network is ever
+//   live, at the cost of running the variants one after another.
+//
+// - more: every variant is started right away in its own
+//   peersim.SimulationContext, with a configuration that restores the
+//   snapshot through SnapshotInitializer.  Up to threads of them run at
+//   once, alongside the rest of the base case, each with a network of
+//   its own; the base run waits for them at its end.
+//
+// Both give the same results.  Variants share the snapshot, not live
+// state: there is no copy-on-write of per-node state, and a restored
+// network is a full copy.  With threads above 1, memory therefore grows
+// by one network for each variant running at once, so threads is also
+// the bound on how many networks the heap has to hold next to the base
+// run's.  To run unrelated configurations side by side rather than
+// variants of one run, use peersim.MultiSimulator.
+//
+// A variant is a list of "key value" overrides separated by semicolons.
+// config.basename gets the variant's name appended, so ExperimentWriter
+// and the other writers keep each variant's output apart:
+//
+//   control.fork fungus.ForkControl
+//   control.fork.at 20
+//   control.fork.variant.hypha control.dnet2.type hypha
+//   control.fork.variant.half control.dnet2.add -0.4; control.dnet2.type largest
+//   control.fork.threads 2
+//   order.control fork ...
+//
+// As with SnapshotWriter, list it first in order.control: variants
+// resume at the cycle it ran in.
+
+public class ForkControl implements Control {
+  private static final String PAR_VARIANT = "variant";
+  private static final String PAR_THREADS = "threads";
+  private static final String PAR_BASENAME = "config.basename";
+
+  // Initializer that restores the snapshot in a variant's context
+  private static final String RESTORE = "fork";
+
+  private static Logger log = Logger.getLogger(ForkControl.class.getName());
+
+  // Set while variants run, so the copies of this control created for
+  // them do not fork again
+  private static boolean branching = false;
+
+  private final Map<String,String[][]> variants;
+  private final String variantPrefix;
+  private final int threads;
+  private boolean forked = false;
+
+  public ForkControl(String prefix) {
+    variants = new LinkedHashMap<String,String[][]>();
+    threads = Configuration.getInt(prefix + "." + PAR_THREADS, 1);
+    String base = prefix + "." + PAR_VARIANT;
+    variantPrefix = base + ".";
+    for (String name : Configuration.getNames(base)) {
+      String[] parts = Configuration.getString(name).split(";");
+      String[][] overrides = new String[parts.length][];
+      for (int i = 0; i < parts.length; i++) {
+        String[] kv = parts[i].trim().split("\\s+", 2);
+        if (kv.length != 2) {
+          throw new IllegalArgumentException(name + ": expected \"key value\""
+                                             + " but got \"" + parts[i]
+                                             + "\"");
+        }
+        overrides[i] = kv;
+      }
+      variants.put(name.substring(base.length() + 1), overrides);
+    }
+  }
+
+  public boolean execute() {
+    if (branching || forked || variants.isEmpty()) {
+      return false;
+    }
+    forked = true;
+    final int cycle = CDState.getCycle();
+    final File file;
+    try {
+      file = File.createTempFile("myconet-fork", ".snap");
+      file.deleteOnExit();
+      long bytes = SnapshotWriter.write(file.getPath());
+      log.info("Cycle " + cycle + ": forking " + variants.size()
+               + " variants from a " + bytes + " byte snapshot");
+    } catch (IOException e) {
+      log.severe("Couldn't snapshot for forking: " + e.getMessage());
+      return false;
+    }
+    if (threads > 1) {
+      startVariants(file, cycle);
+      return false;
+    }
+    CDSimulator.runAfterExperiment(new Runnable() {
+        public void run() {
+          try {
+            runVariants(file, cycle);
+          } finally {
+            file.delete();
+          }
+        }
+      });
+    return false;
+  }
+
+  // Start every variant in a context of its own, and have the base run
+  // wait for them once it is over
+  private void startVariants(final File file, int cycle) {
+    int width = Math.min(threads, variants.size());
+    ExecutorService pool = Executors.newFixedThreadPool(width);
+    log.info("Up to " + width + " variant networks will be live at once,"
+             + " each a full copy of the base run's");
+    final Map<String,Future<Void>> runs =
+        new LinkedHashMap<String,Future<Void>>();
+    for (Map.Entry<String,String[][]> v : variants.entrySet()) {
+      final SimulationContext context =
+          new SimulationContext(v.getKey(),
+                                variantConfig(v.getKey(), v.getValue(), file),
+                                SimulationContext.stdout(), System.err);
+      log.info("Starting variant " + v.getKey() + " from cycle " + cycle);
+      runs.put(v.getKey(), pool.submit(new Callable<Void>() {
+          public Void call() throws Exception {
+            context.run();
+            return null;
+          }
+        }));
+    }
+    pool.shutdown();
+    CDSimulator.runAfterExperiment(new Runnable() {
+        public void run() {
+          try {
+            for (Map.Entry<String,Future<Void>> r : runs.entrySet()) {
+              try {
+                r.getValue().get();
+              } catch (ExecutionException e) {
+                log.severe("Variant " + r.getKey() + " failed: "
+                           + e.getCause());
+              } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+              }
+            }
+          } finally {
+            file.delete();
+          }
+        }
+      });
+  }
+
+  // The configuration of this run with the variant's overrides, running
+  // one experiment that starts from the snapshot and does not fork
+  private Properties variantConfig(String name, String[][] overrides,
+                                   File file) {
+    Properties ret = new Properties();
+    for (Map.Entry<String,String> e : Configuration.snapshot().entrySet()) {
+      if (!e.getKey().startsWith(variantPrefix)
+          && !e.getKey().equals(ResultCache.PAR_DIR)) {
+        ret.setProperty(e.getKey(), e.getValue());
+      }
+    }
+    ret.setProperty(PAR_BASENAME,
+                    Configuration.getString(PAR_BASENAME) + "-" + name);
+    for (String[] kv : overrides) {
+      ret.setProperty(kv[0], kv[1]);
+    }
+    ret.setProperty(Simulator.PAR_EXPS, "1");
+    ret.setProperty("init." + RESTORE, SnapshotInitializer.class.getName());
+    ret.setProperty("init." + RESTORE + ".file", file.getPath());
+    ret.setProperty("include.init", RESTORE);
+    return ret;
+  }
+
+  private void runVariants(File file, int cycle) {
+    // Observers of the finished run stay registered but must not see
+    // the variants
+    List<HyphaLinkListener> linkListeners =
+        HyphaLink.swapListeners(new ArrayList<HyphaLinkListener>());
+    List<HyphaDataListener> dataListeners =
+        HyphaData.swapListeners(new ArrayList<HyphaDataListener>());
+    HashSet<CleanupListener> cleanupListeners = CleanupControl.listeners;
+
+    branching = true;
+    try {
+      for (Map.Entry<String,String[][]> v : variants.entrySet()) {
+        runVariant(v.getKey(), v.getValue(), file, cycle);
+      }
+    } finally {
+      branching = false;
+      HyphaLink.swapListeners(linkListeners);
+      HyphaData.swapListeners(dataListeners);
+      CleanupControl.listeners = cleanupListeners;
+    }
+  }
+
+  private void runVariant(String name, String[][] overrides, File file,
+                          int cycle) {
+    String basename = Configuration.getString(PAR_BASENAME);
+    List<String[]> saved = new ArrayList<String[]>();
+    saved.add(new String[] { PAR_BASENAME,
+                             Configuration.override(PAR_BASENAME,
+                                                    basename + "-" + name) });
+    for (String[] kv : overrides) {
+      saved.add(new String[] { kv[0], Configuration.override(kv[0], kv[1]) });
+    }
+    HyphaLink.swapListeners(new ArrayList<HyphaLinkListener>());
+    HyphaData.swapListeners(new ArrayList<HyphaDataListener>());
+    CleanupControl.listeners = new HashSet<CleanupListener>();
+    log.info("Running variant " + name + " from cycle " + cycle);
+    try {
+      SnapshotInitializer.read(file.getPath());
+      CDSimulator.runBranch(cycle);
+    } catch (IOException e) {
+      log.severe("Couldn't restore snapshot for variant " + name + ": "
+                 + e.getMessage());
+    } finally {
+      // Undo in reverse, so a key overridden twice gets its original back
+      for (int i = saved.size() - 1; i >= 0; i--) {
+        Configuration.override(saved.get(i)[0], saved.get(i)[1]);
+      }
+    }
+  }
+}
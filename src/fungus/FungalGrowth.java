@@ -29,7 +29,7 @@ import org.apache.commons.collections15.*;
 import edu.uci.ics.jung.graph.*;
 import edu.uci.ics.jung.graph.util.*;
 
-public class FungalGrowth implements CDProtocol {
+public class FungalGrowth implements Scheduled {
   private static final String PAR_MYCOCAST_PROTO =
       "network.node.mycocast_proto";
   private static final String PAR_HYPHADATA_PROTO =
@@ -87,35 +87,73 @@ public class FungalGrowth implements CDProtocol {
   }
 
   public void nextCycle(Node node, int pid) {
-    if (CDState.getCycle() < startCycle || CDState.getCycle() % period != 0)
-        return;
+    if (!isActiveCycle()) {
+      return;
+    }
 
     HyphaData data = (HyphaData) node.getProtocol(hyphaDataPid);
     HyphaLink link = (HyphaLink) node.getProtocol(hyphaLinkPid);
 
-    myNode = (MycoNode) node;
+    step((MycoNode) node, data, link);
+  }
+
+  // The body of nextCycle(), for callers that already hold the node's
+  // HyphaData and HyphaLink (see CycleDispatch)
+  public void step(MycoNode node, HyphaData data, HyphaLink link) {
+    if (!isActiveCycle()) {
+      return;
+    }
+
+    myNode = node;
 
     if (!myNode.isUp()) {
       return;
     }
 
+    prepare(node, data, link);
+    decide(node, data, link);
+
+    myNode.getMycoCast().verify(myNode, data.getState());
+  }
+
+  // Whether the protocol runs in the current cycle
+  public static boolean isActiveCycle() {
+    return CDState.getCycle() >= startCycle
+        && CDState.getCycle() % period == 0;
+  }
+
+  // Whether every strategy in the map can run under BspNextCycle
+  public static boolean isDeferrable() {
+    for (DynamicsStrategy s : strategyMap.values()) {
+      if (!s.isDeferrable()) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  // The part of step() before the node's strategy runs: message
+  // accounting and cleanup of the node's own links.  BspNextCycle
+  // runs it for every node ahead of the decide phase.
+  public void prepare(MycoNode node, HyphaData data, HyphaLink link) {
+    myNode = node;
+
     // System.out.println(node);
     // FIXME: Make all
     MessageObserver.topoQueryMessages(link.degree());
     MessageObserver.gossipMessages(2);
 
-    // Dead nodes should not execute the protocol
-    if (!myNode.isUp()) {
-      return;
-    }
-
     // Clean up dead neighbors
     MycoList dead = link.deadNeighbors();
     for (MycoNode neighbor : dead) {
       link.pruneNeighbor(neighbor);
     }
+  }
+
+  // Perform actions appropriate for current protocol state
+  public void decide(MycoNode node, HyphaData data, HyphaLink link) {
+    myNode = node;
 
-    // Now, perform actions appropriate for current protocol state
     DynamicsStrategy strategy = strategyMap.get(data.getState());
 
     if (strategy == null) {
@@ -124,7 +162,35 @@ public class FungalGrowth implements CDProtocol {
     }
 
     strategy.doDynamics(myNode, data, link);
+  }
 
-    myNode.getMycoCast().verify(myNode, data.getState());
+  public boolean isQuiescent(Node node) {
+    if (CDState.getCycle() < startCycle) {
+      return false;
+    }
+    MycoNode n = (MycoNode) node;
+    HyphaData data = n.getHyphaData();
+    DynamicsStrategy strategy = strategyMap.get(data.getState());
+    return strategy != null && strategy.isSettled(n, data, n.getHyphaLink());
+  }
+
+  // The strategy's random action takes a geometric number of active
+  // cycles to come up, the same as drawing for it in each
+  public int nextDueCycle(Node node) {
+    MycoNode n = (MycoNode) node;
+    HyphaData data = n.getHyphaData();
+    double p = strategyMap.get(data.getState())
+        .actionProbability(n, data, n.getHyphaLink());
+    if (p <= 0) {
+      return -1;
+    }
+    long wait = 0;
+    if (p < 1) {
+      double u = n.getRandomStream().nextDouble();
+      wait = (long) Math.floor(Math.log1p(-u) / Math.log1p(-p));
+    }
+    long first = (CDState.getCycle() / period + 1) * period;
+    long ret = first + wait * period;
+    return (ret > Integer.MAX_VALUE) ? -1 : (int) ret;
   }
 }
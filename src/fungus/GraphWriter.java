@@ -89,7 +89,7 @@ public class GraphWriter implements Control {
         p.print(((ChemicalManager) n.getProtocol(chemicalManagerPid))
                 .getConcentration(AlertHormone.class));
         p.print(" :l #{");
-        for (MycoNode o : n.getHyphaLink().getNeighbors()) {
+        for (MycoNode o : n.getHyphaLink().neighbors()) {
           p.print(o.getID());
           p.print(" ");
         }
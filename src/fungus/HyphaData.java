@@ -20,6 +20,7 @@
 
 package fungus;
 
+import java.io.IOException;
 import java.io.StringWriter;
 import java.io.PrintWriter;
 import java.lang.*;
@@ -30,7 +31,9 @@ import peersim.cdsim.*;
 import peersim.core.*;
 import peersim.config.*;
 
-public class HyphaData implements CDProtocol, Cleanable {
+public class HyphaData implements CDProtocol, Quiescent,
+                                  PassiveProtocol, Cleanable,
+                                  Snapshottable {
   private static final String PAR_MYCOCAST_PROTO =
       "network.node.mycocast_proto";
   //  private static final String PAR_IDEAL_IMMOBILE = "ideal_immobile";
@@ -134,6 +137,14 @@ public class HyphaData implements CDProtocol, Cleanable {
     myNode = (MycoNode) node;
   }
 
+  public void bind(MycoNode node) {
+    myNode = node;
+  }
+
+  public boolean isQuiescent(Node node) {
+    return true;
+  }
+
   public void enqueue(Job j) {
     queue.add(j);
   }
@@ -199,7 +210,25 @@ public class HyphaData implements CDProtocol, Cleanable {
   }
 
   public void setType(int t) {
+    int oldType = type;
     type = t;
+    if (oldType != t && myNode != null) {
+      myNode.getHyphaLink().announceTypeChange(myNode, oldType, t);
+      TypeRegistry.refile(myNode);
+      ActiveSet.wake(myNode);
+    }
+  }
+
+  // As with become(), the caller passes the node in because myNode
+  // is not yet set during initialization
+  public void setType(MycoNode n, int t) {
+    int oldType = type;
+    type = t;
+    if (oldType != t) {
+      n.getHyphaLink().announceTypeChange(n, oldType, t);
+      ActiveSet.wake(n);
+    }
+    TypeRegistry.refile(n);
   }
 
   public int getType() {
@@ -354,7 +383,9 @@ public class HyphaData implements CDProtocol, Cleanable {
   // }
 
   public void become(MycoNode n, HyphaType t) {
-    HyphaData d = n.getHyphaData();
+    if (BspOps.defer(BspOps.Kind.BECOME, n, t)) {
+      return;
+    }
     HyphaType oldState = this.state;
     state = t;
 
@@ -362,8 +393,13 @@ public class HyphaData implements CDProtocol, Cleanable {
       log.log(Level.FINER, n.getID() + " BECOMES " + t + " (WAS "
               + oldState + ")", n);
       fireNodeStateChanged(n,t, oldState);
+      if (oldState != t) {
+        n.getHyphaLink().announceStateChange(n, oldState, t);
+      }
       MycoCast mycocast = n.getMycoCast();
       mycocast.become(n, t);
+      TypeRegistry.refile(n);
+      ActiveSet.wake(n);
     }
   }
 
@@ -400,6 +436,11 @@ public class HyphaData implements CDProtocol, Cleanable {
       ib = 0;
     }
     setIdealBiomass(ib);
+    if (myNode != null) {
+      MycoCast.capacityChanged(myNode);
+      TypeRegistry.refile(myNode);
+      ActiveSet.wakeNeighborhood(myNode);
+    }
   }
 
   public void setIdealBiomass(int ideal) {
@@ -460,6 +501,66 @@ public class HyphaData implements CDProtocol, Cleanable {
     return ret;
   }
 
+  // Fields are set directly, without become() and its listeners; the
+  // registries those keep current are restored on their own
+  public void writeState(SnapshotOutput out) throws IOException {
+    out.putInt(max_capacity);
+    out.putInt(ideal_hyphae);
+    out.putInt(ideal_biomass);
+    out.putInt(bulwark_max);
+    out.putInt(bulwark_min);
+    out.putInt(bulwark_entries);
+    out.putInt(irevert);
+    out.putInt(brevert);
+    out.putDouble(other_biomass_ratio);
+    out.putInt(ideal_other_hyphae);
+    out.putInt(max_other_biomass);
+    out.putInt(wasted_units);
+    out.putInt(type);
+    out.putDouble(parent_target);
+    out.putEnum(state);
+    out.putBoolean(enteringNode);
+    out.putBoolean(failureDetected);
+    out.putBoolean(disconnectDetected);
+    out.putDouble(knownDisconnect);
+    out.putInt(observedParents);
+    // PriorityQueue iterates in heap order, and re-adding in that
+    // order rebuilds the same heap
+    out.putInt(queue.size());
+    for (Job j : queue) {
+      j.writeState(out);
+    }
+  }
+
+  public void readState(MycoNode node, SnapshotInput in) {
+    myNode = node;
+    max_capacity = in.getInt();
+    ideal_hyphae = in.getInt();
+    ideal_biomass = in.getInt();
+    bulwark_max = in.getInt();
+    bulwark_min = in.getInt();
+    bulwark_entries = in.getInt();
+    irevert = in.getInt();
+    brevert = in.getInt();
+    other_biomass_ratio = in.getDouble();
+    ideal_other_hyphae = in.getInt();
+    max_other_biomass = in.getInt();
+    wasted_units = in.getInt();
+    type = in.getInt();
+    parent_target = in.getDouble();
+    state = in.getEnum(HyphaType.values());
+    node.getHyphaLink().stateRestored(state);
+    enteringNode = in.getBoolean();
+    failureDetected = in.getBoolean();
+    disconnectDetected = in.getBoolean();
+    knownDisconnect = in.getDouble();
+    observedParents = in.getInt();
+    queue.clear();
+    for (int n = in.getInt(); n > 0; n--) {
+      queue.add(Job.readState(in));
+    }
+  }
+
   public static void addHyphaDataListener(HyphaDataListener l) {
     HyphaData.listeners.add(l);
   }
@@ -468,6 +569,13 @@ public class HyphaData implements CDProtocol, Cleanable {
     HyphaData.listeners.remove(l);
   }
 
+  // Install a different listener list, returning the current one
+  static List<HyphaDataListener> swapListeners(List<HyphaDataListener> l) {
+    List<HyphaDataListener> ret = HyphaData.listeners;
+    HyphaData.listeners = l;
+    return ret;
+  }
+
   protected void fireNodeStateChanged(MycoNode n, HyphaType t,
                                       HyphaType oldState) {
     if (n != null) {
@@ -20,6 +20,8 @@
 
 package fungus;
 
+import java.io.IOException;
+
 import peersim.cdsim.*;
 import peersim.config.*;
 import peersim.core.*;
@@ -30,7 +32,8 @@ import edu.uci.ics.jung.graph.util.*;
 
 import org.apache.commons.collections15.*;
 
-public class HyphaLink implements Linkable, CDProtocol, Cleanable {
+public class HyphaLink implements Linkable, Quiescent, Cleanable,
+                                  Snapshottable {
 
   private static final String PAR_HYPHADATA_PROTO =
       "network.node.hyphadata_proto";
@@ -38,6 +41,7 @@ public class HyphaLink implements Linkable, CDProtocol, Cleanable {
       "network.node.hyphalink_proto";
   private static final String PAR_MYCOCAST_PROTO  =
       "network.node.mycocast_proto";
+  private static final String PAR_INDEXED = "indexed";
 
   private static int hyphaDataPid;
   private static int hyphaLinkPid;
@@ -50,24 +54,654 @@ public class HyphaLink implements Linkable, CDProtocol, Cleanable {
   private MycoList neighbors;
   private MycoNode myNode;
 
+  // When protocol.lnk.indexed is set, adjacency lives in the shared
+  // AdjacencyStore instead of per-node neighbor lists, and this is
+  // the node's slot in it (allocated on first use).  The store also
+  // holds each node's state, so in that mode the state buckets below
+  // are not kept: the per-state counts come from the tally, and a
+  // bucket is walked by scanning the node's segment.  The capacity
+  // index is kept in both modes.
+  private static boolean indexed;
+  private static AdjacencyStore store;
+  private int slot = -1;
+
+  // Neighbors bucketed by their current HyphaType (indexed by
+  // ordinal).  Kept in step with neighbors on every link change, and
+  // with the neighbors' states through HyphaData.become(), so degree
+  // queries never need to filter the whole neighbor list.  Null in
+  // indexed mode; use bucket() to read them.
+  private MycoList[] buckets;
+
+  // Neighbor counts by (service type, HyphaType), laid out as
+  // tally[type * states.length + state.ordinal()].  Maintained
+  // alongside the buckets and on HyphaData.setType(), so the same-
+  // and different-type degree queries used by the clustering
+  // strategies are O(1).  Grows as higher type numbers turn up.
+  private int[] tally;
+
+  // Biomass neighbors bucketed by max capacity (PowerLawInitializer
+  // hands out small bounded ints), with capLow/capHigh bracketing the
+  // non-empty buckets.  Backs getMaxBiomass() and transferBiomass()
+  // without scanning the whole biomass bucket.  Buckets are created
+  // on first use, so nodes without biomass children pay nothing.
+  private MycoList[] byCapacity;
+  private int capLow;
+  private int capHigh = -1;
+
+  // Bumped on every change to this node's neighbor set, so the
+  // read-only views below can catch callers that mutate while
+  // iterating
+  private int modStamp;
+  private NeighborView view;
+  private List<MycoNode>[] bucketViews;
+
+  // Bumped on anything that can change what a neighbor sees within
+  // two hops of itself: link changes, and state or type changes of
+  // any of this node's neighbors.  The two-hop cache is good for as
+  // long as this node's version and those of the hyphae it was built
+  // through are unchanged.
+  private int version;
+
+  // Two-hop cache: nodes within two hops but not adjacent (hop2, split
+  // into state buckets like the neighbors) and the full two-hop
+  // neighborhood.  hopVia/hopVersions record the hyphae it was built
+  // through; biomass lists sorted by capacity are filled on demand,
+  // indexed by type + 1 with slot 0 holding all types.
+  private int hopVersion;
+  private MycoNode[] hopVia;
+  private int[] hopVersions;
+  private MycoList hop2;
+  private MycoList[] hop2Buckets;
+  private MycoList hop2Hood;
+  private List<MycoNode> hop2View;
+  private List<MycoNode> hop2HoodView;
+  private List<MycoNode>[] hop2Biomass;
+
+  private static final Comparator<MycoNode> byCapacityDescending =
+      Collections.reverseOrder(new MycoNodeCapacityComparator());
+
+  private static final HyphaType[] states = HyphaType.values();
+  private static final HyphaType[] hyphaStates =
+      { HyphaType.IMMOBILE, HyphaType.BRANCHING, HyphaType.EXTENDING };
+  private static final HyphaType[] stableStates =
+      { HyphaType.IMMOBILE, HyphaType.BRANCHING };
+
   private static List<HyphaLinkListener> listeners =
       new ArrayList<HyphaLinkListener>();
   private static List<FailureAnnouncementListener> failureListeners =
       new ArrayList<FailureAnnouncementListener>();
 
+  // Link events raised during a bulk operation are collected here and
+  // sent out once when the outermost operation finishes
+  private static LinkBatch batch;
+  private static int batchDepth;
+
   public HyphaLink(String prefix) {
     mycoCastPid = Configuration.getPid(PAR_MYCOCAST_PROTO);
     hyphaDataPid = Configuration.getPid(PAR_HYPHADATA_PROTO);
     hyphaLinkPid = Configuration.getPid(PAR_HYPHALINK_PROTO);
+    indexed = Configuration.getBoolean(prefix + "." + PAR_INDEXED, false);
+    // The prototype is built once per experiment, after Network.reset()
+    // has killed the previous experiment's nodes, so each experiment
+    // starts with an empty store
+    HyphaLink.store = indexed ? new AdjacencyStore(Network.getCapacity())
+        : null;
 
     myNode = null;
     // FIXME: May not work correctly with default clone()
-    neighbors = new MycoList();
+    neighbors = indexed ? null : new MycoList();
+    buckets = indexed ? null : newBuckets();
+  }
+
+  // Drop the indexed store with every slot in it, when the whole
+  // network is replaced; the new nodes start a fresh one
+  static void resetStore() {
+    if (store != null) {
+      store = new AdjacencyStore(Network.getCapacity());
+    }
+  }
+
+  private int slot() {
+    if (slot < 0) {
+      slot = store.allocate();
+      if (myNode != null) {
+        bind(myNode);
+      }
+    }
+    return slot;
+  }
+
+  private static int slotOf(MycoNode n) {
+    HyphaLink l = n.getHyphaLink();
+    l.bind(n);
+    return l.slot;
+  }
+
+  // Tie the slot to its node, filing the node's state when it is first
+  // bound; after that the state is kept up by announceStateChange()
+  private void bind(MycoNode n) {
+    int s = slot();
+    if (store.node(s) != n) {
+      store.bind(s, n);
+      store.setState(s, n.getHyphaData().getState().ordinal());
+    }
+  }
+
+  // State a neighbor was filed under.  Normally its current state; in
+  // indexed mode the one recorded in the store, which the tally was
+  // kept against.
+  private static HyphaType filedState(MycoNode n) {
+    HyphaLink l = n.getHyphaLink();
+    if (indexed && l.slot >= 0 && store.node(l.slot) == n) {
+      return states[store.state(l.slot)];
+    }
+    return n.getHyphaData().getState();
+  }
+
+  private int size() {
+    if (indexed) {
+      return slot < 0 ? 0 : store.degree(slot);
+    }
+    return neighbors.size();
+  }
+
+  private MycoNode nth(int i) {
+    if (indexed) {
+      return store.neighborNode(slot, i);
+    }
+    return neighbors.get(i);
+  }
+
+  private boolean has(MycoNode neighbor) {
+    if (indexed) {
+      int other = neighbor.getHyphaLink().slot;
+      return slot >= 0 && other >= 0 && store.contains(slot, other);
+    }
+    return neighbors.contains(neighbor);
+  }
+
+  private MycoList snapshot() {
+    if (indexed) {
+      int d = size();
+      MycoList ret = new MycoList(d);
+      for (int i = 0; i < d; i++) {
+        ret.add(nth(i));
+      }
+      return ret;
+    }
+    return neighbors.duplicate();
+  }
+
+  private static MycoList[] newBuckets() {
+    MycoList[] ret = new MycoList[states.length];
+    for (int i = 0; i < ret.length; i++) {
+      ret[i] = new MycoList();
+    }
+    return ret;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static List<MycoNode>[] newListArray(int n) {
+    return (List<MycoNode>[]) new List<?>[n];
+  }
+
+  // Record a new neighbor in the neighbor list and its state bucket.
+  // The indexed store is undirected, so there the edge is written once
+  // and both ends (buckets and listeners) are brought up to date here;
+  // the neighbor's linkBack() then finds nothing left to do.
+  private boolean attach(MycoNode neighbor) {
+    if (!indexed) {
+      boolean ret = neighbors.add(neighbor);
+      if (ret) {
+        modStamp++;
+        version++;
+        degreeChanged();
+        bucket(neighbor, neighbor.getHyphaData().getState());
+      }
+      return ret;
+    }
+    if (!store.addEdge(slot(), slotOf(neighbor))) {
+      return false;
+    }
+    modStamp++;
+    version++;
+    degreeChanged();
+    bucket(neighbor, filedState(neighbor));
+    HyphaLink nl = neighbor.getHyphaLink();
+    nl.modStamp++;
+    nl.version++;
+    nl.degreeChanged();
+    MycoNode me = store.node(slot);
+    if (me != null) {
+      nl.bucket(me, filedState(me));
+      nl.fireLinkAdded(me);
+    }
+    return true;
+  }
+
+  // Drop a neighbor from the neighbor list and its state bucket.  As
+  // with attach(), the indexed store handles both ends at once.
+  private boolean detach(MycoNode neighbor) {
+    if (!indexed) {
+      boolean ret = neighbors.remove(neighbor);
+      if (ret) {
+        modStamp++;
+        version++;
+        degreeChanged();
+        unbucket(neighbor, neighbor.getHyphaData().getState());
+      }
+      return ret;
+    }
+    int other = neighbor.getHyphaLink().slot;
+    if (slot < 0 || other < 0 || !store.removeEdge(slot, other)) {
+      return false;
+    }
+    modStamp++;
+    version++;
+    degreeChanged();
+    unbucket(neighbor, filedState(neighbor));
+    HyphaLink nl = neighbor.getHyphaLink();
+    nl.modStamp++;
+    nl.version++;
+    nl.degreeChanged();
+    MycoNode me = store.node(slot);
+    if (me != null) {
+      nl.unbucket(me, filedState(me));
+      nl.fireLinkRemoved(me);
+    }
+    return true;
+  }
+
+  // Keep MycoCast's spare capacity indices in step with this degree
+  private void degreeChanged() {
+    if (myNode != null) {
+      MycoCast.capacityChanged(myNode);
+      ActiveSet.wake(myNode);
+    }
+  }
+
+  private void bucket(MycoNode neighbor, HyphaType state) {
+    tally(neighbor.getHyphaData().getType(), state.ordinal(), 1);
+    if (!indexed) {
+      buckets[state.ordinal()].add(neighbor);
+    }
+    if (state == HyphaType.BIOMASS) {
+      indexCapacity(neighbor);
+      // Hyphae linked here see this node's biomass two hops out
+      ActiveSet.wakeHyphae(myNode);
+    }
+  }
+
+  private void unbucket(MycoNode neighbor, HyphaType state) {
+    int s = state.ordinal();
+    // In indexed mode the store keeps the state the neighbor was filed
+    // under, so it cannot be misfiled
+    if (!indexed && !buckets[s].remove(neighbor)) {
+      // Bucket was out of step with the neighbor's state; fall back
+      // to searching all of them
+      log.log(Level.FINE, myNode + " HAD " + neighbor +
+              " MISFILED (NOT " + state + ")", myNode);
+      s = -1;
+      for (int i = 0; i < buckets.length; i++) {
+        if (buckets[i].remove(neighbor)) {
+          s = i;
+          break;
+        }
+      }
+      if (s < 0) { return; }
+    }
+    tally(neighbor.getHyphaData().getType(), s, -1);
+    if (s == HyphaType.BIOMASS.ordinal()) {
+      unindexCapacity(neighbor);
+      ActiveSet.wakeHyphae(myNode);
+    }
+  }
+
+  private void indexCapacity(MycoNode biomass) {
+    int c = Math.max(0, biomass.getHyphaData().getMaxCapacity());
+    if (byCapacity == null || c >= byCapacity.length) {
+      int n = Math.max(c + 1, (byCapacity == null) ? 16
+                       : byCapacity.length * 2);
+      byCapacity = (byCapacity == null) ? new MycoList[n]
+          : Arrays.copyOf(byCapacity, n);
+    }
+    if (byCapacity[c] == null) {
+      byCapacity[c] = new MycoList();
+    }
+    byCapacity[c].add(biomass);
+    if (capHigh < capLow) {
+      capLow = c;
+      capHigh = c;
+    } else {
+      capLow = Math.min(capLow, c);
+      capHigh = Math.max(capHigh, c);
+    }
+  }
+
+  private void unindexCapacity(MycoNode biomass) {
+    int c = biomass.getHyphaData().getMaxCapacity();
+    if (c < capLow || c > capHigh || byCapacity[c] == null
+        || !byCapacity[c].remove(biomass)) {
+      // Capacity changed since the node was filed (a rejoining node
+      // can be reinitialized); fall back to searching
+      c = -1;
+      for (int i = capLow; i <= capHigh; i++) {
+        if (byCapacity[i] != null && byCapacity[i].remove(biomass)) {
+          c = i;
+          break;
+        }
+      }
+      if (c < 0) { return; }
+    }
+    while (capLow <= capHigh && byCapacity[capLow].isEmpty()) {
+      do { capLow++; } while (capLow <= capHigh && byCapacity[capLow] == null);
+    }
+    while (capHigh >= capLow && byCapacity[capHigh].isEmpty()) {
+      do { capHigh--; } while (capHigh >= capLow && byCapacity[capHigh] == null);
+    }    if (capHigh < capLow) {
+      // Most nodes only briefly hold biomass; don't keep their buckets
+      byCapacity = null;
+      capLow = 0;
+      capHigh = -1;
+    }
+  }
+
+  private void tally(int type, int state, int delta) {
+    int i = type * states.length + state;
+    if (tally == null || i >= tally.length) {
+      int n = Math.max(HyphaData.numTypes, type + 1) * states.length;
+      tally = (tally == null) ? new int[n] : Arrays.copyOf(tally, n);
+    }
+    tally[i] += delta;
+  }
+
+  private int tallied(int type, HyphaType state) {
+    int i = type * states.length + state.ordinal();
+    return (tally == null || i >= tally.length) ? 0 : tally[i];
+  }
+
+  // Called on each neighbor's HyphaLink when node changes state
+  protected void neighborStateChanged(MycoNode neighbor, HyphaType oldState,
+                                      HyphaType newState) {
+    unbucket(neighbor, oldState);
+    bucket(neighbor, newState);
+    version++;
+    ActiveSet.wake(myNode);
+  }
+
+  // Called on each neighbor's HyphaLink when node changes service type
+  protected void neighborTypeChanged(MycoNode neighbor, int oldType,
+                                     int newType) {
+    int s = neighbor.getHyphaData().getState().ordinal();
+    tally(oldType, s, -1);
+    tally(newType, s, 1);
+    version++;
+    ActiveSet.wake(myNode);
+    if (s == HyphaType.BIOMASS.ordinal()) {
+      ActiveSet.wakeHyphae(myNode);
+    }
+  }
+
+  // Tell all neighbors that node (the owner of this HyphaLink) has
+  // changed from service type oldType to newType
+  protected void announceTypeChange(MycoNode node, int oldType, int newType) {
+    for (int i = 0; i < size(); i++) {
+      nth(i).getHyphaLink().neighborTypeChanged(node, oldType, newType);
+    }
+  }
+
+  // HyphaData restored its state from a snapshot, which may happen
+  // after this link (and the node's slot) was restored
+  void stateRestored(HyphaType state) {
+    if (indexed && slot >= 0) {
+      store.setState(slot, state.ordinal());
+    }
+  }
+
+  // Tell all neighbors that node (the owner of this HyphaLink) has
+  // changed from oldState to newState
+  protected void announceStateChange(MycoNode node, HyphaType oldState,
+                                     HyphaType newState) {
+    if (indexed && slot >= 0) {
+      store.setState(slot, newState.ordinal());
+    }
+    for (int i = 0; i < size(); i++) {
+      nth(i).getHyphaLink().neighborStateChanged(node, oldState, newState);
+    }
+  }
+
+  // Read-only view of the current neighbors.  Nothing is copied; the
+  // view's iterators throw ConcurrentModificationException if the
+  // neighbor set changes underneath them.  Callers that need to
+  // add or remove links while walking the list should use
+  // getNeighbors(), which returns a private copy.
+  public List<MycoNode> neighbors() {
+    if (view == null) {
+      view = new NeighborView();
+    }
+    return view;
+  }
+
+  // Read-only view of the neighbors currently in state t, with the
+  // same fail-fast behavior as neighbors()
+  public List<MycoNode> neighbors(HyphaType t) {
+    if (indexed) {
+      return bucket(t);
+    }
+    return view(t);
+  }
+
+  // The neighbors in state t.  The bucket itself, or in indexed mode a
+  // read-only view that scans the node's segment for them.
+  private List<MycoNode> bucket(HyphaType t) {
+    if (!indexed) {
+      return buckets[t.ordinal()];
+    }
+    return view(t);
+  }
+
+  private List<MycoNode> view(HyphaType t) {
+    if (bucketViews == null) {
+      bucketViews = newListArray(states.length);
+    }
+    int i = t.ordinal();
+    if (bucketViews[i] == null) {
+      bucketViews[i] = indexed ? new StateView(i)
+          : Collections.unmodifiableList(buckets[i]);
+    }
+    return bucketViews[i];
+  }
+
+  public int modStamp() {
+    return modStamp;
+  }
+
+  public int version() {
+    return version;
+  }
+
+  private class NeighborView extends AbstractList<MycoNode>
+      implements RandomAccess {
+    public MycoNode get(int i) {
+      if (i < 0 || i >= size()) {
+        throw new IndexOutOfBoundsException("Index: " + i
+                                            + ", Size: " + size());
+      }
+      return nth(i);
+    }
+
+    public int size() {
+      return HyphaLink.this.size();
+    }
+
+    public boolean contains(Object o) {
+      return (o instanceof MycoNode) && has((MycoNode) o);
+    }
+
+    public Iterator<MycoNode> iterator() {
+      return new Iterator<MycoNode>() {
+        private int next = 0;
+        private final int expected = modStamp;
+
+        public boolean hasNext() {
+          return next < HyphaLink.this.size();
+        }
+
+        public MycoNode next() {
+          if (modStamp != expected) {
+            throw new ConcurrentModificationException();
+          }
+          if (next >= HyphaLink.this.size()) {
+            throw new NoSuchElementException();
+          }
+          return nth(next++);
+        }
+
+        public void remove() {
+          throw new UnsupportedOperationException();
+        }
+      };
+    }
+  }
+
+  // Neighbors in state t whose segment entries are those of the
+  // indexed store.  get() scans from the start of the segment, so walk
+  // it with an iterator.  Iterators fail fast on any change to the
+  // neighbors or their states.
+  private class StateView extends AbstractList<MycoNode> {
+    private final int state;
+
+    StateView(int state) {
+      this.state = state;
+    }
+
+    public MycoNode get(int k) {
+      for (int i = 0; i < HyphaLink.this.size(); i++) {
+        if (store.neighborState(slot, i) == state && k-- == 0) {
+          return nth(i);
+        }
+      }
+      throw new IndexOutOfBoundsException("Index: " + k);
+    }
+
+    public int size() {
+      return count(states[state]);
+    }
+
+    public Iterator<MycoNode> iterator() {
+      return new Iterator<MycoNode>() {
+        private final int expected = version;
+        private int next = skip(0);
+
+        private int skip(int i) {
+          while (i < HyphaLink.this.size()
+                 && store.neighborState(slot, i) != state) {
+            i++;
+          }
+          return i;
+        }
+
+        public boolean hasNext() {
+          return next < HyphaLink.this.size();
+        }
+
+        public MycoNode next() {
+          if (version != expected) {
+            throw new ConcurrentModificationException();
+          }
+          if (next >= HyphaLink.this.size()) {
+            throw new NoSuchElementException();
+          }
+          MycoNode ret = nth(next);
+          next = skip(next + 1);
+          return ret;
+        }
+
+        public void remove() {
+          throw new UnsupportedOperationException();
+        }
+      };
+    }
+  }
+
+  private int count(HyphaType t) {
+    if (!indexed) {
+      return buckets[t.ordinal()].size();
+    }
+    int ret = 0;
+    if (tally != null) {
+      for (int i = t.ordinal(); i < tally.length; i += states.length) {
+        ret += tally[i];
+      }
+    }
+    return ret;
+  }
+
+  private int countSame(HyphaType t) {
+    return tallied(myNode.getHyphaData().getType(), t);
+  }
+
+  // Copy the neighbors in the given states whose service type is (or,
+  // if same is false, is not) type
+  private MycoList collectOfType(int type, boolean same, HyphaType... ts) {
+    MycoList ret = new MycoList();
+    for (HyphaType t : ts) {
+      for (MycoNode n : bucket(t)) {
+        if ((n.getHyphaData().getType() == type) == same) {
+          ret.add(n);
+        }
+      }
+    }
+    return ret;
+  }
+
+  // The owning node's random stream, once nextCycle has told us who
+  // that is
+  private Random random() {
+    return myNode == null ? CommonState.r : myNode.getRandomStream();
+  }
+
+  // Pick uniformly among the neighbors in the given states with the
+  // given service type, walking only those buckets
+  private MycoNode randomOfType(int type, HyphaType... ts) {
+    int n = 0;
+    for (HyphaType t : ts) {
+      n += tallied(type, t);
+    }
+    if (n == 0) {
+      return null;
+    }
+    int k = random().nextInt(n);
+    for (HyphaType t : ts) {
+      for (MycoNode c : bucket(t)) {
+        if (c.getHyphaData().getType() == type && k-- == 0) {
+          return c;
+        }
+      }
+    }
+    return null;
+  }
+
+  private MycoList collect(HyphaType... ts) {
+    int size = 0;
+    for (HyphaType t : ts) {
+      size += count(t);
+    }
+    MycoList ret = new MycoList(size);
+    for (HyphaType t : ts) {
+      ret.addAll(bucket(t));
+    }
+    return ret;
   }
 
   public void nextCycle(Node node, int pid) {
     myNode = (MycoNode) node;
-    for (MycoNode neighbor : neighbors.duplicate()) {
+    if (indexed) {
+      store.bind(slot(), myNode);
+    }
+    // Walk backwards so pruning never disturbs unvisited entries
+    for (int i = size() - 1; i >= 0; i--) {
+      MycoNode neighbor = nth(i);
       if (!neighbor.isUp()) {
         pruneNeighbor(neighbor);
       }
@@ -76,11 +710,17 @@ public class HyphaLink implements Linkable, CDProtocol, Cleanable {
     // link = (HyphaLink) node.getProtocol(hyphaLinkPid);
   }
 
+  // Dead neighbors are detached when they are killed, so there is
+  // nothing left to prune until they are
+  public boolean isQuiescent(Node node) {
+    return true;
+  }
+
   public String toString() {
     String ret = "<HyphaLink: " + " ";
     HyphaData d;
 
-    for (MycoNode n : neighbors) {
+    for (MycoNode n : neighbors()) {
       d = (HyphaData) n.getProtocol(hyphaDataPid);
       ret += n + " " + d.toString() + " ";
     }
@@ -91,11 +731,11 @@ public class HyphaLink implements Linkable, CDProtocol, Cleanable {
   public boolean hasCapacity(MycoNode n) {
     HyphaData d;
     d = (HyphaData) n.getProtocol(hyphaDataPid);
-    return neighbors.size() < d.getMaxCapacity();
+    return size() < d.getMaxCapacity();
   }
 
   public boolean withinCapacity(MycoNode n, double multiplier) {
-    return neighbors.size() < (n.getHyphaData().getMaxCapacity() * multiplier);
+    return size() < (n.getHyphaData().getMaxCapacity() * multiplier);
   }
 
   public boolean addNeighbor(Node neighbor) {
@@ -103,10 +743,13 @@ public class HyphaLink implements Linkable, CDProtocol, Cleanable {
   }
 
   public boolean addNeighbor(MycoNode neighbor) {
-    if (myNode == neighbor || neighbors.contains(neighbor)) {
+    if (BspOps.defer(BspOps.Kind.ADD, myNode, neighbor)) {
+      return true;
+    }
+    if (myNode == neighbor || has(neighbor)) {
       // do nothing; no double-entries, no self-links
     } else {
-      neighbors.add(neighbor);
+      attach(neighbor);
       fireLinkAdded(neighbor);
     }
     HyphaLink neighborLink =
@@ -117,13 +760,13 @@ public class HyphaLink implements Linkable, CDProtocol, Cleanable {
   }
 
   public int neighborCount() {
-    return neighbors.size();
+    return size();
   }
 
 
   public boolean linkBack(MycoNode neighbor) {
-    if (myNode == neighbor || neighbors.contains(neighbor)) { return true; }
-    boolean ret = neighbors.add(neighbor);
+    if (myNode == neighbor || has(neighbor)) { return true; }
+    boolean ret = attach(neighbor);
     if (ret) {
       fireLinkAdded(neighbor);
     }
@@ -131,12 +774,15 @@ public class HyphaLink implements Linkable, CDProtocol, Cleanable {
   }
 
   public MycoList deadNeighbors() {
-    return neighbors.getDead();
+    return collect(HyphaType.DEAD);
   }
 
   public boolean removeNeighbor(MycoNode neighbor) {
+    if (BspOps.defer(BspOps.Kind.REMOVE, myNode, neighbor)) {
+      return true;
+    }
     log.finer("REMOVING CONNECTION WITH " + neighbor);
-    neighbors.remove(neighbor);
+    detach(neighbor);
     fireLinkRemoved(neighbor);
     HyphaLink neighborLink =
         ((HyphaLink) neighbor.getProtocol(hyphaLinkPid));
@@ -146,7 +792,7 @@ public class HyphaLink implements Linkable, CDProtocol, Cleanable {
   }
 
   public boolean pruneNeighbor(MycoNode neighbor) {
-    boolean ret = neighbors.remove(neighbor);
+    boolean ret = detach(neighbor);
     if (ret) {
       fireLinkRemoved(neighbor);
     }
@@ -154,51 +800,96 @@ public class HyphaLink implements Linkable, CDProtocol, Cleanable {
   }
 
   public MycoList getNeighbors() {
-    return neighbors.duplicate();
+    return snapshot();
   }
 
   public MycoList getSameNeighbors() {
     HyphaData d =
         ((HyphaData) (myNode).getProtocol(hyphaDataPid));
-    return neighbors.getType(d.getType());
+    return ofType(d.getType(), true);
   }
 
   public MycoList getDifferentNeighbors() {
     HyphaData d =
         ((HyphaData) (myNode).getProtocol(hyphaDataPid));
-    return neighbors.getTypeNot(d.getType());
+    return ofType(d.getType(), false);
+  }
+
+  public MycoList getSameHyphae() {
+    return collectOfType(myNode.getHyphaData().getType(), true, hyphaStates);
+  }
+
+  public MycoList getSameStable() {
+    return collectOfType(myNode.getHyphaData().getType(), true, stableStates);
+  }
+
+  public MycoList getSame(HyphaType t) {
+    return collectOfType(myNode.getHyphaData().getType(), true, t);
+  }
+
+  public MycoList getDifferentHyphae() {
+    return collectOfType(myNode.getHyphaData().getType(), false,
+                         hyphaStates);
+  }
+
+  // Neighbors of an arbitrary service type in state t
+  public MycoList getOfType(int type, HyphaType t) {
+    return collectOfType(type, true, t);
+  }
+
+  public MycoList getDifferent(HyphaType t) {
+    return collectOfType(myNode.getHyphaData().getType(), false, t);
+  }
+
+  private MycoList ofType(int type, boolean same) {
+    MycoList ret = new MycoList();
+    for (int i = 0; i < size(); i++) {
+      MycoNode n = nth(i);
+      if ((n.getHyphaData().getType() == type) == same) {
+        ret.add(n);
+      }
+    }
+    return ret;
   }
 
   public MycoList getBiomass() {
-    return neighbors.getBiomass();
+    return collect(HyphaType.BIOMASS);
   }
 
   public MycoList getHyphae() {
-    return neighbors.getHyphae();
+    return collect(hyphaStates);
   }
 
   public MycoList getImmobile() {
-    return neighbors.getImmobile();
+    return collect(HyphaType.IMMOBILE);
   }
 
   public MycoList getBranching() {
-    return neighbors.getBranching();
+    return collect(HyphaType.BRANCHING);
   }
 
   public MycoList getExtending() {
-    return neighbors.getExtending();
+    return collect(HyphaType.EXTENDING);
   }
 
   public MycoList getStable() {
-    return neighbors.getStable();
+    return collect(stableStates);
+  }
+
+  public int stateDegree(HyphaType t) {
+    return count(t);
+  }
+
+  public int stableDegree() {
+    return count(HyphaType.IMMOBILE) + count(HyphaType.BRANCHING);
   }
 
   public boolean contains(Node neighbor) {
-    return neighbors.contains(neighbor);
+    return has((MycoNode) neighbor);
   }
 
   public boolean isDisconnected() {
-    return neighbors.isEmpty();
+    return size() == 0;
   }
 
   public int idealHyphae() {
@@ -289,89 +980,262 @@ public class HyphaLink implements Linkable, CDProtocol, Cleanable {
   }
 
   public int degree() {
-    return neighbors.size();
+    return size();
   }
 
   public int sameDegree() {
-    return getSameNeighbors().size();
+    int ret = 0;
+    for (HyphaType t : states) {
+      ret += countSame(t);
+    }
+    return ret;
   }
 
   public int differentDegree() {
-    return getDifferentNeighbors().size();
+    return degree() - sameDegree();
+  }
+
+  public int sameStableDegree() {
+    return countSame(HyphaType.IMMOBILE) + countSame(HyphaType.BRANCHING);
+  }
+
+  public int differentStableDegree() {
+    return stableDegree() - sameStableDegree();
+  }
+
+  public int sameStateDegree(HyphaType t) {
+    return countSame(t);
+  }
+
+  // Number of neighbors of service type type in state t
+  public int typeStateDegree(int type, HyphaType t) {
+    return tallied(type, t);
   }
 
   public int hyphaDegree() {
-    return neighbors.getHyphae().size();
+    return count(HyphaType.IMMOBILE) + count(HyphaType.BRANCHING)
+        + count(HyphaType.EXTENDING);
   }
 
   public int sameHyphaDegree() {
-    return getSameNeighbors().getHyphae().size();
+    return countSame(HyphaType.IMMOBILE) + countSame(HyphaType.BRANCHING)
+        + countSame(HyphaType.EXTENDING);
   }
 
   public int differentHyphaDegree() {
-    return getDifferentNeighbors().getHyphae().size();
+    return hyphaDegree() - sameHyphaDegree();
   }
 
   public int biomassDegree() {
-    return neighbors.getBiomass().size();
+    return count(HyphaType.BIOMASS);
   }
 
   public int sameBiomassDegree() {
-    return getSameNeighbors().getBiomass().size();
+    return countSame(HyphaType.BIOMASS);
   }
 
   public MycoNode getRandomNeighbor() {
-    return neighbors.getRandom();
+    if (size() == 0) {
+      return null;
+    }
+    return nth(random().nextInt(size()));
   }
 
   public MycoNode getRandomSameNeighbor() {
-    return neighbors.getRandomOfType(myNode.getHyphaData().getType());
+    return randomOfType(myNode.getHyphaData().getType(), states);
   }
 
   public MycoNode getRandomSameHypha() {
-    return neighbors.getHyphae().getRandomOfType(myNode.getHyphaData().getType());
+    return randomOfType(myNode.getHyphaData().getType(), hyphaStates);
+  }
+
+  public MycoNode getRandomSameStable() {
+    return randomOfType(myNode.getHyphaData().getType(), stableStates);
+  }
+
+  public MycoNode getRandomDifferentStable() {
+    int n = differentStableDegree();
+    if (n == 0) {
+      return null;
+    }
+    int type = myNode.getHyphaData().getType();
+    int k = random().nextInt(n);
+    for (HyphaType t : stableStates) {
+      for (MycoNode c : bucket(t)) {
+        if (c.getHyphaData().getType() != type && k-- == 0) {
+          return c;
+        }
+      }
+    }
+    return null;
   }
 
   public MycoNode getNeighbor(int i) {
-    return neighbors.get(i);
+    return nth(i);
   }
 
   public int getNeighborhoodCapacity() {
     int cap = 0;
-    for (MycoNode n : neighbors.getType(myNode.getHyphaData().getType())) {
-      cap += n.getHyphaData().getCapacity();
+    int type = myNode.getHyphaData().getType();
+    for (MycoNode n : neighbors()) {
+      if (n.getHyphaData().getType() == type) {
+        cap += n.getHyphaData().getCapacity();
+      }
     }
     return cap;
   }
 
   public int getNeighborhoodQueueLength() {
     int len = 0;
-    for (MycoNode n : neighbors.getType(myNode.getHyphaData().getType())) {
-      len += n.getHyphaData().getQueueLength();
+    int type = myNode.getHyphaData().getType();
+    for (MycoNode n : neighbors()) {
+      if (n.getHyphaData().getType() == type) {
+        len += n.getHyphaData().getQueueLength();
+      }
     }
     return len;
   }
 
   // Return a list of all nodes two jumps away in the graph
-  public MycoList get2Neighbors() {
-    Set<MycoNode> set = new HashSet<MycoNode>();
-    for (MycoNode n : getHyphae()) {
-      set.addAll(n.getHyphaLink().getNeighbors());
+  // Read-only view; the cache replaces rather than edits its lists, so
+  // a view stays as it was when taken.  Copy it before linking to
+  // anything in it if a later call should see the new neighborhood.
+  public List<MycoNode> get2Neighbors() {
+    refreshTwoHop();
+    return hop2View;
+  }
+
+  // Return a list of all nodes within two jump, read-only as above
+  public List<MycoNode> get2Neighborhood() {
+    refreshTwoHop();
+    return hop2HoodView;
+  }
+
+  // Random node two hops away (and not adjacent) in one of the given
+  // states, or null
+  public MycoNode getRandom2Neighbor(HyphaType... ts) {
+    refreshTwoHop();
+    int n = 0;
+    for (HyphaType t : ts) {
+      n += hop2Buckets[t.ordinal()].size();
     }
-    set.remove(myNode);
-    set.remove(neighbors);
-    return new MycoList(set);
+    if (n == 0) {
+      return null;
+    }
+    int k = random().nextInt(n);
+    for (HyphaType t : ts) {
+      MycoList bucket = hop2Buckets[t.ordinal()];
+      if (k < bucket.size()) {
+        return bucket.get(k);
+      }
+      k -= bucket.size();
+    }
+    return null;
   }
 
-  // Return a list of all nodes within two jump
-  public MycoList get2Neighborhood() {
+  // As above, restricted to nodes of service type type
+  public MycoNode getRandom2NeighborOfType(int type, HyphaType... ts) {
+    refreshTwoHop();
+    int n = 0;
+    for (HyphaType t : ts) {
+      for (MycoNode c : hop2Buckets[t.ordinal()]) {
+        if (c.getHyphaData().getType() == type) { n++; }
+      }
+    }
+    if (n == 0) {
+      return null;
+    }
+    int k = random().nextInt(n);
+    for (HyphaType t : ts) {
+      for (MycoNode c : hop2Buckets[t.ordinal()]) {
+        if (c.getHyphaData().getType() == type && k-- == 0) {
+          return c;
+        }
+      }
+    }
+    return null;
+  }
+
+  // Read-only list of the biomass nodes two hops away, largest
+  // capacity first
+  public List<MycoNode> get2NeighborBiomass() {
+    return twoHopBiomass(-1);
+  }
+
+  // As above, restricted to biomass of service type type
+  public List<MycoNode> get2NeighborBiomass(int type) {
+    return twoHopBiomass(type);
+  }
+
+  private List<MycoNode> twoHopBiomass(int type) {
+    refreshTwoHop();
+    if (hop2Biomass == null || type + 1 >= hop2Biomass.length) {
+      int n = Math.max(HyphaData.numTypes, type + 1) + 1;
+      hop2Biomass = (hop2Biomass == null) ? newListArray(n)
+          : Arrays.copyOf(hop2Biomass, n);
+    }
+    if (hop2Biomass[type + 1] == null) {
+      MycoList l = new MycoList();
+      for (MycoNode n : hop2Buckets[HyphaType.BIOMASS.ordinal()]) {
+        if (type < 0 || n.getHyphaData().getType() == type) {
+          l.add(n);
+        }
+      }
+      Collections.sort(l, byCapacityDescending);
+      hop2Biomass[type + 1] = Collections.unmodifiableList(l);
+    }
+    return hop2Biomass[type + 1];
+  }
+
+  // Rebuild the two-hop cache if this node or any hypha it was built
+  // through has changed since.  For a settled hypha this is just a
+  // walk over its hyphal neighbors' version counters.
+  private void refreshTwoHop() {
+    if (hop2 != null && hopVersion == version) {
+      boolean fresh = true;
+      for (int i = 0; i < hopVia.length; i++) {
+        if (hopVia[i].getHyphaLink().version != hopVersions[i]) {
+          fresh = false;
+          break;
+        }
+      }
+      if (fresh) {
+        return;
+      }
+    }
+    int h = hyphaDegree();
+    hopVia = new MycoNode[h];
+    hopVersions = new int[h];
     Set<MycoNode> set = new HashSet<MycoNode>();
-    for (MycoNode n : getHyphae()) {
-      set.add(n);
-      set.addAll(n.getHyphaLink().getNeighbors());
+    int i = 0;
+    for (HyphaType t : hyphaStates) {
+      for (MycoNode n : bucket(t)) {
+        HyphaLink nl = n.getHyphaLink();
+        hopVia[i] = n;
+        hopVersions[i] = nl.version;
+        i++;
+        set.add(n);
+        set.addAll(nl.neighbors());
+      }
     }
     set.remove(myNode);
-    return new MycoList(set);
+    hop2Hood = new MycoList(set);
+    hop2HoodView = Collections.unmodifiableList(hop2Hood);
+    set.removeAll(neighbors());
+    hop2 = new MycoList(set);
+    hop2View = Collections.unmodifiableList(hop2);
+    if (hop2Buckets == null) {
+      hop2Buckets = newBuckets();
+    } else {
+      for (MycoList bucket : hop2Buckets) {
+        bucket.clear();
+      }
+    }
+    for (MycoNode n : hop2) {
+      hop2Buckets[n.getHyphaData().getState().ordinal()].add(n);
+    }
+    hop2Biomass = null;
+    hopVersion = version;
   }
 
 
@@ -384,7 +1248,7 @@ public class HyphaLink implements Linkable, CDProtocol, Cleanable {
     MycoNode t;
     MycoNode owningNeighbor = null;
     HyphaData d;
-    for (MycoNode n : getSameNeighbors().getHyphae()) {
+    for (MycoNode n : getSameHyphae()) {
       if (exclude.contains(n)) { continue; }
       t = n.getHyphaLink().getMaxBiomass();
       if (t == null) { continue; }
@@ -405,28 +1269,47 @@ public class HyphaLink implements Linkable, CDProtocol, Cleanable {
     return ret;
   }
 
-  // get the highest capacity child biomass node (of the same type)
+  // get the highest capacity child biomass node (of the same type).
+  // Zero-capacity biomass is never returned.
   public MycoNode getMaxBiomass() {
-    HyphaData d;
-    MycoNode maxBiomass = null;
-    int maxBiomassCapacity = 0;
-    for (MycoNode n : getSameNeighbors().getBiomass()) {
-      d = n.getHyphaData();
-      if (d.isBiomass() && (d.getMaxCapacity() > maxBiomassCapacity)) {
-        maxBiomassCapacity = d.getMaxCapacity();
-        maxBiomass = n;
+    int type = myNode.getHyphaData().getType();
+    for (int c = capHigh; c >= Math.max(capLow, 1); c--) {
+      if (byCapacity[c] == null) { continue; }
+      for (MycoNode n : byCapacity[c]) {
+        if (n.getHyphaData().getType() == type) {
+          return n;
+        }
       }
     }
-    return maxBiomass;
+    return null;
   }
 
+  // Capacity of the largest attached biomass node of any type, or -1
+  public int maxBiomassCapacity() {
+    return (capHigh >= capLow) ? capHigh : -1;
+  }
+
+  // Up to k attached biomass nodes (of any type), lowest capacity first
+  public MycoList getLowestBiomass(int k) {
+    MycoList ret = new MycoList();
+    for (int c = capLow; c <= capHigh && ret.size() < k; c++) {
+      if (byCapacity[c] == null) { continue; }
+      for (MycoNode n : byCapacity[c]) {
+        if (ret.size() >= k) { break; }
+        ret.add(n);
+      }
+    }
+    return ret;
+  }
+
+  // Hand off the lowest-capacity biomass, keeping the larger nodes
+  // (the ones growHypha() would promote) here
   public void transferBiomass(MycoNode target, int quantity) {
-    int transferred = 0;
-    for (MycoNode bio : getBiomass()) {
-      if (transferred >= quantity) { break; }
-      transferNeighbor(bio, target);
-      transferred++;
+    if (BspOps.defer(BspOps.Kind.TRANSFER_BIOMASS, myNode, target,
+                     quantity)) {
+      return;
     }
+    transferMany(getLowestBiomass(quantity), target);
     log.log(Level.FINE, myNode + " TRANSFERRED " + quantity + " BIOMASS " +
             " TO " + target, myNode);
   }
@@ -437,25 +1320,30 @@ public class HyphaLink implements Linkable, CDProtocol, Cleanable {
   }
 
   public boolean isNeighbor(MycoNode b) {
-    return neighbors.contains(b);
+    return has(b);
   }
 
   public MycoNode getParent() {
     if (myNode.getHyphaData().isBiomass()) {
       log.log(Level.FINEST, myNode + " QUERIED FOR PARENT; IS BIOMASS", myNode);
-      MycoList h = getHyphae();
-      if (h.size() > 0) {
-        if (h.size() > 1) {
-          // FIXME: Handle multiple parents better!!!
-          log.log(Level.FINE, myNode + " MULTIPLE HYPHAE FOR BIOMASS NODE!", myNode);
+      if (hyphaDegree() > 1) {
+        // FIXME: Handle multiple parents better!!!
+        log.log(Level.FINE, myNode + " MULTIPLE HYPHAE FOR BIOMASS NODE!", myNode);
+      }
+      for (HyphaType t : hyphaStates) {
+        if (count(t) > 0) {
+          return bucket(t).get(0);
         }
-        return h.get(0);
       }
     }
     return null;
   }
 
   public void transferNeighbor(MycoNode neighbor, MycoNode target) {
+    if (neighbor != null && target != null
+        && BspOps.defer(BspOps.Kind.TRANSFER, myNode, neighbor, target)) {
+      return;
+    }
     if (neighbor != null && target != null) {
       if (neighbor == target) {
         log.log(Level.FINER, myNode + " TRIED TO TRANSFER " +
@@ -463,7 +1351,7 @@ public class HyphaLink implements Linkable, CDProtocol, Cleanable {
                 new Object[] { myNode, neighbor });
         return;
       }
-      neighbors.remove(neighbor);
+      detach(neighbor);
       fireLinkRemoved(neighbor);
       HyphaLink neighborLink =
           ((HyphaLink) neighbor.getProtocol(hyphaLinkPid));
@@ -488,7 +1376,105 @@ public class HyphaLink implements Linkable, CDProtocol, Cleanable {
     }
   }
 
+  // Move each of the given neighbors over to target in one pass, with
+  // a single batched link event.  Same outcome as transferNeighbor()
+  // on each in turn, minus its redundant checks; nodes that are not
+  // neighbors (or are target itself) are left alone.
+  public void transferMany(Collection<MycoNode> moving, MycoNode target) {
+    if (target == null) {
+      log.log(Level.WARNING, "BAD TRANSFER attempted from " + myNode +
+              " TO " + target, new Object[] {myNode, target});
+      return;
+    }
+    HyphaLink tl = target.getHyphaLink();
+    beginBatch();
+    try {
+      for (MycoNode n : moving) {
+        if (n == target) {
+          log.log(Level.FINER, myNode + " TRIED TO TRANSFER " +
+                  n + " TO ITSELF.", new Object[] { myNode, n });
+          continue;
+        }
+        if (!detach(n)) {
+          continue;
+        }
+        fireLinkRemoved(n);
+        n.getHyphaLink().pruneNeighbor(myNode);
+        if (!tl.has(n) && tl.attach(n)) {
+          tl.fireLinkAdded(n);
+          n.getHyphaLink().linkBack(target);
+          MessageObserver.topoActionMessages(2);
+        }
+      }
+    } finally {
+      endBatch();
+    }
+    log.log(Level.FINER, myNode + " TRANSFERS " + moving.size()
+            + " NEIGHBORS TO " + target, new Object[] {myNode, target});
+  }
+
+  // Move every neighbor except target itself over to target
+  public void transferAll(MycoNode target) {
+    transferMany(snapshot(), target);
+  }
+
+  // Sever every link of this node in one pass, with a single batched
+  // link event.  Each neighbor drops this node directly, instead of
+  // going through removeNeighbor() and its reverse prune.
+  public void detachAll() {
+    MycoNode me = (indexed && slot >= 0) ? store.node(slot) : myNode;
+    if (me == null) {
+      return;
+    }
+    beginBatch();
+    try {
+      for (int i = 0; i < size(); i++) {
+        MycoNode n = nth(i);
+        HyphaLink nl = n.getHyphaLink();
+        if (!indexed) {
+          nl.detach(me);
+        } else {
+          // The shared store is cleared from this end below
+          nl.unbucket(me, filedState(me));
+          nl.modStamp++;
+          nl.version++;
+          nl.degreeChanged();
+        }
+        nl.fireLinkRemoved(me);
+        fireLinkRemoved(n);
+      }
+      if (indexed) {
+        if (slot >= 0) {
+          store.clear(slot);
+        }
+      } else {
+        neighbors.clear();
+      }
+      clearBuckets();
+    } finally {
+      endBatch();
+    }
+  }
+
+  private void clearBuckets() {
+    modStamp++;
+    version++;
+    degreeChanged();
+    if (buckets != null) {
+      for (MycoList bucket : buckets) {
+        bucket.clear();
+      }
+    }
+    tally = null;
+    byCapacity = null;
+    capLow = 0;
+    capHigh = -1;
+  }
+
   public void absorbHypha(MycoNode target) {
+    if (BspOps.defer(BspOps.Kind.ABSORB, myNode, target)) {
+      return;
+    }
 
     HyphaData myData = (HyphaData) myNode.getProtocol(hyphaDataPid);
     HyphaLink tl = (HyphaLink) target.getProtocol(hyphaLinkPid);
@@ -505,17 +1491,10 @@ public class HyphaLink implements Linkable, CDProtocol, Cleanable {
       return;
     }
 
-    // Move all target's hyphae to self
-    MycoList hyphae = tl.getHyphae();
-    for (MycoNode n : hyphae) {
-      tl.transferNeighbor(n, myNode);
-    }
-
-    // Move all target's biomass to self
-    MycoList biomass = tl.getBiomass();
-    for (MycoNode n : biomass) {
-      tl.transferNeighbor(n, myNode);
-    }
+    // Move all target's hyphae, then all its biomass, to self
+    tl.transferMany(tl.collect(HyphaType.IMMOBILE, HyphaType.BRANCHING,
+                               HyphaType.EXTENDING, HyphaType.BIOMASS),
+                    myNode);
 
     // Demote absorbed target to biomass
     targetData.becomeBiomass(target);
@@ -524,19 +1503,14 @@ public class HyphaLink implements Linkable, CDProtocol, Cleanable {
   }
 
   public void swapHyphae(MycoNode target) {
+    if (BspOps.defer(BspOps.Kind.SWAP, myNode, target)) {
+      return;
+    }
     log.log(Level.FINE, myNode + " SWAPS WITH " + target,
             new Object[] {myNode, target});
-    // Move all connected hyphae to target
-    MycoList hyphae = this.getHyphae();
-    for (MycoNode n : hyphae) {
-      this.transferNeighbor(n, target);
-    }
-
-    // Move all connected biomass to target
-    MycoList biomass = this.getBiomass();
-    for (MycoNode n : biomass) {
-      this.transferNeighbor(n, target);
-    }
+    // Move all connected hyphae, then all connected biomass, to target
+    transferMany(collect(HyphaType.IMMOBILE, HyphaType.BRANCHING,
+                         HyphaType.EXTENDING, HyphaType.BIOMASS), target);
 
     // Promote target to same state as self
 
@@ -551,6 +1525,10 @@ public class HyphaLink implements Linkable, CDProtocol, Cleanable {
 
   public MycoNode growHypha() {
     MycoNode newHypha = getMaxBiomass();
+    if (newHypha != null
+        && BspOps.defer(BspOps.Kind.GROW, myNode, newHypha)) {
+      return newHypha;
+    }
     if (newHypha != null) {
       log.log(Level.FINER, myNode + " GROWS HYPHA INTO " +
               newHypha, new Object[] {myNode, newHypha} );
@@ -564,13 +1542,114 @@ public class HyphaLink implements Linkable, CDProtocol, Cleanable {
     HyphaLink ret = null;
     try {
       ret = (HyphaLink) super.clone();
-      ret.neighbors = new MycoList();
+      ret.neighbors = indexed ? null : new MycoList();
+      ret.buckets = indexed ? null : newBuckets();
+      ret.tally = null;
+      ret.byCapacity = null;
+      ret.capLow = 0;
+      ret.capHigh = -1;
+      ret.slot = -1;
+      ret.modStamp = 0;
+      ret.view = null;
+      ret.bucketViews = null;
+      ret.version = 0;
+      ret.hopVia = null;
+      ret.hopVersions = null;
+      ret.hop2 = null;
+      ret.hop2Buckets = null;
+      ret.hop2Hood = null;
+      ret.hop2View = null;
+      ret.hop2HoodView = null;
+      ret.hop2Biomass = null;
     } catch (CloneNotSupportedException e) {
       // Never happens
     }
     return ret;
   }
 
+  // The neighbor list and the bucket and capacity lists are written in
+  // their current order, since strategies draw from them by position;
+  // the tally is written as is.  The two-hop cache is left to be
+  // rebuilt.  In indexed mode each node's segment of the store is
+  // written back in the saved order; the buckets are only views of it,
+  // written as walked there, and skipped on reading.
+  public void writeState(SnapshotOutput out) throws IOException {
+    out.putInt(version);
+    out.putInt(modStamp);
+    out.putNodes(snapshot());
+    for (HyphaType t : states) {
+      out.putNodes(bucket(t));
+    }
+    out.putInt(tally == null ? -1 : tally.length);
+    if (tally != null) {
+      for (int t : tally) {
+        out.putInt(t);
+      }
+    }
+    out.putInt(byCapacity == null ? -1 : byCapacity.length);
+    if (byCapacity != null) {
+      for (MycoList c : byCapacity) {
+        out.putBoolean(c != null);
+        if (c != null) {
+          out.putNodes(c);
+        }
+      }
+    }
+    out.putInt(capLow);
+    out.putInt(capHigh);
+  }
+
+  public void readState(MycoNode node, SnapshotInput in) {
+    myNode = node;
+    version = in.getInt();
+    modStamp = in.getInt();
+    MycoList saved = new MycoList();
+    in.getNodes(saved);
+    if (indexed) {
+      bind(node);
+      int[] slots = new int[saved.size()];
+      for (int i = 0; i < slots.length; i++) {
+        slots[i] = slotOf(saved.get(i));
+      }
+      store.setNeighbors(slot, slots);
+      MycoList skipped = new MycoList();
+      for (int i = 0; i < states.length; i++) {
+        in.getNodes(skipped);
+      }
+    } else {
+      neighbors = saved;
+      buckets = newBuckets();
+      for (MycoList b : buckets) {
+        in.getNodes(b);
+      }
+    }
+    int n = in.getInt();
+    tally = (n < 0) ? null : new int[n];
+    for (int i = 0; i < n; i++) {
+      tally[i] = in.getInt();
+    }
+    n = in.getInt();
+    byCapacity = (n < 0) ? null : new MycoList[n];
+    for (int i = 0; i < n; i++) {
+      if (in.getBoolean()) {
+        byCapacity[i] = new MycoList();
+        in.getNodes(byCapacity[i]);
+      }
+    }
+    capLow = in.getInt();
+    capHigh = in.getInt();
+    view = null;
+    bucketViews = null;
+    hopVia = null;
+    hopVersions = null;
+    hop2 = null;
+    hop2Buckets = null;
+    hop2Hood = null;
+    hop2View = null;
+    hop2HoodView = null;
+    hop2Biomass = null;
+  }
+
   @Override
   public void onKill() {
     if (myNode == null) {
@@ -582,14 +1661,20 @@ public class HyphaLink implements Linkable, CDProtocol, Cleanable {
     log.log(Level.FINER, myNode + " (" + myData.getState() +
             ") HAS BEEN KILLED ", myNode);
 
+    MycoList removing = snapshot();
     fireFailing(myNode, myData.getState(), degree(), myData.getParentTarget(),
-                neighbors);
-    MycoList removing = new MycoList(neighbors);
-    for (MycoNode neighbor : removing) {
-      HyphaLink nl = neighbor.getHyphaLink();
-      nl.removeNeighbor(myNode);
+                removing);
+    MessageObserver.topoActionMessages(2 * removing.size());
+    detachAll();
+    if (indexed && slot >= 0) {
+      store.release(slot);
+      slot = -1;
     }
-    neighbors.clear();
+    hop2 = null;
+    hop2Hood = null;
+    hop2View = null;
+    hop2HoodView = null;
+    hop2Biomass = null;
 
     /*
       List<Node> nl = new ArrayList<Node>(neighbors);
@@ -612,8 +1697,19 @@ public class HyphaLink implements Linkable, CDProtocol, Cleanable {
     HyphaLink.listeners.remove(l);
   }
 
+  // Install a different listener list, returning the current one
+  static List<HyphaLinkListener> swapListeners(List<HyphaLinkListener> l) {
+    List<HyphaLinkListener> ret = HyphaLink.listeners;
+    HyphaLink.listeners = l;
+    return ret;
+  }
+
   protected void fireLinkAdded(MycoNode neighbor) {
     if (myNode != null) {
+      if (batch != null) {
+        batch.linkAdded(myNode, neighbor);
+        return;
+      }
       for (HyphaLinkListener l : HyphaLink.listeners) {
         l.linkAdded(myNode, neighbor);
       }
@@ -622,12 +1718,40 @@ public class HyphaLink implements Linkable, CDProtocol, Cleanable {
 
   protected void fireLinkRemoved(MycoNode neighbor) {
     if (myNode != null) {
+      if (batch != null) {
+        batch.linkRemoved(myNode, neighbor);
+        return;
+      }
       for (HyphaLinkListener l :HyphaLink.listeners) {
         l.linkRemoved(myNode, neighbor);
       }
     }
   }
 
+  private static void beginBatch() {
+    if (batchDepth++ == 0) {
+      batch = new LinkBatch();
+    }
+  }
+
+  private static void endBatch() {
+    if (--batchDepth > 0) {
+      return;
+    }
+    LinkBatch done = batch;
+    batch = null;
+    if (done.isEmpty()) {
+      return;
+    }
+    for (HyphaLinkListener l : HyphaLink.listeners) {
+      if (l instanceof HyphaLinkBatchListener) {
+        ((HyphaLinkBatchListener) l).linksChanged(done);
+      } else {
+        done.replay(l);
+      }
+    }
+  }
+
   public static void addFailureListener(FailureAnnouncementListener l) {
     HyphaLink.failureListeners.add(l);
   }
@@ -0,0 +1,212 @@
+/* Copyright (c) 2014, Paul L. Snyder <paul@pataprogramming.com>,
+ * Daniel Dubois, Nicolo Calcavecchia.
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option)
+ * Any later version. It may also be redistributed and/or modified under the
+ * terms of the BSD 3-Clause License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+
+
+package fungus;
+
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+// Set of nodes kept in a dense array, with each node's position held
+// in a map so that add, remove and contains are all O(1).  Removal
+// moves the last element into the hole, so iteration order is not
+// stable across removals.  In exchange a uniformly random member (or
+// a random member of a union of such sets) can be drawn in O(1)
+// without copying anything.
+
+public class IndexedNodeSet extends AbstractSet<MycoNode> {
+
+  private MycoNode[] items;
+  private int size;
+  private int modCount;
+  private final Map<MycoNode,Integer> positions;
+
+  public IndexedNodeSet() {
+    this(16);
+  }
+
+  public IndexedNodeSet(int capacity) {
+    items = new MycoNode[Math.max(capacity, 1)];
+    size = 0;
+    positions = new HashMap<MycoNode,Integer>(Math.max(capacity, 1) * 2);
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public boolean contains(Object o) {
+    return positions.containsKey(o);
+  }
+
+  @Override
+  public boolean add(MycoNode n) {
+    if (positions.containsKey(n)) {
+      return false;
+    }
+    if (size == items.length) {
+      items = Arrays.copyOf(items, size * 2);
+    }
+    positions.put(n, size);
+    items[size++] = n;
+    modCount++;
+    return true;
+  }
+
+  @Override
+  public boolean remove(Object o) {
+    Integer pos = positions.remove(o);
+    if (pos == null) {
+      return false;
+    }
+    int i = pos;
+    int last = --size;
+    if (i != last) {
+      items[i] = items[last];
+      positions.put(items[i], i);
+    }
+    items[last] = null;
+    modCount++;
+    return true;
+  }
+
+  @Override
+  public void clear() {
+    Arrays.fill(items, 0, size, null);
+    size = 0;
+    positions.clear();
+    modCount++;
+  }
+
+  public MycoNode get(int i) {
+    if (i < 0 || i >= size) {
+      throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + size);
+    }
+    return items[i];
+  }
+
+  // Position of n in the backing array, or -1
+  public int indexOf(MycoNode n) {
+    Integer pos = positions.get(n);
+    return (pos == null) ? -1 : pos;
+  }
+
+  // Uniformly random member, or null if empty
+  public MycoNode sample(Random r) {
+    if (size == 0) {
+      return null;
+    }
+    return items[r.nextInt(size)];
+  }
+
+  // Uniformly random member of the union of disjoint sets, or null if
+  // they are all empty.  Draws a single random number.
+  public static MycoNode sample(Random r, IndexedNodeSet... sets) {
+    int total = count(sets);
+    if (total == 0) {
+      return null;
+    }
+    int k = r.nextInt(total);
+    for (IndexedNodeSet s : sets) {
+      if (k < s.size) {
+        return s.items[k];
+      }
+      k -= s.size;
+    }
+    return null;
+  }
+
+  // Element i of the union of sets, taken in order
+  public static MycoNode get(int i, IndexedNodeSet... sets) {
+    for (IndexedNodeSet s : sets) {
+      if (i < s.size) {
+        return s.items[i];
+      }
+      i -= s.size;
+    }
+    throw new IndexOutOfBoundsException("Index: " + i);
+  }
+
+  // Position of n in the union of sets, or -1
+  public static int indexOf(MycoNode n, IndexedNodeSet... sets) {
+    int offset = 0;
+    for (IndexedNodeSet s : sets) {
+      int i = s.indexOf(n);
+      if (i >= 0) {
+        return offset + i;
+      }
+      offset += s.size;
+    }
+    return -1;
+  }
+
+  public static int count(IndexedNodeSet... sets) {
+    int total = 0;
+    for (IndexedNodeSet s : sets) {
+      total += s.size;
+    }
+    return total;
+  }
+
+  @Override
+  public Iterator<MycoNode> iterator() {
+    return new Iterator<MycoNode>() {
+      private int next = 0;
+      private int last = -1;
+      private int expected = modCount;
+
+      public boolean hasNext() {
+        return next < size;
+      }
+
+      public MycoNode next() {
+        if (modCount != expected) {
+          throw new ConcurrentModificationException();
+        }
+        if (next >= size) {
+          throw new NoSuchElementException();
+        }
+        last = next++;
+        return items[last];
+      }
+
+      public void remove() {
+        if (last < 0) {
+          throw new IllegalStateException();
+        }
+        if (modCount != expected) {
+          throw new ConcurrentModificationException();
+        }
+        // The last element is swapped into the hole; revisit it
+        IndexedNodeSet.this.remove(items[last]);
+        next = last;
+        last = -1;
+        expected = modCount;
+      }
+    };
+  }
+}
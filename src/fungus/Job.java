@@ -20,6 +20,7 @@
 
 package fungus;
 
+import java.io.IOException;
 import java.util.logging.*;
 
 import peersim.cdsim.CDState;
@@ -51,6 +52,38 @@ public class Job implements Comparable<Job> {
     remaining = workUnits;
   }
 
+  private Job() {
+  }
+
+  void writeState(SnapshotOutput out) throws IOException {
+    out.putInt(id);
+    out.putInt(type);
+    out.putInt(workUnits);
+    out.putInt(remaining);
+    out.putInt(creationTime);
+    out.putInt(timesTransferred);
+    out.putInt(timesRequeued);
+    out.putBoolean(started);
+    out.putBoolean(completed);
+    out.putInt(completionTime);
+  }
+
+  // Rebuild a saved job without drawing a new id
+  static Job readState(SnapshotInput in) {
+    Job ret = new Job();
+    ret.id = in.getInt();
+    ret.type = in.getInt();
+    ret.workUnits = in.getInt();
+    ret.remaining = in.getInt();
+    ret.creationTime = in.getInt();
+    ret.timesTransferred = in.getInt();
+    ret.timesRequeued = in.getInt();
+    ret.started = in.getBoolean();
+    ret.completed = in.getBoolean();
+    ret.completionTime = in.getInt();
+    return ret;
+  }
+
   public void requeue(MycoNode n) {
     timesRequeued++;
     transfer(n);
@@ -20,6 +20,7 @@
 
 package fungus;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
@@ -59,6 +60,22 @@ public class JobController implements Control {
     queue.add(j);
   }
 
+  // Jobs waiting to be requeued go into a snapshot; the statistics
+  // kept here do not
+  static void writeState(SnapshotOutput out) throws IOException {
+    out.putInt(queue.size());
+    for (Job j : queue) {
+      j.writeState(out);
+    }
+  }
+
+  static void readState(SnapshotInput in) {
+    queue.clear();
+    for (int n = in.getInt(); n > 0; n--) {
+      queue.add(Job.readState(in));
+    }
+  }
+
   public boolean execute() {
     while (stats.size() < HyphaData.numTypes) {
       stats.add(new JobStats(stats.size()));
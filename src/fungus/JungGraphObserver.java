@@ -48,7 +48,7 @@ import org.apache.commons.collections15.*;
 import org.apache.commons.collections15.functors.*;
 
 public class JungGraphObserver implements Control, HyphaDataListener,
-                                          HyphaLinkListener {
+                                          HyphaLinkBatchListener {
   private static final String PAR_HYPHADATA_PROTO =
       "network.node.hyphadata_proto";
   private static final String PAR_HYPHALINK_PROTO =
@@ -150,6 +150,20 @@ public class JungGraphObserver implements Control, HyphaDataListener,
     }
   }
 
+  // Apply a bulk change under a single lock of the graph, so the
+  // visualizer never renders it half done
+  public void linksChanged(LinkBatch batch) {
+    synchronized (graph) {
+      for (int i = 0; i < batch.size(); i++) {
+        if (batch.isAdded(i)) {
+          linkAdded(batch.getSource(i), batch.getTarget(i));
+        } else {
+          linkRemoved(batch.getSource(i), batch.getTarget(i));
+        }
+      }
+    }
+  }
+
   public boolean execute() {
     if (CDState.getCycle() % period != 0)
         return false;
@@ -193,8 +207,7 @@ public class JungGraphObserver implements Control, HyphaDataListener,
       synchronized (graph) {
 
         // We now add in all links and tune out display in Visualizer
-        java.util.List<MycoNode> neighbors =
-            (java.util.List<MycoNode>) link.getNeighbors();
+        java.util.List<MycoNode> neighbors = link.neighbors();
 
         //// Adding only links to hypha thins out links to biomass
         //    (java.util.List<MycoNode>) link.getHyphae();
@@ -24,7 +24,6 @@ import java.lang.Math;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import peersim.core.CommonState;
 
 public class KnownFailureParentStrategy extends ParentStrategy {
 
@@ -46,7 +45,7 @@ public class KnownFailureParentStrategy extends ParentStrategy {
       //} else {
       double decayProb = 0.15;
       double decay = 0.15;
-      if (CommonState.r.nextDouble() < decayProb) {
+      if (thisNode.getRandomStream().nextDouble() < decayProb) {
         double newParents = oldParents;
         //newParents = Math.max(1.0, newParents * (1.0 - decay));
         newParents = Math.max(1.0, newParents - 1.0);
@@ -0,0 +1,134 @@
+/* Copyright (c) 2014, Paul L. Snyder <paul@pataprogramming.com>,
+ * Daniel Dubois, Nicolo Calcavecchia.
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option)
+ * Any later version. It may also be redistributed and/or modified under the
+ * terms of the BSD 3-Clause License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+
+
+package fungus;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Net link changes collected while a bulk HyphaLink operation runs.
+// Events are directed (a is the node whose neighbor list changed, b
+// the neighbor), as with HyphaLinkListener.  An edge that is added
+// and then removed again within the batch (or vice versa) cancels
+// out, so listeners only see the net effect, in first-touched order.
+public class LinkBatch {
+
+  private final Map<Edge,Edge> changes = new LinkedHashMap<Edge,Edge>();
+
+  // Lookup key, only stored in the map when its edge is new
+  private Edge probe = new Edge();
+
+  private MycoNode[] sources;
+  private MycoNode[] targets;
+  private boolean[] added;
+
+  // A directed edge, and whether it was added, keyed on the two nodes
+  private static final class Edge {
+    MycoNode a;
+    MycoNode b;
+    boolean added;
+
+    public int hashCode() {
+      return 31 * a.hashCode() + b.hashCode();
+    }
+
+    public boolean equals(Object o) {
+      if (!(o instanceof Edge)) {
+        return false;
+      }
+      Edge e = (Edge) o;
+      return a == e.a && b == e.b;
+    }
+  }
+
+  void linkAdded(MycoNode a, MycoNode b) {
+    record(a, b, true);
+  }
+
+  void linkRemoved(MycoNode a, MycoNode b) {
+    record(a, b, false);
+  }
+
+  private void record(MycoNode a, MycoNode b, boolean add) {
+    probe.a = a;
+    probe.b = b;
+    Edge prev = changes.get(probe);
+    if (prev == null) {
+      probe.added = add;
+      changes.put(probe, probe);
+      probe = new Edge();
+    } else if (prev.added != add) {
+      changes.remove(prev);
+    }
+    sources = null;
+  }
+
+  private void freeze() {
+    if (sources != null) {
+      return;
+    }
+    int n = changes.size();
+    sources = new MycoNode[n];
+    targets = new MycoNode[n];
+    added = new boolean[n];
+    int i = 0;
+    for (Edge e : changes.values()) {
+      sources[i] = e.a;
+      targets[i] = e.b;
+      added[i] = e.added;
+      i++;
+    }
+  }
+
+  public int size() {
+    return changes.size();
+  }
+
+  public boolean isEmpty() {
+    return changes.isEmpty();
+  }
+
+  public MycoNode getSource(int i) {
+    freeze();
+    return sources[i];
+  }
+
+  public MycoNode getTarget(int i) {
+    freeze();
+    return targets[i];
+  }
+
+  public boolean isAdded(int i) {
+    freeze();
+    return added[i];
+  }
+
+  // Hand the batch to a listener edge by edge
+  public void replay(HyphaLinkListener l) {
+    freeze();
+    for (int i = 0; i < sources.length; i++) {
+      if (added[i]) {
+        l.linkAdded(sources[i], targets[i]);
+      } else {
+        l.linkRemoved(sources[i], targets[i]);
+      }
+    }
+  }
+}
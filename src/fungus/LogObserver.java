@@ -26,6 +26,7 @@ import java.util.Arrays;
 import java.util.logging.*;
 import java.lang.reflect.Field;
 
+import peersim.SimulationContext;
 import peersim.core.Control;
 import peersim.config.Configuration;
 
@@ -52,6 +53,20 @@ public class LogObserver implements Control {
       }
     };
 
+  // The "fungus" logger is shared by every simulation in the JVM; when
+  // several run side by side (see SimulationContext), each console
+  // handler only prints the records logged by its own run
+  private static Filter contextFilter(final SimulationContext context,
+                                      final boolean byClass) {
+    return new Filter() {
+      public boolean isLoggable(LogRecord record) {
+        if (SimulationContext.current() != context)
+          return false;
+        return !byClass || classFilter.isLoggable(record);
+      }
+    };
+  }
+
   public LogObserver(String name) {
     this.name = name;
 
@@ -76,9 +91,14 @@ public class LogObserver implements Control {
     console.setLevel(consoleLevel);
     log.setLevel(logLevel);
 
+    SimulationContext context = SimulationContext.current();
+    if (context != null) {
+      console.setFilter(contextFilter(context, classSet.size() > 0));
+    } else if (classSet.size() > 0) {
+      console.setFilter(classFilter);
+    }
     if (classSet.size() > 0) {
       log.info("Only logging events from: " + classSet);
-      console.setFilter(classFilter);
     }
     //this.name = name;
     ///this.pid = Configuration.getPid(name + "." + PAR_PROTO);
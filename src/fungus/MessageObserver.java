@@ -76,26 +76,41 @@ public class MessageObserver implements Control {
   }
 
   public static void gossipMessages(int count) {
+    if (BspOps.deferMessages(BspOps.GOSSIP, count)) {
+      return;
+    }
     gossipCount += count;
     gossipTotal += count;
   }
 
   public static void loadQueryMessages(int count) {
+    if (BspOps.deferMessages(BspOps.LOAD_QUERY, count)) {
+      return;
+    }
     loadQueryCount += count;
     loadQueryTotal += count;
   }
 
   public static void loadActionMessages(int count) {
+    if (BspOps.deferMessages(BspOps.LOAD_ACTION, count)) {
+      return;
+    }
     loadActionCount += count;
     loadActionTotal += count;
   }
 
   public static void topoQueryMessages(int count) {
+    if (BspOps.deferMessages(BspOps.TOPO_QUERY, count)) {
+      return;
+    }
     topoQueryCount += count;
     topoQueryTotal += count;
   }
 
   public static void topoActionMessages(int count) {
+    if (BspOps.deferMessages(BspOps.TOPO_ACTION, count)) {
+      return;
+    }
     topoActionCount += count;
     topoActionTotal += count;
   }
@@ -133,6 +148,43 @@ public class MessageObserver implements Control {
   private static Logger log =
       Logger.getLogger(MessageObserver.class.getName());
 
+  // The counters, so a restored run goes on counting from where the
+  // saved one was
+  static void writeState(SnapshotOutput out) throws IOException {
+    for (long c : counters()) {
+      out.putLong(c);
+    }
+  }
+
+  static void readState(SnapshotInput in) {
+    gossipCurrent = in.getLong();
+    loadQueryCurrent = in.getLong();
+    loadActionCurrent = in.getLong();
+    topoQueryCurrent = in.getLong();
+    topoActionCurrent = in.getLong();
+    gossipCount = in.getLong();
+    loadQueryCount = in.getLong();
+    loadActionCount = in.getLong();
+    topoQueryCount = in.getLong();
+    topoActionCount = in.getLong();
+    gossipTotal = in.getLong();
+    loadQueryTotal = in.getLong();
+    loadActionTotal = in.getLong();
+    topoQueryTotal = in.getLong();
+    topoActionTotal = in.getLong();
+  }
+
+  private static long[] counters() {
+    return new long[] {
+      gossipCurrent, loadQueryCurrent, loadActionCurrent, topoQueryCurrent,
+      topoActionCurrent,
+      gossipCount, loadQueryCount, loadActionCount, topoQueryCount,
+      topoActionCount,
+      gossipTotal, loadQueryTotal, loadActionTotal, topoQueryTotal,
+      topoActionTotal
+    };
+  }
+
 
   public boolean execute() {
     log.info("Message counts (total) - Myco: " + mycoCount()
@@ -20,6 +20,7 @@
 
 package fungus;
 
+import java.io.IOException;
 import java.util.*;
 import java.util.logging.*;
 import peersim.cdsim.*;
@@ -28,7 +29,7 @@ import peersim.config.*;
 
 // Simulated source of random (via gossip) nodes for self-healing
 
-public class MycoCast implements CDProtocol, Cleanable {
+public class MycoCast implements Quiescent, PassiveProtocol, Cleanable {
   private static final String PAR_HYPHADATA_PROTO =
       "network.node.hyphadata_proto";
   private static final String PAR_HYPHALINK_PROTO =
@@ -39,14 +40,46 @@ public class MycoCast implements CDProtocol, Cleanable {
 
   private static Logger log = Logger.getLogger(MycoCast.class.getName());
 
-  protected static Set<MycoNode> biomassNodes;
-  protected static Set<MycoNode> extendingNodes;
-  protected static Set<MycoNode> branchingNodes;
-  protected static Set<MycoNode> immobileNodes;
-  protected static Set<MycoNode> bulwarkNodes;
+  // Index-backed, so membership changes and uniform sampling (from
+  // one state or several) are O(1) and counting never copies
+  protected static IndexedNodeSet biomassNodes;
+  protected static IndexedNodeSet extendingNodes;
+  protected static IndexedNodeSet branchingNodes;
+  protected static IndexedNodeSet immobileNodes;
+  protected static IndexedNodeSet bulwarkNodes;
   protected static Random generator;
 
-  protected static HashMap<HyphaType,Set<MycoNode>> typeMap;
+  protected static HashMap<HyphaType,IndexedNodeSet> typeMap;
+
+  // Hyphae with room for more links, one index per multiplier class
+  // (see HyphaLink.withinCapacity()).  Kept current by
+  // capacityChanged() whenever a node's degree, capacity or state
+  // changes, so picking one is a single random draw.
+  public static final double FORAGING_MULTIPLIER = 1.00;
+  public static final double ATTACHABLE_MULTIPLIER = 1.05;
+
+  protected static List<SpareCapacity> spareClasses;
+  protected static SpareCapacity foragingHyphae;
+  protected static SpareCapacity attachableHyphae;
+
+  protected static class SpareCapacity {
+    final double multiplier;
+    final EnumSet<HyphaType> states;
+    final IndexedNodeSet nodes = new IndexedNodeSet(Network.getCapacity());
+
+    SpareCapacity(double multiplier, EnumSet<HyphaType> states) {
+      this.multiplier = multiplier;
+      this.states = states;
+    }
+
+    void update(MycoNode n, HyphaType state, HyphaLink l) {
+      if (states.contains(state) && l.withinCapacity(n, multiplier)) {
+        nodes.add(n);
+      } else {
+        nodes.remove(n);
+      }
+    }
+  }
 
   protected MycoNode myNode;
 
@@ -55,36 +88,125 @@ public class MycoCast implements CDProtocol, Cleanable {
     hyphadataPid = Configuration.getPid(PAR_HYPHADATA_PROTO);
     hyphalinkPid = Configuration.getPid(PAR_HYPHALINK_PROTO);
     if (generator == null) {
-      MycoCast.generator = CommonState.r;
+      MycoCast.generator = RandomStreams.of(prefix);
     }
     if (biomassNodes == null) {
-      MycoCast.biomassNodes = new HashSet<MycoNode>();
+      MycoCast.biomassNodes = new IndexedNodeSet(Network.getCapacity());
     }
     if (bulwarkNodes == null) {
-      MycoCast.bulwarkNodes = new HashSet<MycoNode>();
+      MycoCast.bulwarkNodes = new IndexedNodeSet(Network.getCapacity());
     }
     if (extendingNodes == null) {
-      MycoCast.extendingNodes = new HashSet<MycoNode>();
+      MycoCast.extendingNodes = new IndexedNodeSet(Network.getCapacity());
     }
     if (branchingNodes == null) {
-      MycoCast.branchingNodes = new HashSet<MycoNode>();
+      MycoCast.branchingNodes = new IndexedNodeSet(Network.getCapacity());
     }
     if (immobileNodes == null) {
-      MycoCast.immobileNodes = new HashSet<MycoNode>();
+      MycoCast.immobileNodes = new IndexedNodeSet(Network.getCapacity());
     }
     if (typeMap == null) {
-      MycoCast.typeMap = new HashMap<HyphaType,Set<MycoNode>>();
+      MycoCast.typeMap = new HashMap<HyphaType,IndexedNodeSet>();
       MycoCast.typeMap.put(HyphaType.BIOMASS, biomassNodes);
       MycoCast.typeMap.put(HyphaType.BULWARK, bulwarkNodes);
       MycoCast.typeMap.put(HyphaType.EXTENDING, extendingNodes);
       MycoCast.typeMap.put(HyphaType.BRANCHING, branchingNodes);
       MycoCast.typeMap.put(HyphaType.IMMOBILE, immobileNodes);
     }
+    if (spareClasses == null) {
+      MycoCast.spareClasses = new ArrayList<SpareCapacity>();
+      MycoCast.foragingHyphae =
+          addSpareCapacityClass(FORAGING_MULTIPLIER,
+                                EnumSet.of(HyphaType.EXTENDING));
+      MycoCast.attachableHyphae =
+          addSpareCapacityClass(ATTACHABLE_MULTIPLIER,
+                                EnumSet.of(HyphaType.IMMOBILE,
+                                           HyphaType.BRANCHING,
+                                           HyphaType.EXTENDING));
+    }
+  }
+
+  // Start tracking nodes in the given states that are within
+  // multiplier times their capacity.  Nodes are picked up as their
+  // degree, capacity or state next changes (or at their next cycle).
+  public static SpareCapacity addSpareCapacityClass(double multiplier,
+                                                    EnumSet<HyphaType> states) {
+    SpareCapacity c = new SpareCapacity(multiplier, states);
+    spareClasses.add(c);
+    return c;
+  }
+
+  // Re-file node n in the spare capacity indices
+  public static void capacityChanged(MycoNode n) {
+    if (spareClasses == null) {
+      return;
+    }
+    if (n.getFailState() == Fallible.DEAD) {
+      // Links are still being torn down from under a killed node
+      for (SpareCapacity c : spareClasses) {
+        c.nodes.remove(n);
+      }
+      return;
+    }
+    HyphaType state = n.getHyphaData().getState();
+    HyphaLink l = n.getHyphaLink();
+    for (SpareCapacity c : spareClasses) {
+      c.update(n, state, l);
+    }
+  }
+
+  // Registry contents are written in their current order, since
+  // sampling from them is by position
+  static void writeState(SnapshotOutput out) throws IOException {
+    out.putNodes(biomassNodes);
+    out.putNodes(bulwarkNodes);
+    out.putNodes(extendingNodes);
+    out.putNodes(branchingNodes);
+    out.putNodes(immobileNodes);
+    out.putInt(spareClasses.size());
+    for (SpareCapacity c : spareClasses) {
+      out.putNodes(c.nodes);
+    }
+  }
+
+  static void readState(SnapshotInput in) {
+    IndexedNodeSet[] sets = { biomassNodes, bulwarkNodes, extendingNodes,
+                              branchingNodes, immobileNodes };
+    for (IndexedNodeSet s : sets) {
+      s.clear();
+      in.getNodes(s);
+    }
+    int n = in.getInt();
+    if (n != spareClasses.size()) {
+      throw new IllegalStateException("Snapshot has " + n
+                                      + " spare capacity classes, not "
+                                      + spareClasses.size());
+    }
+    for (SpareCapacity c : spareClasses) {
+      c.nodes.clear();
+      in.getNodes(c.nodes);
+    }
+  }
+
+  // Under BspNextCycle's decide phase, draws come from the deciding
+  // node's own stream (see BspOps.random())
+  private static Random rng() {
+    return BspOps.random(generator);
+  }
+
+  public static MycoNode pickSpare(SpareCapacity c) {
+    return c.nodes.sample(rng());
+  }
+
+  public static int countSpare(SpareCapacity c) {
+    return c.nodes.size();
   }
 
   public void nextCycle(Node node, int pid) {
     myNode = (MycoNode) node;
     verify(myNode, myNode.getHyphaData().getState());
+    capacityChanged(myNode);
+    TypeRegistry.refile(myNode);
     /*Set<MycoNode> s = new HashSet<MycoNode>(getAllNodes());
       for (int i = 0; i < Network.size(); i++) {
       s.remove(Network.get(i));
@@ -96,6 +218,16 @@ public class MycoCast implements CDProtocol, Cleanable {
     //        return false;
   }
 
+  // The registries are kept current by become(), kill() and the
+  // capacity hooks; nextCycle() only re-checks them
+  public boolean isQuiescent(Node node) {
+    return true;
+  }
+
+  public void bind(MycoNode node) {
+    myNode = node;
+  }
+
   public static void ensureBiomass(MycoNode node) {
     verify(node, HyphaType.BIOMASS);
   }
@@ -168,6 +300,19 @@ public class MycoCast implements CDProtocol, Cleanable {
     return MycoCast.immobileNodes.size();
   }
 
+  public static int countHyphae() {
+    return IndexedNodeSet.count(immobileNodes, branchingNodes,
+                                extendingNodes);
+  }
+
+  public static int countNonBiomass() {
+    return countHyphae() + bulwarkNodes.size();
+  }
+
+  public static int countAll() {
+    return countNonBiomass() + biomassNodes.size();
+  }
+
   public static void kill(MycoNode n) {
     log.log(Level.FINER, "KILLING " + n, n);
     MycoCast.biomassNodes.remove(n);
@@ -175,20 +320,50 @@ public class MycoCast implements CDProtocol, Cleanable {
     MycoCast.extendingNodes.remove(n);
     MycoCast.branchingNodes.remove(n);
     MycoCast.immobileNodes.remove(n);
+    if (spareClasses != null) {
+      for (SpareCapacity c : spareClasses) {
+        c.nodes.remove(n);
+      }
+    }
+  }
+
+  // Forget every node at once, when the whole network is replaced
+  static void clear() {
+    if (biomassNodes == null) {
+      return;
+    }
+    biomassNodes.clear();
+    bulwarkNodes.clear();
+    extendingNodes.clear();
+    branchingNodes.clear();
+    immobileNodes.clear();
+    for (SpareCapacity c : spareClasses) {
+      c.nodes.clear();
+    }
   }
 
   public static MycoNode pickFrom(Collection<MycoNode> c) {
-    int n = generator.nextInt(c.size());
-    MycoNode ret = null;
+    if (c.isEmpty()) {
+      return null;
+    }
+    if (c instanceof IndexedNodeSet) {
+      return ((IndexedNodeSet) c).sample(rng());
+    }
+    int n = rng().nextInt(c.size());
+    if (c instanceof List) {
+      return ((List<MycoNode>) c).get(n);
+    }
     Iterator<MycoNode> it = c.iterator();
     for (int i = 0; i < n; i++) {
-      ret = it.next();
+      it.next();
     }
-    return ret;
+    return it.next();
   }
 
   public static MycoNode pickRandomNode() {
-    return pickFrom(getAllNodes());
+    return IndexedNodeSet.sample(rng(), biomassNodes, bulwarkNodes,
+                                 immobileNodes, branchingNodes,
+                                 extendingNodes);
   }
 
   public static MycoNode pickImmobileNode() {
@@ -203,13 +378,78 @@ public class MycoCast implements CDProtocol, Cleanable {
     return pickFrom(MycoCast.extendingNodes);
   }
 
+  public static MycoNode pickHypha() {
+    return IndexedNodeSet.sample(rng(), immobileNodes, branchingNodes,
+                                 extendingNodes);
+  }
+
+  public static MycoList sampleHyphae(int k, Collection<MycoNode> exclude) {
+    return sample(k, -1, exclude, HyphaType.IMMOBILE, HyphaType.BRANCHING,
+                  HyphaType.EXTENDING);
+  }
+
+  // Draw up to k distinct nodes uniformly at random from the given
+  // states (and, if type is not negative, of that service type),
+  // never returning anything in exclude.  Runs a partial
+  // Fisher-Yates shuffle over the union of the state sets, storing
+  // only displaced positions; excluded members are first remapped out
+  // of the range being drawn from, so no draw is ever rejected for
+  // them.  Costs O(k + |exclude|) expected without a type; with one,
+  // nodes of other types are skipped as they come up.
+  public static MycoList sample(int k, int type, Collection<MycoNode> exclude,
+                                HyphaType... states) {
+    List<IndexedNodeSet> found = new ArrayList<IndexedNodeSet>();
+    for (HyphaType t : states) {
+      if (typeMap.containsKey(t)) {
+        found.add(typeMap.get(t));
+      }
+    }
+    IndexedNodeSet[] sets = found.toArray(new IndexedNodeSet[found.size()]);
+    int total = IndexedNodeSet.count(sets);
+
+    Set<Integer> out = new HashSet<Integer>();
+    for (MycoNode x : exclude) {
+      int g = IndexedNodeSet.indexOf(x, sets);
+      if (g >= 0) {
+        out.add(g);
+      }
+    }
+    int m = total - out.size();
+    // Excluded positions below m stand in for the kept ones above it
+    Map<Integer,Integer> remap = new HashMap<Integer,Integer>();
+    int hi = m;
+    for (int g : out) {
+      if (g < m) {
+        while (out.contains(hi)) {
+          hi++;
+        }
+        remap.put(g, hi++);
+      }
+    }
+
+    MycoList ret = new MycoList();
+    Map<Integer,Integer> swaps = new HashMap<Integer,Integer>();
+    for (int i = 0; i < m && ret.size() < k; i++) {
+      int j = i + rng().nextInt(m - i);
+      Integer atJ = swaps.get(j);
+      Integer atI = swaps.get(i);
+      int pick = (atJ == null) ? j : atJ;
+      swaps.put(j, (atI == null) ? i : atI);
+      Integer r = remap.get(pick);
+      MycoNode n = IndexedNodeSet.get((r == null) ? pick : r, sets);
+      if (type < 0 || n.getHyphaData().getType() == type) {
+        ret.add(n);
+      }
+    }
+    return ret;
+  }
+
   public static MycoNode getStableHypha() {
-    int n;
     MycoNode ret = null;
-    Collection<MycoNode> all = getAllNonBiomass();
-    if (!all.isEmpty()) {
+    if (countNonBiomass() > 0) {
       log.finest("SEARCHING FOR A HYPHA");
-      ret = pickFrom(all);
+      ret = IndexedNodeSet.sample(rng(), immobileNodes, branchingNodes,
+                                  extendingNodes, bulwarkNodes);
     }
     if (ret != null) {
       log.finest("FOUND STABLE NODE " + ret.getID());
@@ -245,9 +485,9 @@ public class MycoCast implements CDProtocol, Cleanable {
     }*/
 
   public static void verify(MycoNode node, HyphaType type) {
-    Set<MycoNode> properSet = typeMap.get(type);
+    IndexedNodeSet properSet = typeMap.get(type);
 
-    if (! properSet.contains(node)) {
+    if (properSet == null || !properSet.contains(node)) {
       log.log(Level.FINE, node.getID() + " not properly registered as " +
               type);
       become(node,type);
@@ -265,6 +505,7 @@ public class MycoCast implements CDProtocol, Cleanable {
         typeMap.get(bucket).remove(node);
       }
     }
+    capacityChanged(node);
 
     // if (type == HyphaType.BIOMASS) {
     //     MycoCast.biomassNodes.add(node);
@@ -326,13 +567,11 @@ public class MycoCast implements CDProtocol, Cleanable {
     //   }
     // }
     // return ret;
-    return getAttachableFrom(new MycoList(MycoCast.extendingNodes), 1.00);
+    return pickSpare(foragingHyphae);
   }
 
   public static MycoNode getAttachableHypha() {
-    MycoList hyphae = getAllHyphae();
-
-    return getAttachableFrom(hyphae, 1.05);
+    return pickSpare(attachableHyphae);
   }
 
   public static MycoNode getAttachableFrom(ArrayList<MycoNode> c,
@@ -342,7 +581,7 @@ public class MycoCast implements CDProtocol, Cleanable {
     MycoNode ret = null;
     HyphaLink l;
 
-    Collections.shuffle(c, CommonState.r);
+    Collections.shuffle(c, rng());
 
     for (int i = 0; i < c.size(); i++) {
       node = c.get(i);
@@ -133,7 +133,7 @@ public class MycoGraph extends DirectedSparseGraph<MycoNode,MycoEdge> {
       }
       current = queue.remove();
       workingComponent.add(current);
-      for (MycoNode neighbor : current.getHyphaLink().getNeighbors()) {
+      for (MycoNode neighbor : current.getHyphaLink().neighbors()) {
         if (unseen.contains(neighbor)) {
           queue.offer(neighbor);
           unseen.remove(neighbor);
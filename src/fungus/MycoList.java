@@ -44,18 +44,26 @@ public class MycoList extends ArrayList<MycoNode> {
   }
 
   public MycoNode getRandom() {
+    return getRandom(CommonState.r);
+  }
+
+  public MycoNode getRandom(Random r) {
     if (this.size() == 0) {
       return null;
     }
-    return get(CommonState.r.nextInt(this.size()));
+    return get(r.nextInt(this.size()));
   }
 
   public MycoNode getRandomOfType(int t) {
+    return getRandomOfType(t, CommonState.r);
+  }
+
+  public MycoNode getRandomOfType(int t, Random r) {
     MycoList ts = getType(t);
     if (ts.isEmpty()) {
       return null;
     }
-    return ts.get(CommonState.r.nextInt(ts.size()));
+    return ts.get(r.nextInt(ts.size()));
   }
 
   public MycoList duplicate() {
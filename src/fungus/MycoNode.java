@@ -20,6 +20,9 @@
 
 package fungus;
 
+import java.io.IOException;
+import java.util.Random;
+
 import peersim.core.Node;
 import peersim.core.GeneralNode;
 import peersim.config.Configuration;
@@ -42,6 +45,8 @@ public class MycoNode extends GeneralNode implements Node, Comparable {
   //private static int failureAlerterPid;
   //private static int chemicalManagerPid;
 
+  private Random random;
+
   public MycoNode(String prefix) {
     super(prefix);
     mycoCastPid = Configuration.getPid(prefix + "." + PAR_MYCOCAST_PROTO);
@@ -55,6 +60,56 @@ public class MycoNode extends GeneralNode implements Node, Comparable {
     //    Configuration.getPid(prefix + "." + PAR_CHEMICALMANAGER_PROTO);
   }
 
+  public Object clone() {
+    MycoNode ret = (MycoNode) super.clone();
+    ret.random = null;
+    for (int k = 0; k < ret.protocolSize(); k++) {
+      if (ret.getProtocol(k) instanceof PassiveProtocol) {
+        ((PassiveProtocol) ret.getProtocol(k)).bind(ret);
+      }
+    }
+    return ret;
+  }
+
+  // The generator this node's protocols should draw from; see
+  // RandomStreams
+  public Random getRandomStream() {
+    if (random == null) {
+      random = RandomStreams.create(this);
+    }
+    return random;
+  }
+
+  // Node-level part of a snapshot: ID, fail state and, with
+  // random.streams, the node's own stream.  The ID is restored before
+  // the node goes into any hashed collection.
+  void writeState(SnapshotOutput out) throws IOException {
+    out.putLong(getID());
+    out.putInt(getFailState());
+    boolean own = RandomStreams.isSplit() && random != null;
+    out.putBoolean(own);
+    if (own) {
+      out.putRandom(random);
+    }
+  }
+
+  void readState(SnapshotInput in) {
+    setID(in.getLong());
+    failstate = in.getInt();
+    random = null;
+    if (in.getBoolean()) {
+      in.getRandom(getRandomStream());
+    }
+  }
+
+  static long getNextID() {
+    return peekNextID();
+  }
+
+  static void restoreNextID(long id) {
+    setNextID(id);
+  }
+
   public MycoCast getMycoCast() {
     return (MycoCast) this.getProtocol(mycoCastPid);
   }
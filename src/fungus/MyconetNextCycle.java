@@ -0,0 +1,85 @@
+/* Copyright (c) 2014, Paul L. Snyder <paul@pataprogramming.com>,
+ * Daniel Dubois, Nicolo Calcavecchia.
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option)
+ * Any later version. It may also be redistributed and/or modified under the
+ * terms of the BSD 3-Clause License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+
+
+package fungus;
+
+import java.util.logging.Logger;
+
+import peersim.cdsim.CDState;
+import peersim.cdsim.FullNextCycle;
+import peersim.core.Network;
+import peersim.core.Node;
+
+// Drop-in replacement for the default cycle driver that runs each
+// node through a CycleDispatch table, skipping PassiveProtocols and
+// fusing HyphaLink with FungalGrowth.  Use it by setting
+// simulation.nodefaultcycle and adding it after every other control:
+//
+//   control.cycle fungus.MyconetNextCycle
+//
+// Nodes are visited in the same order as by FullNextCycle, so a fixed
+// seed gives the same run.  getpair is not supported.
+
+public class MyconetNextCycle extends FullNextCycle {
+  private static Logger log =
+      Logger.getLogger(MyconetNextCycle.class.getName());
+
+  protected final CycleDispatch dispatch;
+
+  public MyconetNextCycle(String prefix) {
+    super(prefix);
+    dispatch = new CycleDispatch(protSchedules, true);
+    if (getpair_rand) {
+      log.warning("getpair is ignored by " + getClass().getSimpleName());
+    }
+  }
+
+  public boolean execute() {
+    final int cycle = CDState.getCycle();
+    if (shuffle) {
+      rperm.reset(Network.size());
+    }
+    for (int j = 0; j < Network.size(); j++) {
+      Node node;
+      if (shuffle) {
+        node = Network.get(rperm.next());
+      } else {
+        node = Network.get(j);
+      }
+      if (!node.isUp() || skip(node)) {
+        continue;
+      }
+      CDState.setNode(node);
+      CDState.setCycleT(j);
+      dispatch.run(node, cycle);
+      ran(node);
+    }
+    return false;
+  }
+
+  // Subclasses may pass over nodes that are up
+  protected boolean skip(Node node) {
+    return false;
+  }
+
+  // Called after node's protocols have run
+  protected void ran(Node node) {
+  }
+}
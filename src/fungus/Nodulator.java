@@ -47,6 +47,7 @@ public class Nodulator extends DynamicNetwork {
   private static Logger log = Logger.getLogger(Nodulator.class.getName());
 
   protected static Poisson gen;
+  protected Random random;
   protected MycoList candidates;
 
   public Nodulator(String prefix) {
@@ -56,10 +57,11 @@ public class Nodulator extends DynamicNetwork {
     type = Configuration.getString(prefix + "." + PAR_TYPE);
     period = Configuration.getInt(prefix + "." + PAR_PERIOD);
     poisson = Configuration.getBoolean(prefix + "." + PAR_POISSON);
+    random = RandomStreams.of(prefix);
 
     if (poisson) {
       if (gen == null) {
-        gen = new Poisson(1.0, new cern.jet.random.engine.MersenneTwister(CommonState.r.nextInt(Integer.MAX_VALUE)));
+        gen = new Poisson(1.0, new cern.jet.random.engine.MersenneTwister(random.nextInt(Integer.MAX_VALUE)));
       }
     }
 
@@ -91,7 +93,7 @@ public class Nodulator extends DynamicNetwork {
     if (type.equals("largest")) {
       Collections.sort(candidates, degreeComparator);
     } else {
-      Collections.shuffle(candidates);
+      Collections.shuffle(candidates, random);
     }
 
     log.finer("CHECKING WHETHER TO SHRINK OR EXPAND SET OF " +
@@ -24,7 +24,6 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import peersim.config.Configuration;
-import peersim.core.CommonState;
 
 public class OldMyconetStrategy extends DynamicsStrategy {
 
@@ -51,7 +50,7 @@ public class OldMyconetStrategy extends DynamicsStrategy {
 
     mycoCast.ensureBiomass(node);
 
-    if (link.isDisconnected() || link.getHyphae().isEmpty()) {
+    if (link.isDisconnected() || link.hyphaDegree() == 0) {
       log.finer(node + " IS DISCONNECTED");
       MycoNode hyphaNode = mycoCast.getForagingHypha();
       if (hyphaNode == null) {
@@ -196,7 +195,7 @@ public class OldMyconetStrategy extends DynamicsStrategy {
   public void doExtending(MycoNode node, HyphaData data, HyphaLink link) {
     //System.out.println("Do Extending");
     MycoList hyphae = link.getHyphae();
-    java.util.Collections.shuffle(hyphae);
+    java.util.Collections.shuffle(hyphae, node.getRandomStream());
 
     int branchingCount = 0;
     int immobileCount = 0;
@@ -262,7 +261,7 @@ public class OldMyconetStrategy extends DynamicsStrategy {
 
   public void doBranching(MycoNode node, HyphaData data, HyphaLink link) {
     MycoList hyphae = link.getHyphae();
-    java.util.Collections.shuffle(hyphae);
+    java.util.Collections.shuffle(hyphae, node.getRandomStream());
     int extendingCount = 0;
     int immobileCount = 0;
 
@@ -360,7 +359,7 @@ public class OldMyconetStrategy extends DynamicsStrategy {
   public void doImmobile(MycoNode node, HyphaData data, HyphaLink link) {
     // log.fine("IMMOBILE NODE CAPACITY " + myNode);
     MycoList hyphae = link.getHyphae();
-    java.util.Collections.shuffle(hyphae);
+    java.util.Collections.shuffle(hyphae, node.getRandomStream());
     int extendingCount = 0;
     int branchingCount = 0;
     int immobileCount = 0;
@@ -421,7 +420,7 @@ public class OldMyconetStrategy extends DynamicsStrategy {
     }
 
     // Shake things up by sometimes randomly connecting to a new hypha
-    if (CommonState.r.nextDouble() < spawnProb) {
+    if (node.getRandomStream().nextDouble() < spawnProb) {
       MycoCast myco = node.getMycoCast();
       MycoNode stable = myco.getStableHypha();
       if (stable != null) {
@@ -513,7 +512,7 @@ public class OldMyconetStrategy extends DynamicsStrategy {
         candidates = link.getHyphae();
       }
 
-      int nnum = CommonState.r.nextInt(candidates.size());
+      int nnum = node.getRandomStream().nextInt(candidates.size());
       MycoNode o = candidates.get(nnum);
       log.finer(node + " SEVERING HYPHA TO " + o);
       link.removeNeighbor(o);
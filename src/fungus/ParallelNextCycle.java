@@ -0,0 +1,233 @@
+/* Copyright (c) 2014, Paul L. Snyder <paul@pataprogramming.com>,
+ * Daniel Dubois, Nicolo Calcavecchia.
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option)
+ * Any later version. It may also be redistributed and/or modified under the
+ * terms of the BSD 3-Clause License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+
+
+package fungus;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import peersim.cdsim.CDState;
+import peersim.config.Configuration;
+import peersim.core.Network;
+
+// Opt-in replacement for the default cycle driver that decides
+// FungalGrowth's strategies on many nodes at once.  Use it by setting
+// simulation.nodefaultcycle and adding it after every other control,
+// e.g.
+//
+//   control.cycle fungus.ParallelNextCycle
+//   control.cycle.threads 32
+//
+// It runs the cycle as BspNextCycle does, except for the growth phase:
+// the live nodes are split into color classes of a greedy distance-2
+// coloring of the HyphaLink overlay, and the classes go one after
+// another.  For each class, FungalGrowth prepares its nodes, their
+// strategies decide in parallel on a ForkJoinPool with their overlay
+// changes deferred (see BspOps), and the changes are committed in ID
+// order before the next class starts.
+//
+// The coloring is kept from cycle to cycle and only recomputed every
+// recolor cycles, but it only orders the work.  Just before a class
+// runs it is checked against the overlay as it stands then, after the
+// classes before it committed: taking its nodes in ID order, a node
+// within two hops of one already taken is deferred to a later class
+// whose color is free within two hops of it, and recolored for the
+// cycles after with the lowest color free within two hops.  The nodes
+// that decide together therefore never share a neighbor, however stale
+// the coloring.
+//
+// This differs from the default driver in the same way for any thread
+// count.  There, nodes run one at a time in Shuffle's order and each
+// sees everything the nodes before it did.  Here the order is by class
+// and then ID; a class sees everything the classes before it did, but
+// its own nodes decide against the same state, so none sees another's
+// change in that cycle.  A decision can still reach beyond two hops
+// (an attach to a hypha met through MycoCast, say); if what it was
+// decided on no longer holds when it is committed it is dropped as a
+// conflict, as under BspNextCycle, where the default driver would have
+// decided again on the changed state.
+//
+// Nodes are colored and run in ID order, so with random.streams set a
+// fixed seed reproduces a run for any thread count and with or without
+// Shuffle.  The strategy map must be deferrable, as for BspNextCycle.
+
+public class ParallelNextCycle extends BspNextCycle {
+  private static final String PAR_RECOLOR = "recolor";
+
+  private static Logger log =
+      Logger.getLogger(ParallelNextCycle.class.getName());
+
+  private final int recolor;
+
+  // Color of every node colored since the last recoloring
+  private final Map<MycoNode,Integer> colors =
+      new HashMap<MycoNode,Integer>();
+  private int coloredAt = -1;
+
+  // Nodes taken into the class about to run, and their neighbors
+  private final Set<MycoNode> covered = new HashSet<MycoNode>();
+
+  // Scratch space for coloring a node, indexed by color
+  private int[] seen = new int[0];
+  private int stamp = 0;
+
+  public ParallelNextCycle(String prefix) {
+    super(prefix, Runtime.getRuntime().availableProcessors());
+    recolor = Math.max(1, Configuration.getInt(prefix + "." + PAR_RECOLOR,
+                                               10));
+  }
+
+  protected void runGrowth(int pid) {
+    int cycle = CDState.getCycle();
+    if (coloredAt < 0 || cycle - coloredAt >= recolor) {
+      colors.clear();
+      coloredAt = cycle;
+    }
+
+    List<MycoNode> nodes = new ArrayList<MycoNode>(Network.size());
+    for (int j = 0; j < Network.size(); j++) {
+      if (Network.get(j).isUp()) {
+        nodes.add((MycoNode) Network.get(j));
+      }
+    }
+    Collections.sort(nodes, byID);
+    List<List<MycoNode>> classes = new ArrayList<List<MycoNode>>();
+    for (MycoNode node : nodes) {
+      int c = colorOf(node);
+      while (classes.size() <= c) {
+        classes.add(new ArrayList<MycoNode>());
+      }
+      classes.get(c).add(node);
+    }
+
+    BspOps.resetCounts();
+    int deferred = 0;
+    for (int c = 0; c < classes.size(); c++) {
+      List<MycoNode> batch = new ArrayList<MycoNode>();
+      List<MycoNode> later = new ArrayList<MycoNode>();
+      covered.clear();
+      Collections.sort(classes.get(c), byID);
+      for (MycoNode node : classes.get(c)) {
+        if (!node.isUp()) {
+          continue;
+        }
+        if (nearTaken(node)) {
+          later.add(node);
+        } else {
+          batch.add(node);
+          take(node);
+        }
+      }
+      deferred += later.size();
+      for (MycoNode node : later) {
+        int d = recolor(node, c + 1);
+        while (classes.size() <= d) {
+          classes.add(new ArrayList<MycoNode>());
+        }
+        classes.get(d).add(node);
+      }
+      if (batch.isEmpty()) {
+        continue;
+      }
+      prepareAll(batch, pid);
+      commitAll(batch, decideAll(batch, pid));
+    }
+    log.log(Level.FINE, "Cycle " + cycle + ": " + classes.size()
+            + " color classes, " + deferred + " nodes deferred, "
+            + BspOps.appliedCount() + " operations applied, "
+            + BspOps.conflictCount() + " conflicts");
+  }
+
+  // Whether a node taken into the current class is within two hops:
+  // the node itself or one of its neighbors is covered
+  private boolean nearTaken(MycoNode node) {
+    if (covered.contains(node)) {
+      return true;
+    }
+    for (MycoNode u : node.getHyphaLink().neighbors()) {
+      if (covered.contains(u)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  // Cover a node taken into the current class and its neighbors
+  private void take(MycoNode node) {
+    covered.add(node);
+    for (MycoNode u : node.getHyphaLink().neighbors()) {
+      covered.add(u);
+    }
+  }
+
+  // The node's color, picking the lowest one not taken within two hops
+  // if it has none yet
+  private int colorOf(MycoNode node) {
+    Integer c = colors.get(node);
+    if (c != null) {
+      return c;
+    }
+    return recolor(node, 0);
+  }
+
+  // Give the node the lowest color not taken within two hops, and
+  // return the lowest such color from floor up
+  private int recolor(MycoNode node, int floor) {
+    stamp++;
+    for (MycoNode u : node.getHyphaLink().neighbors()) {
+      mark(u);
+      for (MycoNode w : u.getHyphaLink().neighbors()) {
+        if (w != node) {
+          mark(w);
+        }
+      }
+    }
+    int low = free(0);
+    colors.put(node, low);
+    return (low >= floor) ? low : free(floor);
+  }
+
+  // The lowest color from c up not marked since the last stamp
+  private int free(int c) {
+    while (c < seen.length && seen[c] == stamp) {
+      c++;
+    }
+    return c;
+  }
+
+  private void mark(MycoNode n) {
+    Integer c = colors.get(n);
+    if (c == null) {
+      return;
+    }
+    if (c >= seen.length) {
+      seen = Arrays.copyOf(seen, Math.max(c + 1, seen.length * 2));
+    }
+    seen[c] = stamp;
+  }
+}
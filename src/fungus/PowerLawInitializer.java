@@ -50,7 +50,7 @@ public class PowerLawInitializer implements Control, NodeInitializer {
     max = Configuration.getDouble(name + "." + PAR_MAX);
     intmax = (new Double(max).intValue());
     this.generator =
-        new cern.jet.random.engine.MersenneTwister(CommonState.r.nextInt(Integer.MAX_VALUE));
+        new cern.jet.random.engine.MersenneTwister(RandomStreams.of(name).nextInt(Integer.MAX_VALUE));
   }
 
   public static double nextPowLaw(double alpha, double max) {
@@ -64,6 +64,7 @@ public class PowerLawInitializer implements Control, NodeInitializer {
 
   public static void initialize(MycoNode n) {
     n.getHyphaData().setMax(nextPowInt());
+    TypeRegistry.refile(n);
   }
 
   public void initialize(Node n) {
@@ -74,6 +75,28 @@ public class PowerLawInitializer implements Control, NodeInitializer {
     MycoNode n;
     HyphaData d;
 
+    if (Network.isChunked()) {
+      // Draw the capacities chunk by chunk, each from its own engine,
+      // then file them in TypeRegistry one at a time
+      final int[] caps = new int[Network.size()];
+      Network.initializeRanges(new RangeInitializer() {
+          public void initializeRange(int from, int to, int chunk) {
+            RandomEngine g = new MersenneTwister(
+                RandomStreams.forChunk(name, chunk).nextInt(Integer.MAX_VALUE));
+            for (int i = Math.max(from, 1); i < to; i++) {
+              caps[i] = intmax - (int) cern.jet.random.Distributions
+                  .nextPowLaw(alpha, max, g);
+            }
+          }
+        });
+      for (int i = 1; i < Network.size(); i++) {
+        n = (MycoNode) Network.get(i);
+        n.getHyphaData().setMax(caps[i]);
+        TypeRegistry.refile(n);
+      }
+      return false;
+    }
+
     for (int i = 1; i < Network.size(); i++) {
       n = (MycoNode) Network.get(i);
       initialize(n);
@@ -21,10 +21,10 @@
 package fungus;
 
 import peersim.core.Control;
-import peersim.core.CommonState;
 import peersim.core.Network;
 import peersim.config.Configuration;
 
+import java.util.Random;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -38,15 +38,18 @@ public class RandomChemicalGenerator implements Control {
   private static int count = 4;
   private static double magnitude = 100.0;
 
+  private Random random;
+
   private static Logger log =
       Logger.getLogger(RandomChemicalGenerator.class.getName());
 
   public RandomChemicalGenerator(String prefix) {
     chemicalManagerPid = Configuration.getPid(PAR_CHEMICALMANAGER_PROTO);
+    random = RandomStreams.of(prefix);
   }
 
   public MycoNode pickRandomNode() {
-    return (MycoNode) Network.get(CommonState.r.nextInt(Network.size()));
+    return (MycoNode) Network.get(random.nextInt(Network.size()));
   }
 
   public boolean execute() {
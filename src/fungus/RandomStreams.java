@@ -0,0 +1,121 @@
+/* Copyright (c) 2014, Paul L. Snyder <paul@pataprogramming.com>,
+ * Daniel Dubois, Nicolo Calcavecchia.
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option)
+ * Any later version. It may also be redistributed and/or modified under the
+ * terms of the BSD 3-Clause License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+
+
+package fungus;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import peersim.config.Configuration;
+import peersim.core.CommonState;
+import peersim.core.Node;
+
+// Hands out the random generator each node and each control should
+// draw from.  By default every stream is CommonState.r, so runs match
+// those made before streams existed.  With the flag
+//
+//   random.streams
+//
+// each node and each named component instead gets its own
+// XoshiroRandom, seeded from random.seed and the node's ID (or the
+// component's configuration prefix).  A node's draws then depend only
+// on the order of its own calls, never on which other nodes ran in
+// between or on which thread, so ParallelNextCycle reproduces a run
+// for any thread count.
+
+public class RandomStreams {
+  private static final String PAR_STREAMS = "random.streams";
+
+  private static final boolean split = Configuration.contains(PAR_STREAMS);
+
+  private static long base;
+  private static Map<String,XoshiroRandom> named =
+      new HashMap<String,XoshiroRandom>();
+
+  public static boolean isSplit() {
+    return split;
+  }
+
+  // Stream for the component configured under prefix
+  public static Random of(String prefix) {
+    if (!split) {
+      return CommonState.r;
+    }
+    refresh();
+    XoshiroRandom ret = named.get(prefix);
+    if (ret == null) {
+      ret = new XoshiroRandom(XoshiroRandom.mix(base ^ prefix.hashCode()));
+      named.put(prefix, ret);
+    }
+    return ret;
+  }
+
+  // Named streams handed out so far, with their states
+  static void writeState(SnapshotOutput out) throws IOException {
+    out.putInt(named.size());
+    for (Map.Entry<String,XoshiroRandom> e : named.entrySet()) {
+      out.putString(e.getKey());
+      out.putRandom(e.getValue());
+    }
+  }
+
+  // Streams are restored in place, since components keep the one
+  // of() handed them at construction
+  static void readState(SnapshotInput in) {
+    for (int n = in.getInt(); n > 0; n--) {
+      String prefix = in.getString();
+      in.getRandom(of(prefix));
+    }
+  }
+
+  // A fresh stream for one chunk of a RangeInitializer run under
+  // network.initThreads.  Independent of random.streams: the chunks
+  // may run on any thread, so none of them can draw from CommonState.r
+  public static Random forChunk(String prefix, int chunk) {
+    return new XoshiroRandom(XoshiroRandom.mix((seedBase() ^ prefix.hashCode())
+                                               + chunk * 0x9e3779b97f4a7c15L));
+  }
+
+  // Stream for a node's protocols, handed out once through
+  // MycoNode.getRandomStream()
+  static Random create(Node n) {
+    if (!split) {
+      return CommonState.r;
+    }
+    return new XoshiroRandom(XoshiroRandom.mix(seedBase()
+                                               + n.getID()
+                                               * 0x9e3779b97f4a7c15L));
+  }
+
+  private static long seedBase() {
+    return XoshiroRandom.mix(CommonState.r.getLastSeed());
+  }
+
+  // Named streams restart when the global seed is reset
+  private static void refresh() {
+    long b = seedBase();
+    if (named.isEmpty() || b != base) {
+      named.clear();
+      base = b;
+    }
+  }
+}
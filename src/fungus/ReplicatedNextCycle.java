@@ -0,0 +1,192 @@
+/* Copyright (c) 2014, Paul L. Snyder <paul@pataprogramming.com>,
+ * Daniel Dubois, Nicolo Calcavecchia.
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option)
+ * Any later version. It may also be redistributed and/or modified under the
+ * terms of the BSD 3-Clause License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+
+
+package fungus;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import peersim.cdsim.CDState;
+import peersim.config.IllegalParameterException;
+import peersim.core.Network;
+import peersim.rangesim.ReplicaChannel;
+
+// BspNextCycle with its decide phase split over the replica processes
+// of a peersim.rangesim.ReplicaSimulator run, e.g.
+//
+//   control.cycle fungus.ReplicatedNextCycle
+//   control.cycle.threads 4
+//
+//   java peersim.rangesim.ReplicaSimulator config.txt replica.count=8
+//
+// Every process holds the whole overlay, so each needs as much heap as
+// a run in one process, and only the CPU time of the decide phase is
+// divided.  This is not a partitioned engine: splitting the overlay by
+// ID range, with ghost copies of the nodes across the boundary, is not
+// implemented.
+//
+// Every replica runs everything but the decide phase exactly as
+// BspNextCycle does.  A replica decides only for the nodes whose ID is
+// its index modulo the replica count (on threads threads), and at the
+// end of the decide phase sends their buffers through the coordinator
+// to all the others, together with the random stream state the
+// decisions left behind.  Each replica then commits all buffers in ID
+// order, so the replicas stay identical and produce the same result as
+// BspNextCycle in one process.  The coordinator checks a digest of
+// every replica (the live nodes' IDs, states and degrees) at each
+// cycle.
+//
+// random.streams must be set, since a node's draws have to come out the
+// same whichever replica makes them.  Run with the plain Simulator (no
+// replica.count), this behaves as BspNextCycle.
+
+public class ReplicatedNextCycle extends BspNextCycle {
+  private static Logger log =
+      Logger.getLogger(ReplicatedNextCycle.class.getName());
+
+  // Null when not replicated
+  private final ReplicaChannel channel;
+
+  // The nodes of the network by ID, for reading other replicas' buffers.
+  // Kept from cycle to cycle: joining nodes always get IDs above
+  // maxID, and nodes that left are dropped when the network shrinks.
+  private final Map<Long,MycoNode> nodesByID = new HashMap<Long,MycoNode>();
+  private long maxID = -1;
+
+  public ReplicatedNextCycle(String prefix) {
+    super(prefix);
+    if (ReplicaChannel.isReplicated() && !RandomStreams.isSplit()) {
+      throw new IllegalParameterException(prefix,
+          "replicated runs need random.streams");
+    }
+    channel = ReplicaChannel.fromConfig();
+  }
+
+  protected BspOps.Buffer[] decideAll(List<MycoNode> nodes, int pid) {
+    if (channel == null) {
+      return super.decideAll(nodes, pid);
+    }
+    int index = channel.getIndex();
+    int count = channel.getCount();
+    List<MycoNode> own = new ArrayList<MycoNode>();
+    for (MycoNode n : nodes) {
+      if (n.getID() % count == index) {
+        own.add(n);
+      }
+    }
+    BspOps.Buffer[] mine = super.decideAll(own, pid);
+
+    byte[][] frames;
+    try {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      DataOutputStream out = new DataOutputStream(bytes);
+      out.writeInt(mine.length);
+      for (BspOps.Buffer buf : mine) {
+        BspOps.write(buf, out);
+      }
+      out.flush();
+      frames = channel.exchange(CDState.getCycle(), digest(nodes),
+                                bytes.toByteArray());
+    } catch (IOException e) {
+      throw new RuntimeException("Replica " + index
+                                 + " lost the coordinator", e);
+    }
+
+    updateIDs();
+    Map<MycoNode,BspOps.Buffer> decided =
+        new HashMap<MycoNode,BspOps.Buffer>();
+    try {
+      for (int s = 0; s < frames.length; s++) {
+        if (s == index) {
+          for (BspOps.Buffer buf : mine) {
+            decided.put(buf.getNode(), buf);
+          }
+          continue;
+        }
+        DataInputStream in =
+            new DataInputStream(new ByteArrayInputStream(frames[s]));
+        for (int k = in.readInt(); k > 0; k--) {
+          BspOps.Buffer buf = BspOps.read(in, nodesByID);
+          decided.put(buf.getNode(), buf);
+        }
+      }
+    } catch (IOException e) {
+      throw new IllegalStateException("Replica " + index
+                                      + " got a corrupt frame", e);
+    }
+
+    BspOps.Buffer[] ret = new BspOps.Buffer[nodes.size()];
+    for (int i = 0; i < ret.length; i++) {
+      ret[i] = decided.get(nodes.get(i));
+      if (ret[i] == null) {
+        throw new IllegalStateException("No replica decided for node "
+                                        + nodes.get(i).getID());
+      }
+    }
+    log.log(Level.FINER, "Replica " + index + " decided " + own.size()
+            + " of " + nodes.size() + " nodes");
+    return ret;
+  }
+
+  // Bring nodesByID up to date with the nodes that joined or left
+  // since the last cycle
+  private void updateIDs() {
+    long top = maxID;
+    for (int j = 0; j < Network.size(); j++) {
+      MycoNode n = (MycoNode) Network.get(j);
+      if (n.getID() > maxID) {
+        nodesByID.put(n.getID(), n);
+        top = Math.max(top, n.getID());
+      }
+    }
+    maxID = top;
+    if (nodesByID.size() > Network.size()) {
+      Iterator<MycoNode> it = nodesByID.values().iterator();
+      while (it.hasNext()) {
+        MycoNode n = it.next();
+        int i = n.getIndex();
+        if (i < 0 || i >= Network.size() || Network.get(i) != n) {
+          it.remove();
+        }
+      }
+    }
+  }
+
+  // Digest of the overlay the decide phase reads, in ID order
+  private static long digest(List<MycoNode> nodes) {
+    long h = nodes.size();
+    for (MycoNode n : nodes) {
+      h = h * 31 + n.getID();
+      h = h * 31 + n.getHyphaData().getState().ordinal();
+      h = h * 31 + n.getHyphaLink().degree();
+    }
+    return h;
+  }
+}
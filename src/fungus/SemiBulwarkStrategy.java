@@ -61,7 +61,7 @@ public class SemiBulwarkStrategy extends DynamicsStrategy {
       //hyphaNode = mycoCast.getForagingHypha();
     }
     if (link.isDisconnected()
-        || link.getHyphae().isEmpty()) {
+        || link.hyphaDegree() == 0) {
       if (hyphaNode == null) {
         // No appropriate foraging hyphae, so spore as extending hypha
         log.log(Level.FINER, node + " CAN'T FIND A FORAGER", node);
@@ -86,26 +86,23 @@ public class SemiBulwarkStrategy extends DynamicsStrategy {
     // Aim for targeted number of parents
     MycoList sn = link.getHyphae();
     while (sn.size() > Math.floor(data.getParentTarget())) {
-      MycoNode excess = sn.getRandom();
+      MycoNode excess = sn.getRandom(node.getRandomStream());
       log.log(Level.FINE, node + " SEVERING EXCESS PARENT " +
               excess, new Object [] { node, excess});
-      link.removeNeighbor(sn.getRandom());
+      link.removeNeighbor(sn.getRandom(node.getRandomStream()));
       sn = link.getHyphae();
     }
 
-    MycoList candidates = mycoCast.getAllHyphae();
-    candidates.removeAll(link.getHyphae());
-    while (sn.size() < Math.ceil(data.getParentTarget())
-           && !candidates.isEmpty()) {
-      hyphaNode = candidates.getRandom();
-      candidates.remove(hyphaNode);
-      if (hyphaNode != null) {
+    int wanted = (int) Math.ceil(data.getParentTarget()) - sn.size();
+    if (wanted > 0) {
+      MycoList exclude = link.getHyphae();
+      exclude.add(node);
+      for (MycoNode candidate : mycoCast.sampleHyphae(wanted, exclude)) {
         log.log(Level.FINER, node + " CONNECTING TO HYPHA"
-                + hyphaNode, new Object[] { node, hyphaNode });
-        node.getHyphaLink().addNeighbor(hyphaNode);
+                + candidate, new Object[] { node, candidate });
+        node.getHyphaLink().addNeighbor(candidate);
         MessageObserver.topoQueryMessages(2);
         MessageObserver.topoActionMessages(2);
-        sn = link.getHyphae();
       }
     }
 
@@ -43,6 +43,12 @@ public class SinglyTypedBiomassStrategy extends DynamicsStrategy {
   }
 
 
+  // Attached to exactly one hypha of its own type, there is nothing
+  // to join or sever
+  public boolean isSettled(MycoNode node, HyphaData data, HyphaLink link) {
+    return link.sameHyphaDegree() == 1;
+  }
+
   public void doDynamics(MycoNode node, HyphaData data, HyphaLink link) {
     // If this is free-floating biomass, attach to a foraging hypha
     MycoCast mycoCast = node.getMycoCast();
@@ -56,7 +62,7 @@ public class SinglyTypedBiomassStrategy extends DynamicsStrategy {
       hyphaNode = mycoCast.getForagingHypha();
     }
     if (link.isDisconnected()
-        || link.getSameNeighbors().getHyphae().isEmpty()) {
+        || link.sameHyphaDegree() == 0) {
       if (hyphaNode == null) {
         // No appropriate foraging hyphae, so spore as extending hypha
         log.log(Level.FINER, node + " CAN'T FIND A FORAGER", node);
@@ -79,13 +85,13 @@ public class SinglyTypedBiomassStrategy extends DynamicsStrategy {
     }
 
     // Ensure only one parent
-    MycoList sn = link.getSameNeighbors().getHyphae();
+    MycoList sn = link.getSameHyphae();
     while (sn.size() > 1) {
-      MycoNode excess = sn.getRandom();
+      MycoNode excess = sn.getRandom(node.getRandomStream());
       log.log(Level.FINE, node + " SEVERING EXCESS PARENT " +
               excess, new Object [] { node, excess});
-      link.removeNeighbor(sn.getRandom());
-      sn = link.getSameNeighbors().getHyphae();
+      link.removeNeighbor(sn.getRandom(node.getRandomStream()));
+      sn = link.getSameHyphae();
     }
   }
 }
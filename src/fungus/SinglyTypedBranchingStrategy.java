@@ -38,7 +38,7 @@ public class SinglyTypedBranchingStrategy extends SinglyTypedHyphaStrategy {
     MycoList hyphae = link.getHyphae();
 
     // Randomly permute order so selections will be random
-    java.util.Collections.shuffle(hyphae);
+    java.util.Collections.shuffle(hyphae, node.getRandomStream());
     MycoList sameHyphae = hyphae.getType(data.getType());
     MycoList differentHyphae = hyphae.getTypeNot(data.getType());
     MycoList sameExtending = sameHyphae.getExtending();
@@ -96,7 +96,7 @@ public class SinglyTypedBranchingStrategy extends SinglyTypedHyphaStrategy {
     }
     // If under biomass capacity absorb biomass from neighbor extending
     // nodes
-    MycoList extendingNeighbors = link.getSameNeighbors().getExtending();
+    MycoList extendingNeighbors = link.getSame(HyphaType.EXTENDING);
     for (MycoNode neighbor : extendingNeighbors) {
       if (!link.isUnderBiomass()) {
         break;
@@ -122,8 +122,8 @@ public class SinglyTypedBranchingStrategy extends SinglyTypedHyphaStrategy {
     // If under hyphal same capacity:
     // Connect to a random hyphae in 2-neighborhood
     if (link.isUnderSameHyphae()) {
-      MycoNode candidate = link.get2Neighbors().getType(data.getType())
-          .getHyphae().getRandom();
+      MycoNode candidate = link.getRandom2NeighborOfType(data.getType(),
+          HyphaType.IMMOBILE, HyphaType.BRANCHING, HyphaType.EXTENDING);
       if (candidate != null) {
         log.log(Level.FINE,
                 node
@@ -169,15 +169,15 @@ public class SinglyTypedBranchingStrategy extends SinglyTypedHyphaStrategy {
     }
 
     // If over different-type hypha target, drop random links
-    MycoList different = link.getDifferentNeighbors().getHyphae();
+    MycoList different = link.getDifferentHyphae();
     if (different.size() > data.getIdealOtherHyphae()) {
-      MycoNode candidate = different.getRandom();
+      MycoNode candidate = different.getRandom(node.getRandomStream());
       log.log(Level.FINE,
               node
               + " is over target for different hyphae, randomly dropping connection to "
               + candidate, new Object[] { node, candidate });
       link.removeNeighbor(candidate);
-      different = link.getDifferentNeighbors().getHyphae();
+      different = link.getDifferentHyphae();
     }
 
     if (link.isUnderBiomass()) {
@@ -50,7 +50,7 @@ public class SinglyTypedBulwarkStrategy extends DynamicsStrategy {
     } else if (link.degree() > data.getBulwarkMax()) {
       log.log(Level.FINER, "Bulwark node " + node +
               " is over maximum neighbor count", node);
-      MycoNode candidate = link.getNeighbors().getRandom();
+      MycoNode candidate = link.getNeighbors().getRandom(node.getRandomStream());
       if (candidate == null) {
         log.log(Level.FINE, "Bulwark node " + node +
                 " could not find neighbor to drop!!!", node);
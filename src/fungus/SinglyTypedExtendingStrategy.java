@@ -39,7 +39,7 @@ public class SinglyTypedExtendingStrategy extends SinglyTypedHyphaStrategy {
     MycoList hyphae = link.getHyphae();
 
     // Randomly permute order so selections will be random
-    java.util.Collections.shuffle(hyphae);
+    java.util.Collections.shuffle(hyphae, node.getRandomStream());
     MycoList sameHyphae = hyphae.getType(data.getType());
     MycoList sameExtending = sameHyphae.getExtending();
     MycoList sameBranching = sameHyphae.getBranching();
@@ -89,7 +89,7 @@ public class SinglyTypedExtendingStrategy extends SinglyTypedHyphaStrategy {
     }
 
     // If not attached to at least one stable of same type, grow a link
-    if (link.getSameNeighbors().getStable().size() < 1) {
+    if (link.sameStableDegree() < 1) {
       MycoCast myco = node.getMycoCast();
       MycoNode o = myco.getStableHypha();
       if (o != null) {
@@ -102,7 +102,7 @@ public class SinglyTypedExtendingStrategy extends SinglyTypedHyphaStrategy {
     }
 
     // If not at C_O, grow a link
-    if (link.getDifferentNeighbors().getHyphae().size() < 1) {
+    if (link.differentHyphaDegree() < 1) {
       MycoCast myco = node.getMycoCast();
       MycoNode o = myco.getStableHypha();
       if (o != null) {
@@ -115,15 +115,15 @@ public class SinglyTypedExtendingStrategy extends SinglyTypedHyphaStrategy {
     }
 
     // If over different-type hypha target, drop a random link
-    MycoList different = link.getDifferentNeighbors().getHyphae();
+    MycoList different = link.getDifferentHyphae();
     if (different.size() > data.getIdealOtherHyphae()) {
-      MycoNode candidate = different.getRandom();
+      MycoNode candidate = different.getRandom(node.getRandomStream());
       log.log(Level.FINE,
               node
               + " is over target for different hyphae, randomly dropping connection to "
               + candidate, new Object[] { node, candidate });
       link.removeNeighbor(candidate);
-      different = link.getDifferentNeighbors().getHyphae();
+      different = link.getDifferentHyphae();
     }
 
     // If over biomass capacity, become a branching node, choose a
@@ -140,15 +140,15 @@ public class SinglyTypedExtendingStrategy extends SinglyTypedHyphaStrategy {
       }
     } else {
       // If over same-type hyphal connections, drop the excess
-      MycoList same = link.getHyphae().getType(data.getType());
+      MycoList same = link.getSameHyphae();
       while (same.size() > 1) {
-        MycoNode candidate = same.getRandom();
+        MycoNode candidate = same.getRandom(node.getRandomStream());
         log.log(Level.FINE,
                 node
                 + " has more than one same-type hypha, randomly dropping connection to "
                 + candidate, new Object[] { node, candidate });
         link.removeNeighbor(candidate);
-        same = link.getHyphae().getType(data.getType());
+        same = link.getSameHyphae();
       }
     }
   }
@@ -25,7 +25,6 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import peersim.config.Configuration;
-import peersim.core.CommonState;
 
 
 public abstract class SinglyTypedHyphaStrategy extends DynamicsStrategy {
@@ -33,6 +32,35 @@ public abstract class SinglyTypedHyphaStrategy extends DynamicsStrategy {
   private static Logger log =
       Logger.getLogger(SinglyTypedHyphaStrategy.class.getName());
 
+  // Whether doCommonDynamics() would leave the node alone: attached to
+  // a stable hypha, no same-type biomass within two hops worth stealing
+  // or swapping with, and no pair of extending hyphae of another type
+  // to match up.  The hunt for a hypha only logs what it finds.
+  protected boolean isCommonSettled(MycoNode node, HyphaData data,
+                                    HyphaLink link) {
+    if (link.hyphaDegree() == 0
+        || (link.stableDegree() == 0 && !data.isExtending())) {
+      return false;
+    }
+    for (int t = 0; t < HyphaData.numTypes; t++) {
+      if (t != data.getType()
+          && link.typeStateDegree(t, HyphaType.EXTENDING) >= 2) {
+        return false;
+      }
+    }
+    MycoNode myMaxBiomass = link.getMaxBiomass();
+    if (myMaxBiomass == null) {
+      return true;
+    }
+    int myCapacity = data.getMaxCapacity();
+    if (myMaxBiomass.getMaxCapacity() > myCapacity) {
+      return false;
+    }
+    List<MycoNode> twoHopBiomass = link.get2NeighborBiomass(data.getType());
+    return twoHopBiomass.isEmpty()
+        || twoHopBiomass.get(0).getHyphaData().getMaxCapacity() <= myCapacity;
+  }
+
   /* Logic for dynamics common to all hyphal states */
   public void doCommonDynamics(MycoNode node, HyphaData data, HyphaLink link) {
     // Clean up dead neighbors
@@ -52,7 +80,7 @@ public abstract class SinglyTypedHyphaStrategy extends DynamicsStrategy {
     MycoList stableList = link.getStable();
     MycoList sameHyphaList = hyphaeList.getType(data.getType());
 
-    MycoList biomassList = link.getSameNeighbors().getBiomass();
+    MycoList biomassList = link.getSame(HyphaType.BIOMASS);
 
     if (hyphaeList.isEmpty()
         || (stableList.isEmpty() && !data.isExtending())) {
@@ -80,12 +108,14 @@ public abstract class SinglyTypedHyphaStrategy extends DynamicsStrategy {
     }
 
     // Find largest biomass (of same type) attached to a neighbor
-    for (MycoNode n : link.get2Neighbors().getType(data.getType())
-             .getBiomass()) {
-      d = n.getHyphaData();
+    // (sorted largest first, so only the head matters)
+    List<MycoNode> twoHopBiomass =
+        link.get2NeighborBiomass(data.getType());
+    if (!twoHopBiomass.isEmpty()) {
+      d = twoHopBiomass.get(0).getHyphaData();
       if (d.getMaxCapacity() > maxBiomassCapacity) {
         maxBiomassCapacity = d.getMaxCapacity();
-        maxBiomass = n;
+        maxBiomass = twoHopBiomass.get(0);
       }
     }
 
@@ -114,32 +144,48 @@ public abstract class SinglyTypedHyphaStrategy extends DynamicsStrategy {
     } else {
       // If we're not attached to a same-type hyphae, go hunting
       log.log(Level.FINER, "HUNTING FOR SAME-TYPE HYPHA", node);
-      if (link.getSameNeighbors().getHyphae().size() == 0) {
+      if (link.sameHyphaDegree() == 0) {
         log.log(Level.FINER, node
                 + " IS NOT ATTACHED TO A SAME-TYPE HYPHA", node);
-        MycoList candidates = link.get2Neighborhood()
+        MycoList candidates = new MycoList(link.get2Neighborhood())
             .getType(data.getType()).getHyphae();
         log.log(Level.FINER, "hyphae in 2-neighborhood are: "
                 + candidates, node);
         if (candidates.size() > 0) {
-          MycoNode target = candidates.getRandom();
+          MycoNode target = candidates.getRandom(node.getRandomStream());
           log.log(Level.FINER, "FOUND " + candidates.size()
                   + "candidates, connecting to " + target);
         }
       }
     }
 
-    // Matchmaking among attached extending hyphae
-    List<MycoList> parts = link.getDifferentNeighbors().getExtending()
-        .partition();
-    java.util.Collections.shuffle(parts);
-    for (MycoList l : parts) {
-      if (l.size() < 2) {
+    // Matchmaking among attached extending hyphae: pick one of the
+    // other types with at least two extending neighbors, using the
+    // link's per-type counts rather than partitioning the neighbors
+    int myType = data.getType();
+    int matchable = 0;
+    for (int t = 0; t < HyphaData.numTypes; t++) {
+      if (t != myType
+          && link.typeStateDegree(t, HyphaType.EXTENDING) >= 2) {
+        matchable++;
+      }
+    }
+    if (matchable == 0) {
+      return;
+    }
+    int k = node.getRandomStream().nextInt(matchable);
+    for (int t = 0; t < HyphaData.numTypes; t++) {
+      if (t == myType
+          || link.typeStateDegree(t, HyphaType.EXTENDING) < 2
+          || k-- > 0) {
         continue;
       }
-      java.util.Collections.shuffle(l);
-      MycoNode first = l.get(0);
-      MycoNode second = l.get(1);
+      MycoList l = link.getOfType(t, HyphaType.EXTENDING);
+      int i = node.getRandomStream().nextInt(l.size());
+      int j = node.getRandomStream().nextInt(l.size() - 1);
+      if (j >= i) { j++; }
+      MycoNode first = l.get(i);
+      MycoNode second = l.get(j);
       if (first.getHyphaData().getMaxCapacity() < second.getHyphaData()
           .getMaxCapacity()) {
         link.transferNeighbor(first, second);
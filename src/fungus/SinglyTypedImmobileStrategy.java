@@ -25,7 +25,6 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import peersim.config.Configuration;
-import peersim.core.CommonState;
 
 public class SinglyTypedImmobileStrategy extends SinglyTypedHyphaStrategy {
 
@@ -40,6 +39,44 @@ public class SinglyTypedImmobileStrategy extends SinglyTypedHyphaStrategy {
     spawnProb = Configuration.getDouble(PAR_SPAWN_PROB);
   }
 
+  // None of the rules below would fire on the current neighborhood.
+  // The random spawn is left to actionProbability().
+  public boolean isSettled(MycoNode node, HyphaData data, HyphaLink link) {
+    int type = data.getType();
+    if (!isCommonSettled(node, data, link)
+        || link.typeStateDegree(type, HyphaType.EXTENDING) > 1
+        || link.isUnderSameHyphae()
+        || link.isUnderDifferentHyphae()
+        || (link.isOverBiomass() && link.sameHyphaDegree() > 0)
+        || (((float) link.sameBiomassDegree())
+            / (float) data.getIdealBiomass()) < 0.80
+        || (link.isOverSameHyphae()
+            && link.sameHyphaDegree() > data.getIdealHyphae())
+        || (link.isOverDifferentHyphae()
+            && link.differentHyphaDegree() > data.getIdealOtherHyphae())) {
+      return false;
+    }
+    if (link.isUnderBiomass()) {
+      for (MycoNode neighbor : link.getSameHyphae()) {
+        HyphaLink nl = neighbor.getHyphaLink();
+        if (!neighbor.getHyphaData().isImmobile()
+            && nl.biomassDegree() > 0) {
+          return false;
+        }
+        if (data.getMaxCapacity() > neighbor.getHyphaData().getMaxCapacity()
+            && nl.sameBiomassDegree() <= link.amountUnderBiomass()) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  public double actionProbability(MycoNode node, HyphaData data,
+                                  HyphaLink link) {
+    return spawnProb;
+  }
+
   public void doDynamics(MycoNode node, HyphaData data, HyphaLink link) {
     // Execute logic common to all hyphal states
     doCommonDynamics(node, data, link);
@@ -47,7 +84,7 @@ public class SinglyTypedImmobileStrategy extends SinglyTypedHyphaStrategy {
     MycoList hyphae = link.getHyphae();
 
     // Randomly permute order so selections will be random
-    java.util.Collections.shuffle(hyphae);
+    java.util.Collections.shuffle(hyphae, node.getRandomStream());
     MycoList sameHyphae = hyphae.getType(data.getType());
     MycoList differentHyphae = hyphae.getTypeNot(data.getType());
     MycoList sameExtending = sameHyphae.getExtending();
@@ -98,8 +135,8 @@ public class SinglyTypedImmobileStrategy extends SinglyTypedHyphaStrategy {
     // If under hyphal same capacity:
     // Connect to a random stable hyphae in 2-neighborhood
     if (link.isUnderSameHyphae()) {
-      MycoNode candidate = link.get2Neighbors().getType(data.getType())
-          .getStable().getRandom();
+      MycoNode candidate = link.getRandom2NeighborOfType(data.getType(),
+          HyphaType.IMMOBILE, HyphaType.BRANCHING);
       if (candidate != null) {
         log.log(Level.FINE,
                 node
@@ -126,7 +163,8 @@ public class SinglyTypedImmobileStrategy extends SinglyTypedHyphaStrategy {
     }
 
     // Shake things up by sometimes randomly connecting to a new hypha
-    if (CommonState.r.nextDouble() < spawnProb) {
+    if (ActiveSet.takeDue(node)
+        || node.getRandomStream().nextDouble() < spawnProb) {
       MycoCast myco = node.getMycoCast();
       MycoNode stable = myco.getStableHypha();
       if (stable != null) {
@@ -143,7 +181,7 @@ public class SinglyTypedImmobileStrategy extends SinglyTypedHyphaStrategy {
     // If under biomass capacity:
     // First, absorb neighbors if our capacity allows
     if (link.isUnderBiomass()) {
-      for (MycoNode neighbor : link.getSameNeighbors().getHyphae()) {
+      for (MycoNode neighbor : link.getSameHyphae()) {
         if ((data.getMaxCapacity() > neighbor.getHyphaData()
              .getMaxCapacity())
             && (neighbor.getHyphaLink().sameBiomassDegree() <= link
@@ -157,8 +195,7 @@ public class SinglyTypedImmobileStrategy extends SinglyTypedHyphaStrategy {
     // If under biomass capacity absorb biomass from neighbor extending
     // or branching nodes
     if (link.isUnderBiomass()) {
-      MycoList extendingNeighbors = link.getSameNeighbors()
-          .getExtending();
+      MycoList extendingNeighbors = link.getSame(HyphaType.EXTENDING);
       for (MycoNode neighbor : extendingNeighbors) {
         if (!link.isUnderBiomass()) {
           break;
@@ -171,7 +208,7 @@ public class SinglyTypedImmobileStrategy extends SinglyTypedHyphaStrategy {
         neighbor.getHyphaLink().transferBiomass(node,
                                                 link.amountUnderBiomass());
       }
-      MycoList branchingNeighbors = link.getSameNeighbors().getBranching();
+      MycoList branchingNeighbors = link.getSame(HyphaType.BRANCHING);
       for (MycoNode neighbor : branchingNeighbors) {
         if (!link.isUnderBiomass()) {
           break;
@@ -209,8 +246,7 @@ public class SinglyTypedImmobileStrategy extends SinglyTypedHyphaStrategy {
         && (link.sameHyphaDegree() > data.getIdealHyphae())) {
       log.log(Level.FINER, node + " IS " + link.amountOverBiomass()
               + " OVER SAME-TYPE HYPHAL CAPACITY", node);
-      MycoNode candidate = link.getSameNeighbors().getStable()
-          .getRandom();
+      MycoNode candidate = link.getRandomSameStable();
 
       if (candidate != null) {
         log.log(Level.FINER, node + " SEVERING HYPHA TO " + candidate,
@@ -227,8 +263,7 @@ public class SinglyTypedImmobileStrategy extends SinglyTypedHyphaStrategy {
         && (link.differentHyphaDegree() > data.getIdealOtherHyphae())) {
       log.log(Level.FINER, node + " IS " + link.amountOverBiomass()
               + " OVER DIFFERENT-TYPE HYPHAL CAPACITY", node);
-      MycoNode candidate = link.getDifferentNeighbors().getStable()
-          .getRandom();
+      MycoNode candidate = link.getRandomDifferentStable();
       if (candidate != null) {
         log.log(Level.FINER, node + " SEVERING HYPHA TO " + candidate,
                 new Object[] { node, candidate });
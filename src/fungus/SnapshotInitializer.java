@@ -0,0 +1,154 @@
+/* Copyright (c) 2014, Paul L. Snyder <paul@pataprogramming.com>,
+ * Daniel Dubois, Nicolo Calcavecchia.
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option)
+ * Any later version. It may also be redistributed and/or modified under the
+ * terms of the BSD 3-Clause License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+
+
+
+
+package fungus;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.logging.Logger;
+
+import peersim.cdsim.CDState;
+import peersim.config.Configuration;
+import peersim.core.CommonState;
+import peersim.core.Control;
+import peersim.core.Network;
+import peersim.core.Node;
+
+// Restores a simulation saved by SnapshotWriter.  The network is
+// replaced by fresh clones of the prototype node carrying the saved
+// IDs and state, the registries and random generators are put back,
+// and the cycle is moved on so CDSimulator resumes where the saved run
+// left off.  The configuration must declare the same protocols, in
+// the same order, as the run that wrote the file.
+//
+// Run it as the last initializer; initializers that only build the
+// starting overlay (PowerLawInitializer, StateInitializer and the
+// like) are wasted work and can be left out:
+//
+//   init.restore fungus.SnapshotInitializer
+//   init.restore.file warm-20.snap
+
+public class SnapshotInitializer implements Control {
+  private static final String PAR_FILE = "file";
+
+  private static Logger log =
+      Logger.getLogger(SnapshotInitializer.class.getName());
+
+  private final String file;
+
+  public SnapshotInitializer(String prefix) {
+    file = Configuration.getString(prefix + "." + PAR_FILE);
+  }
+
+  public boolean execute() {
+    try {
+      read(file);
+    } catch (IOException e) {
+      throw new RuntimeException("Couldn't read snapshot " + file, e);
+    }
+    log.info("Restored " + Network.size() + " nodes at cycle "
+             + CDState.getCycle() + " from " + file);
+    return false;
+  }
+
+  static void read(String fn) throws IOException {
+    FileChannel channel = FileChannel.open(Paths.get(fn),
+                                           StandardOpenOption.READ);
+    try {
+      read(new SnapshotInput(channel));
+    } finally {
+      channel.close();
+    }
+  }
+
+  static void read(SnapshotInput in) {
+    if (in.getInt() != SnapshotWriter.MAGIC) {
+      throw new IllegalStateException("Not a Myconet snapshot");
+    }
+    int version = in.getInt();
+    if (version != SnapshotWriter.VERSION) {
+      throw new IllegalStateException("Unsupported snapshot version "
+                                      + version);
+    }
+    int cycle = in.getInt();
+    int size = in.getInt();
+    Node proto = Network.prototype;
+    int protocols = in.getInt();
+    if (protocols != proto.protocolSize()) {
+      throw new IllegalStateException("Snapshot has " + protocols
+                                      + " protocols, configuration has "
+                                      + proto.protocolSize());
+    }
+    for (int k = 0; k < protocols; k++) {
+      String name = in.getString();
+      String have = proto.getProtocol(k).getClass().getName();
+      if (!name.equals(have)) {
+        throw new IllegalStateException("Protocol " + k + " is " + name
+                                        + " in the snapshot but " + have
+                                        + " in the configuration");
+      }
+    }
+    long nextID = in.getLong();
+
+    // Drop whatever the earlier initializers built, along with the
+    // registries and the adjacency store that still refer to it
+    while (Network.size() > 0) {
+      Network.remove();
+    }
+    MycoCast.clear();
+    ActiveSet.clear();
+    HyphaLink.resetStore();
+    for (int i = 0; i < size; i++) {
+      Network.add((Node) proto.clone());
+    }
+    MycoNode.restoreNextID(nextID);
+
+    HyphaData.numTypes = in.getInt();
+    Job.idCounter = in.getInt();
+    in.getRandom(CommonState.r);
+    RandomStreams.readState(in);
+
+    for (int i = 0; i < size; i++) {
+      ((MycoNode) Network.get(i)).readState(in);
+    }
+    for (int i = 0; i < size; i++) {
+      MycoNode n = (MycoNode) Network.get(i);
+      for (int k = 0; k < n.protocolSize(); k++) {
+        if (n.getProtocol(k) instanceof Snapshottable) {
+          ((Snapshottable) n.getProtocol(k)).readState(n, in);
+        }
+      }
+    }
+
+    MycoCast.readState(in);
+    TypeRegistry.readState(in);
+    JobController.readState(in);
+    MessageObserver.readState(in);
+    if (in.getInt() != SnapshotWriter.MAGIC) {
+      throw new IllegalStateException("Snapshot is corrupt (read "
+                                      + in.position() + " bytes)");
+    }
+    CDState.setCycle(cycle);
+  }
+}
@@ -0,0 +1,157 @@
+/* Copyright (c) 2014, Paul L. Snyder <paul@pataprogramming.com>,
+ * Daniel Dubois, Nicolo Calcavecchia.
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option)
+ * Any later version. It may also be redistributed and/or modified under the
+ * terms of the BSD 3-Clause License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+
+
+
+
+package fungus;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Random;
+
+import peersim.core.Network;
+import peersim.util.ExtendedRandom;
+
+// Reads back what SnapshotOutput wrote.  The file is memory-mapped
+// rather than read through a buffer, in windows of up to WINDOW bytes
+// (a single mapping cannot exceed 2GB), so loading is bounded by page
+// faults instead of copies.  Node indices must refer to the restored
+// Network, so read them only once its nodes are in place.
+
+public class SnapshotInput {
+  private static final long WINDOW = 1L << 28;
+
+  private final FileChannel channel;
+  private final long size;
+  private MappedByteBuffer buf;
+  private long base;
+
+  public SnapshotInput(FileChannel channel) throws IOException {
+    this.channel = channel;
+    this.size = channel.size();
+    map(0);
+  }
+
+  private void map(long offset) throws IOException {
+    base = offset;
+    buf = channel.map(FileChannel.MapMode.READ_ONLY, offset,
+                      Math.min(WINDOW, size - offset));
+  }
+
+  private void ensure(int n) {
+    if (buf.remaining() >= n) {
+      return;
+    }
+    long offset = base + buf.position();
+    if (offset + n > size) {
+      throw new IllegalStateException("Snapshot is truncated at byte "
+                                      + offset);
+    }
+    try {
+      map(offset);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  public byte getByte() {
+    ensure(1);
+    return buf.get();
+  }
+
+  public boolean getBoolean() {
+    return getByte() != 0;
+  }
+
+  public int getInt() {
+    ensure(4);
+    return buf.getInt();
+  }
+
+  public long getLong() {
+    ensure(8);
+    return buf.getLong();
+  }
+
+  public double getDouble() {
+    ensure(8);
+    return buf.getDouble();
+  }
+
+  public String getString() {
+    int n = getInt();
+    byte[] b = new byte[n];
+    int done = 0;
+    while (done < n) {
+      ensure(1);
+      int k = Math.min(n - done, buf.remaining());
+      buf.get(b, done, k);
+      done += k;
+    }
+    return new String(b, StandardCharsets.UTF_8);
+  }
+
+  public <E extends Enum<E>> E getEnum(E[] values) {
+    int i = getInt();
+    return (i < 0) ? null : values[i];
+  }
+
+  public MycoNode getNode() {
+    int i = getInt();
+    return (i < 0) ? null : (MycoNode) Network.get(i);
+  }
+
+  // Reads a list written by putNodes() into dst, skipping nodes that
+  // had left the network
+  public void getNodes(Collection<MycoNode> dst) {
+    int n = getInt();
+    for (int i = 0; i < n; i++) {
+      MycoNode node = getNode();
+      if (node != null) {
+        dst.add(node);
+      }
+    }
+  }
+
+  // Put r back into the state written by putRandom()
+  public void getRandom(Random r) {
+    byte kind = getByte();
+    if (kind == SnapshotOutput.XOSHIRO && r instanceof XoshiroRandom) {
+      long[] s = new long[4];
+      for (int i = 0; i < s.length; i++) {
+        s[i] = getLong();
+      }
+      ((XoshiroRandom) r).setState(s);
+    } else if (kind == SnapshotOutput.LCG && r instanceof ExtendedRandom
+               && !(r instanceof XoshiroRandom)) {
+      ((ExtendedRandom) r).restoreSeed(getLong());
+    } else {
+      throw new IllegalStateException("Snapshot holds a different kind of "
+                                      + "generator than " + r);
+    }
+  }
+
+  public long position() {
+    return base + buf.position();
+  }
+}
@@ -0,0 +1,145 @@
+/* Copyright (c) 2014, Paul L. Snyder <paul@pataprogramming.com>,
+ * Daniel Dubois, Nicolo Calcavecchia.
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option)
+ * Any later version. It may also be redistributed and/or modified under the
+ * terms of the BSD 3-Clause License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+
+
+
+
+package fungus;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Random;
+
+import peersim.util.ExtendedRandom;
+
+// Streams the primitives of a snapshot (see SnapshotWriter) to a file
+// channel through one direct buffer, so a whole network is written in
+// a single pass without building it up in memory first.  Nodes are
+// written as their index in the Network, -1 standing for null or for
+// a node that has left the network.
+
+public class SnapshotOutput {
+  private static final int BUFFER_SIZE = 1 << 20;
+
+  static final byte LCG = 1;
+  static final byte XOSHIRO = 2;
+
+  private final FileChannel channel;
+  private final ByteBuffer buf;
+  private long written;
+
+  public SnapshotOutput(FileChannel channel) {
+    this.channel = channel;
+    this.buf = ByteBuffer.allocateDirect(BUFFER_SIZE);
+  }
+
+  private void ensure(int n) throws IOException {
+    if (buf.remaining() < n) {
+      drain();
+    }
+  }
+
+  private void drain() throws IOException {
+    buf.flip();
+    while (buf.hasRemaining()) {
+      written += channel.write(buf);
+    }
+    buf.clear();
+  }
+
+  public void putByte(byte b) throws IOException {
+    ensure(1);
+    buf.put(b);
+  }
+
+  public void putBoolean(boolean b) throws IOException {
+    putByte(b ? (byte) 1 : (byte) 0);
+  }
+
+  public void putInt(int i) throws IOException {
+    ensure(4);
+    buf.putInt(i);
+  }
+
+  public void putLong(long l) throws IOException {
+    ensure(8);
+    buf.putLong(l);
+  }
+
+  public void putDouble(double d) throws IOException {
+    ensure(8);
+    buf.putDouble(d);
+  }
+
+  public void putString(String s) throws IOException {
+    byte[] b = s.getBytes(StandardCharsets.UTF_8);
+    putInt(b.length);
+    if (b.length > buf.capacity()) {
+      drain();
+      ByteBuffer wrapped = ByteBuffer.wrap(b);
+      while (wrapped.hasRemaining()) {
+        written += channel.write(wrapped);
+      }
+      return;
+    }
+    ensure(b.length);
+    buf.put(b);
+  }
+
+  // Ordinal of an enum constant, or -1 for null
+  public void putEnum(Enum<?> e) throws IOException {
+    putInt(e == null ? -1 : e.ordinal());
+  }
+
+  public void putNode(MycoNode n) throws IOException {
+    putInt(n == null ? -1 : n.getIndex());
+  }
+
+  public void putNodes(Collection<MycoNode> nodes) throws IOException {
+    putInt(nodes.size());
+    for (MycoNode n : nodes) {
+      putNode(n);
+    }
+  }
+
+  // Exact state of a generator, as XoshiroRandom or ExtendedRandom
+  // report it.  A cached nextGaussian() value is not carried over.
+  public void putRandom(Random r) throws IOException {
+    if (r instanceof XoshiroRandom) {
+      putByte(XOSHIRO);
+      for (long s : ((XoshiroRandom) r).getState()) {
+        putLong(s);
+      }
+    } else if (r instanceof ExtendedRandom) {
+      putByte(LCG);
+      putLong(((ExtendedRandom) r).getCurrentSeed());
+    } else {
+      throw new IOException("Cannot save the state of " + r);
+    }
+  }
+
+  // Flush what is buffered; returns the total bytes written
+  public long flush() throws IOException {
+    drain();
+    return written;
+  }
+}
@@ -0,0 +1,138 @@
+/* Copyright (c) 2014, Paul L. Snyder <paul@pataprogramming.com>,
+ * Daniel Dubois, Nicolo Calcavecchia.
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option)
+ * Any later version. It may also be redistributed and/or modified under the
+ * terms of the BSD 3-Clause License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+
+
+
+
+package fungus;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Locale;
+import java.util.logging.Logger;
+
+import peersim.cdsim.CDState;
+import peersim.config.Configuration;
+import peersim.core.CommonState;
+import peersim.core.Control;
+import peersim.core.Network;
+import peersim.core.Node;
+
+// Writes the whole simulation to a binary file that
+// SnapshotInitializer can restore, so experiments that share a warm-up
+// (an attack or churn starting at cycle 20, say) can start from it
+// instead of re-simulating it.  The file holds, in one streaming pass:
+// the cycle, the node IDs and fail states, every Snapshottable
+// protocol (HyphaData with its JobQueue, HyphaLink adjacency,
+// ChemicalManager concentrations, FailureAlerter), the MycoCast and
+// TypeRegistry registries, jobs waiting to be requeued, and the state
+// of CommonState.r and of any random streams.  Controls keep their own
+// state, which is not saved; observers start afresh on restore.
+//
+// The restored run resumes at the cycle the snapshot was taken in, so
+// list the writer first in order.control; it then captures the state
+// at the end of the previous cycle.  file may contain a %d for the
+// cycle:
+//
+//   control.snap fungus.SnapshotWriter
+//   control.snap.file warm-%d.snap
+//   control.snap.at 20
+//   order.control snap
+
+public class SnapshotWriter implements Control {
+  private static final String PAR_FILE = "file";
+
+  static final int MAGIC = 0x4d594353;  // "MYCS"
+  static final int VERSION = 3;
+
+  private static Logger log =
+      Logger.getLogger(SnapshotWriter.class.getName());
+
+  private final String file;
+
+  public SnapshotWriter(String prefix) {
+    file = Configuration.getString(prefix + "." + PAR_FILE);
+  }
+
+  public boolean execute() {
+    String fn = String.format(Locale.US, file, CDState.getCycle());
+    try {
+      long bytes = write(fn);
+      log.info("Cycle " + CDState.getCycle() + ": wrote " + Network.size()
+               + " nodes (" + bytes + " bytes) to " + fn);
+    } catch (IOException e) {
+      log.severe("Couldn't write snapshot " + fn + ": " + e.getMessage());
+    }
+    return false;
+  }
+
+  // Write the simulation to fn; returns the size of the file
+  static long write(String fn) throws IOException {
+    FileChannel channel =
+        FileChannel.open(Paths.get(fn), StandardOpenOption.CREATE,
+                         StandardOpenOption.WRITE,
+                         StandardOpenOption.TRUNCATE_EXISTING);
+    try {
+      SnapshotOutput out = new SnapshotOutput(channel);
+      write(out);
+      return out.flush();
+    } finally {
+      channel.close();
+    }
+  }
+
+  static void write(SnapshotOutput out) throws IOException {
+    out.putInt(MAGIC);
+    out.putInt(VERSION);
+    out.putInt(CDState.getCycle());
+    out.putInt(Network.size());
+    Node proto = Network.prototype;
+    out.putInt(proto.protocolSize());
+    for (int k = 0; k < proto.protocolSize(); k++) {
+      out.putString(proto.getProtocol(k).getClass().getName());
+    }
+    out.putLong(MycoNode.getNextID());
+    out.putInt(HyphaData.numTypes);
+    out.putInt(Job.idCounter);
+    out.putRandom(CommonState.r);
+    RandomStreams.writeState(out);
+
+    // Node IDs come first, since restored protocols file nodes in
+    // hashed collections
+    for (int i = 0; i < Network.size(); i++) {
+      ((MycoNode) Network.get(i)).writeState(out);
+    }
+    for (int i = 0; i < Network.size(); i++) {
+      Node n = Network.get(i);
+      for (int k = 0; k < n.protocolSize(); k++) {
+        if (n.getProtocol(k) instanceof Snapshottable) {
+          ((Snapshottable) n.getProtocol(k)).writeState(out);
+        }
+      }
+    }
+
+    MycoCast.writeState(out);
+    TypeRegistry.writeState(out);
+    JobController.writeState(out);
+    MessageObserver.writeState(out);
+    out.putInt(MAGIC);
+  }
+}
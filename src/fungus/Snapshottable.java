@@ -0,0 +1,41 @@
+/* Copyright (c) 2014, Paul L. Snyder <paul@pataprogramming.com>,
+ * Daniel Dubois, Nicolo Calcavecchia.
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option)
+ * Any later version. It may also be redistributed and/or modified under the
+ * terms of the BSD 3-Clause License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+
+
+
+
+package fungus;
+
+import java.io.IOException;
+
+import peersim.core.Protocol;
+
+// A protocol whose per-node state goes into a snapshot.  SnapshotWriter
+// calls writeState() on each node's Snapshottable protocols in pid
+// order, and SnapshotInitializer hands the same bytes back to
+// readState() on the matching protocol of the restored node, once
+// every node of the network exists (so neighbors can be referred to)
+// but before other nodes' protocols have necessarily been read.
+// Protocols that only cache which node they belong to need not
+// implement it.
+public interface Snapshottable extends Protocol {
+  public void writeState(SnapshotOutput out) throws IOException;
+
+  public void readState(MycoNode node, SnapshotInput in);
+}
@@ -24,7 +24,6 @@ import java.lang.Math;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import peersim.core.CommonState;
 
 public class TotalFailureParentStrategy extends ParentStrategy {
 
@@ -77,7 +76,7 @@ public class TotalFailureParentStrategy extends ParentStrategy {
       //double decayProb = 0.15;
       double decayProb = sigmoidDecayProb(oldParents, 2.5, -3.0);
       double decay = 0.15;
-      if (CommonState.r.nextDouble() < decayProb) {
+      if (thisNode.getRandomStream().nextDouble() < decayProb) {
         double newParents = oldParents;
         //newParents = Math.max(1.0, newParents * (1.0 - decay));
         if (oldParents > 1.0) {
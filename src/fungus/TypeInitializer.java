@@ -53,7 +53,7 @@ public class TypeInitializer implements Control {
     HyphaData.numTypes = numTypes;
 
     if (generator == null) {
-      TypeInitializer.generator = CommonState.r;
+      TypeInitializer.generator = RandomStreams.of(name);
     }
   }
 
@@ -66,7 +66,7 @@ public class TypeInitializer implements Control {
 
 
   public static void initialize(MycoNode n, int type) {
-    n.getHyphaData().setType(type);
+    n.getHyphaData().setType(n, type);
   }
 
   public static void initialize(MycoNode n) {
@@ -76,6 +76,23 @@ public class TypeInitializer implements Control {
   public boolean execute() {
     MycoNode n;
     typeSeed = generator.nextInt(numTypes);
+    if (Network.isChunked() && !uniformTypes) {
+      // Draw the types chunk by chunk, then announce and file them in
+      // node order
+      final int[] types = new int[Network.size()];
+      Network.initializeRanges(new RangeInitializer() {
+          public void initializeRange(int from, int to, int chunk) {
+            Random r = RandomStreams.forChunk(name, chunk);
+            for (int i = from; i < to; i++) {
+              types[i] = r.nextInt(numTypes);
+            }
+          }
+        });
+      for (int i = 0; i < Network.size(); i++) {
+        initialize((MycoNode) Network.get(i), types[i]);
+      }
+      return false;
+    }
     for (int i = 0; i < Network.size(); i++) {
       n = (MycoNode) Network.get(i);
       if (uniformTypes) {
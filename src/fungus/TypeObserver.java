@@ -44,8 +44,9 @@ public class TypeObserver implements Control {
   // private Forest<MycoNode,MycoEdge> forest;
   // private DistanceStatistics ds = new DistanceStatistics();
 
+  // Per-type subgraphs, built on demand for getTypeGraph(); counts,
+  // capacities and random picks come from TypeRegistry instead
   private static List<Graph<MycoNode, MycoEdge>> typeGraphs;
-  private static List<MycoList> nodeLists = new ArrayList<MycoList>();
 
   private static Set<ChangeListener> changeListeners = new HashSet<ChangeListener>();
 
@@ -59,8 +60,6 @@ public class TypeObserver implements Control {
 
   private static Logger log = Logger.getLogger(TypeObserver.class.getName());
 
-  private static int totalCapacity = 0;
-
   public static int getNumTypes() {
     return numTypes;
   }
@@ -69,31 +68,23 @@ public class TypeObserver implements Control {
     if (t >= numTypes) {
       return new MycoGraph();
     }
+    if (typeGraphs == null) {
+      typeGraphs = graph.getTypeGraphs();
+    }
     return typeGraphs.get(t);
   }
 
   public static int getTypeCapacity(int t) {
-    if (t >= stats.size()) {
-      return 0;
-    }
-    return stats.get(t).capacity;
+    return TypeRegistry.getCapacity(t);
   }
 
   public static int getTotalCapacity() {
-    if (totalCapacity == 0)
-        for (int i = 0; i < numTypes; i++) {
-          totalCapacity += getTypeCapacity(i);
-        }
-
-    return totalCapacity;
+    return TypeRegistry.getTotalCapacity();
   }
 
   public static int getActiveJobsOfType(int t) {
-    if (t >= nodeLists.size()) {
-      return 0;
-    }
     int jobCount = 0;
-    for (MycoNode n : nodeLists.get(t)) {
+    for (MycoNode n : TypeRegistry.getNodes(t)) {
       HyphaData d = n.getHyphaData();
       jobCount += d.getQueueLength();
     }
@@ -170,21 +161,13 @@ public class TypeObserver implements Control {
   }
 
   public static void updateStats() {
-    log.fine("Num Types: " + numTypes + " Type Graphs: "
-             + typeGraphs.size());
+    log.fine("Num Types: " + numTypes);
 
     for (int t = 0; t < numTypes; t++) {
-      Graph<MycoNode, MycoEdge> tg = typeGraphs.get(t);
       TypeStats s = stats.get(t);
 
-      s.count = tg.getVertexCount();
-      for (MycoNode n : tg.getVertices()) {
-        if (n.getHyphaData().isDead()) {
-          s.count--;
-          continue;
-        }
-        s.capacity += n.getHyphaData().getMaxCapacity();
-      }
+      s.count = TypeRegistry.count(t);
+      s.capacity = TypeRegistry.getCapacity(t);
       // log.finer(s.toString());
 
       /* Don't calc - blows heap for 5,000 nodes
@@ -201,39 +184,17 @@ public class TypeObserver implements Control {
   }
 
   public static MycoNode getRandomNodeOfType(int type) {
-    if (type > nodeLists.size() || (nodeLists.get(type).size() == 0)) {
-      return null;
-    }
-    MycoList nl = nodeLists.get(type);
-    return nl.get(generator.nextInt(nl.size()));
+    return TypeRegistry.pick(type);
   }
 
 
-  public void updateNodeLists() {
-    log.fine("Updating lists of nodes by type");
-
-    for (MycoList l : nodeLists) {
-      l.clear();
-    }
-
-    while (nodeLists.size() < numTypes) {
-      nodeLists.add(new MycoList());
-    }
-    for (int t = 0; t < nodeLists.size(); t++) {
-      nodeLists.get(t).addAll(typeGraphs.get(t).getVertices());
-    }
-  }
-
-
-
   public boolean execute() {
     if (CDState.getCycle() % period != 0)
         return false;
 
     resetStats();
 
-    typeGraphs = graph.getTypeGraphs();
-    updateNodeLists();
+    typeGraphs = null;
 
     updateStats();
 
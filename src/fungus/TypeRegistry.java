@@ -0,0 +1,217 @@
+/* Copyright (c) 2014, Paul L. Snyder <paul@pataprogramming.com>,
+ * Daniel Dubois, Nicolo Calcavecchia.
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option)
+ * Any later version. It may also be redistributed and/or modified under the
+ * terms of the BSD 3-Clause License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+
+
+package fungus;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import peersim.core.CommonState;
+
+// Live nodes filed by (service type, HyphaType), alongside MycoCast's
+// per-state sets.  HyphaData refiles a node whenever its type, state
+// or capacity changes, so per-type counts, capacity sums and random
+// picks are O(1) and always current.  Dead nodes are dropped.
+
+public class TypeRegistry {
+
+  private static Logger log = Logger.getLogger(TypeRegistry.class.getName());
+
+  private static final HyphaType[] states = HyphaType.values();
+
+  // What each node was last filed under
+  private static class Entry {
+    int type;
+    HyphaType state;
+    int capacity;
+  }
+
+  private static Map<MycoNode,Entry> entries =
+      new HashMap<MycoNode,Entry>();
+  // sets.get(type)[state.ordinal()]
+  private static List<IndexedNodeSet[]> sets =
+      new ArrayList<IndexedNodeSet[]>();
+  private static int[] capacity = new int[0];
+  private static long totalCapacity = 0;
+
+  private static IndexedNodeSet[] setsFor(int type) {
+    while (sets.size() <= type) {
+      IndexedNodeSet[] s = new IndexedNodeSet[states.length];
+      for (int i = 0; i < s.length; i++) {
+        s[i] = new IndexedNodeSet();
+      }
+      sets.add(s);
+    }
+    if (capacity.length < sets.size()) {
+      capacity = Arrays.copyOf(capacity, sets.size());
+    }
+    return sets.get(type);
+  }
+
+  // Bring n's filing up to date with its HyphaData
+  public static void refile(MycoNode n) {
+    HyphaData d = n.getHyphaData();
+    Entry e = entries.get(n);
+    if (d.isDead()) {
+      if (e != null) {
+        unfile(n, e);
+        entries.remove(n);
+      }
+      return;
+    }
+    if (e != null) {
+      if (e.type == d.getType() && e.state == d.getState()
+          && e.capacity == d.getMaxCapacity()) {
+        return;
+      }
+      unfile(n, e);
+    } else {
+      e = new Entry();
+      entries.put(n, e);
+    }
+    e.type = d.getType();
+    e.state = d.getState();
+    e.capacity = d.getMaxCapacity();
+    log.log(Level.FINEST, n + " FILED AS TYPE " + e.type + " " + e.state, n);
+    setsFor(e.type)[e.state.ordinal()].add(n);
+    capacity[e.type] += e.capacity;
+    totalCapacity += e.capacity;
+  }
+
+  public static void remove(MycoNode n) {
+    Entry e = entries.remove(n);
+    if (e != null) {
+      unfile(n, e);
+    }
+  }
+
+  private static void unfile(MycoNode n, Entry e) {
+    sets.get(e.type)[e.state.ordinal()].remove(n);
+    capacity[e.type] -= e.capacity;
+    totalCapacity -= e.capacity;
+  }
+
+  // Each set is written in its current order, along with the capacity
+  // each member was filed with
+  static void writeState(SnapshotOutput out) throws IOException {
+    out.putInt(sets.size());
+    for (IndexedNodeSet[] byState : sets) {
+      for (IndexedNodeSet set : byState) {
+        out.putInt(set.size());
+        for (MycoNode n : set) {
+          out.putNode(n);
+          out.putInt(entries.get(n).capacity);
+        }
+      }
+    }
+  }
+
+  static void readState(SnapshotInput in) {
+    entries.clear();
+    sets.clear();
+    capacity = new int[0];
+    totalCapacity = 0;
+    int types = in.getInt();
+    for (int type = 0; type < types; type++) {
+      IndexedNodeSet[] byState = setsFor(type);
+      for (int i = 0; i < states.length; i++) {
+        for (int k = in.getInt(); k > 0; k--) {
+          MycoNode n = in.getNode();
+          int c = in.getInt();
+          if (n == null) {
+            continue;
+          }
+          Entry e = new Entry();
+          e.type = type;
+          e.state = states[i];
+          e.capacity = c;
+          entries.put(n, e);
+          byState[i].add(n);
+          capacity[type] += c;
+          totalCapacity += c;
+        }
+      }
+    }
+  }
+
+  public static int count(int type) {
+    if (type < 0 || type >= sets.size()) {
+      return 0;
+    }
+    return IndexedNodeSet.count(sets.get(type));
+  }
+
+  public static int count(int type, HyphaType state) {
+    if (type < 0 || type >= sets.size()) {
+      return 0;
+    }
+    return sets.get(type)[state.ordinal()].size();
+  }
+
+  public static int getCapacity(int type) {
+    if (type < 0 || type >= capacity.length) {
+      return 0;
+    }
+    return capacity[type];
+  }
+
+  public static int getTotalCapacity() {
+    return (int) totalCapacity;
+  }
+
+  // Uniformly random live node of the given type, or null
+  public static MycoNode pick(int type) {
+    if (type < 0 || type >= sets.size()) {
+      return null;
+    }
+    return IndexedNodeSet.sample(CommonState.r, sets.get(type));
+  }
+
+  // Uniformly random node of the given type in one of the given
+  // states, or null
+  public static MycoNode pick(int type, HyphaType... ts) {
+    if (type < 0 || type >= sets.size()) {
+      return null;
+    }
+    IndexedNodeSet[] s = sets.get(type);
+    IndexedNodeSet[] chosen = new IndexedNodeSet[ts.length];
+    for (int i = 0; i < ts.length; i++) {
+      chosen[i] = s[ts[i].ordinal()];
+    }
+    return IndexedNodeSet.sample(CommonState.r, chosen);
+  }
+
+  // All live nodes of the given type (a copy)
+  public static MycoList getNodes(int type) {
+    MycoList ret = new MycoList();
+    if (type >= 0 && type < sets.size()) {
+      for (IndexedNodeSet s : sets.get(type)) {
+        ret.addAll(s);
+      }
+    }
+    return ret;
+  }
+}
@@ -51,7 +51,8 @@ public class UniformInitializer implements Control {
     max = Configuration.getDouble(name + "." + PAR_MAX);
     intmax = (new Double(max)).intValue();
     this.generator =
-        new cern.jet.random.engine.MersenneTwister(new java.util.Date());
+        new cern.jet.random.engine.MersenneTwister(RandomStreams.of(name)
+                                                   .nextInt(Integer.MAX_VALUE));
     this.distribution = new cern.jet.random.Uniform(1.0,max,generator);
     //            new cern.jet.random.engine.MersenneTwister(new java.util.Date());
   }
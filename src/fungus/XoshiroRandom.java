@@ -0,0 +1,181 @@
+/* Copyright (c) 2014, Paul L. Snyder <paul@pataprogramming.com>,
+ * Daniel Dubois, Nicolo Calcavecchia.
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option)
+ * Any later version. It may also be redistributed and/or modified under the
+ * terms of the BSD 3-Clause License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+
+
+package fungus;
+
+import peersim.util.ExtendedRandom;
+
+// xoshiro256** generator (Blackman and Vigna) behind the Random
+// interface.  It is several times faster than java.util.Random, whose
+// every draw is a compare-and-set on a shared seed, and has a 2^256
+// period with jump() to cut it into 2^128 non-overlapping streams.
+// Instances are not thread-safe; each thread or node should own one
+// (see RandomStreams).
+//
+// It can also replace the global generator:
+//
+//   random fungus.XoshiroRandom
+
+public class XoshiroRandom extends ExtendedRandom {
+
+  private static final long serialVersionUID = 1L;
+
+  private static final long[] JUMP = {
+    0x180ec6d33cfd0abaL, 0xd5a61266f0c9392cL,
+    0xa9582618e03fc9aaL, 0x39abdc4529b1661cL
+  };
+
+  private long s0;
+  private long s1;
+  private long s2;
+  private long s3;
+
+  // For the "random" configuration key; CommonState seeds it right
+  // after construction
+  public XoshiroRandom(String prefix) {
+    this(0L);
+  }
+
+  public XoshiroRandom(long seed) {
+    super(seed);
+  }
+
+  // SplitMix64 finalizer, used to expand seeds and to derive
+  // well-separated seeds from related values such as node IDs
+  public static long mix(long z) {
+    z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+    z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+    return z ^ (z >>> 31);
+  }
+
+  public void setSeed(long seed) {
+    super.setSeed(seed);
+    long z = seed;
+    s0 = mix(z += 0x9e3779b97f4a7c15L);
+    s1 = mix(z += 0x9e3779b97f4a7c15L);
+    s2 = mix(z += 0x9e3779b97f4a7c15L);
+    s3 = mix(z += 0x9e3779b97f4a7c15L);
+  }
+
+  public long nextLong() {
+    long ret = Long.rotateLeft(s1 * 5, 7) * 9;
+    long t = s1 << 17;
+    s2 ^= s0;
+    s3 ^= s1;
+    s1 ^= s2;
+    s0 ^= s3;
+    s2 ^= t;
+    s3 = Long.rotateLeft(s3, 45);
+    return ret;
+  }
+
+  protected int next(int bits) {
+    return (int) (nextLong() >>> (64 - bits));
+  }
+
+  public int nextInt() {
+    return (int) (nextLong() >>> 32);
+  }
+
+  // Lemire's multiply-and-reject; unbiased, and almost never loops
+  public int nextInt(int bound) {
+    if (bound <= 0) {
+      throw new IllegalArgumentException("bound must be positive");
+    }
+    long m = (nextLong() >>> 32) * bound;
+    if ((m & 0xffffffffL) < bound) {
+      long threshold = (0x100000000L - bound) % bound;
+      while ((m & 0xffffffffL) < threshold) {
+        m = (nextLong() >>> 32) * bound;
+      }
+    }
+    return (int) (m >>> 32);
+  }
+
+  public double nextDouble() {
+    return (nextLong() >>> 11) * 0x1.0p-53;
+  }
+
+  public float nextFloat() {
+    return (nextLong() >>> 40) * 0x1.0p-24f;
+  }
+
+  public boolean nextBoolean() {
+    return nextLong() < 0;
+  }
+
+  // Fill dst with uniform ints in [0, bound)
+  public void nextInts(int[] dst, int bound) {
+    for (int i = 0; i < dst.length; i++) {
+      dst[i] = nextInt(bound);
+    }
+  }
+
+  // Fill dst with uniform doubles in [0, 1)
+  public void nextDoubles(double[] dst) {
+    for (int i = 0; i < dst.length; i++) {
+      dst[i] = (nextLong() >>> 11) * 0x1.0p-53;
+    }
+  }
+
+  // Raw generator state, for snapshots
+  long[] getState() {
+    return new long[] { s0, s1, s2, s3 };
+  }
+
+  void setState(long[] s) {
+    s0 = s[0];
+    s1 = s[1];
+    s2 = s[2];
+    s3 = s[3];
+  }
+
+  // Advance by 2^128 draws
+  public void jump() {
+    long t0 = 0, t1 = 0, t2 = 0, t3 = 0;
+    for (long j : JUMP) {
+      for (int b = 0; b < 64; b++) {
+        if ((j & (1L << b)) != 0) {
+          t0 ^= s0;
+          t1 ^= s1;
+          t2 ^= s2;
+          t3 ^= s3;
+        }
+        nextLong();
+      }
+    }
+    s0 = t0;
+    s1 = t1;
+    s2 = t2;
+    s3 = t3;
+  }
+
+  // Hand off the current stream and jump past it, so the returned
+  // generator and this one never overlap
+  public XoshiroRandom split() {
+    XoshiroRandom ret = new XoshiroRandom(getLastSeed());
+    ret.s0 = s0;
+    ret.s1 = s1;
+    ret.s2 = s2;
+    ret.s3 = s3;
+    jump();
+    return ret;
+  }
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright (c) 2003-2005 The BISON Project
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License version 2 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ */
+
+package peersim;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import peersim.config.*;
+import peersim.core.*;
+
+/**
+* Runs several simulations concurrently in one JVM, each in its own
+* {@link SimulationContext}. Every configuration file given on the command
+* line is run once for each seed, or once with its own seed if no seeds
+* are given:
+<pre>
+java peersim.MultiSimulator [-threads N] [-seeds S1,S2,...] [-logs DIR]
+	config1 [config2 ...]
+</pre>
+* At most <code>N</code> runs execute at the same time (by default, one per
+* available processor). Each configuration is parsed once and copied into
+* its runs. The standard output and error of every run are written to
+* <code>DIR/[config]-[seed].log</code> (by default under
+* <code>logs</code>); a line per run is printed when it ends.
+* <p>
+* Runs share the JVM, so files written by the simulation must not collide:
+* the writers in this tree include the seed in their file names, but two
+* configurations with the same <code>config.basename</code> and seed will
+* overwrite each other's results.
+*/
+public class MultiSimulator
+{
+
+// ========================== static constants ==========================
+// ======================================================================
+
+/** Option giving the number of runs executed at the same time */
+private static final String OPT_THREADS = "-threads";
+
+/** Option giving a comma-separated list of seeds */
+private static final String OPT_SEEDS = "-seeds";
+
+/** Option giving the directory of the run logs */
+private static final String OPT_LOGS = "-logs";
+
+/** Name of the seed parameter, see {@link CommonState} */
+private static final String PAR_SEED = "random.seed";
+
+// ==================== methods =========================================
+// ======================================================================
+
+/**
+* Parses the command line and runs all the simulations, exiting with a
+* non-zero status if any of them failed.
+*/
+public static void main(String[] args) throws Exception
+{
+	SimulationContext.installStreams();
+
+	int threads = Runtime.getRuntime().availableProcessors();
+	List<String> seeds = new ArrayList<String>();
+	File logs = new File("logs");
+	List<String> configs = new ArrayList<String>();
+	for (int i = 0; i < args.length; ++i) {
+		if (args[i].equals(OPT_THREADS) && i + 1 < args.length) {
+			threads = Integer.parseInt(args[++i]);
+		} else if (args[i].equals(OPT_SEEDS) && i + 1 < args.length) {
+			seeds.addAll(Arrays.asList(args[++i].split(",")));
+		} else if (args[i].equals(OPT_LOGS) && i + 1 < args.length) {
+			logs = new File(args[++i]);
+		} else {
+			configs.add(args[i]);
+		}
+	}
+	if (configs.isEmpty()) {
+		System.err.println("Usage: MultiSimulator [" + OPT_THREADS +
+			" N] [" + OPT_SEEDS + " S1,S2,...] [" + OPT_LOGS +
+			" DIR] config1 [config2 ...]");
+		System.exit(1);
+	}
+	logs.mkdirs();
+
+	ExecutorService pool = Executors.newFixedThreadPool(threads);
+	Map<String,Future<Long>> runs = new LinkedHashMap<String,Future<Long>>();
+	for (String file : configs) {
+		Properties config = new ParsedProperties(new String[] { file });
+		String base = new File(file).getName().replaceFirst("\\.[^.]*$", "");
+		if (seeds.isEmpty()) {
+			String name = base + "-" + config.getProperty(PAR_SEED, "0");
+			runs.put(name, pool.submit(task(name, config, logs)));
+		}
+		for (String seed : seeds) {
+			Properties p = new Properties();
+			p.putAll(config);
+			p.setProperty(PAR_SEED, seed.trim());
+			String name = base + "-" + seed.trim();
+			runs.put(name, pool.submit(task(name, p, logs)));
+		}
+	}
+	pool.shutdown();
+
+	int failed = 0;
+	for (Map.Entry<String,Future<Long>> e : runs.entrySet()) {
+		try {
+			long ms = e.getValue().get();
+			System.err.println("MultiSimulator: " + e.getKey() +
+				" done in " + ms + " ms");
+		} catch (ExecutionException ex) {
+			System.err.println("MultiSimulator: " + e.getKey() +
+				" failed: " + ex.getCause());
+			failed++;
+		}
+	}
+	System.err.println("MultiSimulator: " + (runs.size() - failed) + "/" +
+		runs.size() + " runs completed");
+	if (failed > 0) System.exit(1);
+}
+
+// ----------------------------------------------------------------------
+
+/**
+* Returns a task that runs the configuration in a new context, logging to
+* a file named after the run, and returns the run time in milliseconds.
+*/
+private static Callable<Long> task(final String name,
+	final Properties config, final File logs)
+{
+	return new Callable<Long>() {
+		public Long call() throws Exception
+		{
+			File f = new File(logs, name + ".log");
+			PrintStream log = new PrintStream(
+				new BufferedOutputStream(new FileOutputStream(f)), false);
+			long time = System.currentTimeMillis();
+			try {
+				new SimulationContext(name, config, log, log).run();
+			} catch (Exception e) {
+				e.printStackTrace(log);
+				throw e;
+			} finally {
+				log.close();
+			}
+			return System.currentTimeMillis() - time;
+		}
+	};
+}
+
+}
@@ -0,0 +1,409 @@
+/*
+ * Copyright (c) 2003-2005 The BISON Project
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License version 2 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ */
+
+package peersim;
+
+import java.io.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.nio.file.attribute.*;
+import java.security.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import peersim.config.*;
+import peersim.rangesim.*;
+
+/**
+* A cache of the output files of finished experiments, so that a parameter
+* sweep run again (for example after adding values to a range) only runs
+* the experiments it has not run before.
+* <p>
+* An experiment is identified by a key: a hash of all its configuration
+* properties, its random seed and the version of the code. Properties that
+* only control how experiments are launched (those of this class, of
+* {@link peersim.rangesim.RangeSimulator}, {@value Simulator#PAR_EXPS} and
+* {@value Simulator#PAR_REDIRECT}) are left out. Unless
+* {@value #PAR_VERSION} is given, the version is a digest of the class
+* and jar files on the class path, so any rebuild invalidates the cache.
+* <p>
+* Writers register the files they write with {@link #addOutput}; when an
+* experiment ends, what it appended to them is stored under its key in
+* {@value #PAR_DIR}. When an experiment with the same key is started again,
+* {@link Simulator} and {@link peersim.rangesim.RangeSimulator} append the
+* stored contents to the same files instead of running it. Only registered
+* files are restored: the standard output of the experiment and the files
+* of writers that do not register them are not produced on a hit.
+* <p>
+* The cache is disabled if {@value #PAR_DIR} is not set, and in runs split
+* across replica processes (see {@link ReplicaChannel}), which must all
+* run.
+*/
+public class ResultCache
+{
+
+// ========================== static constants ==========================
+// ======================================================================
+
+/**
+ * The directory of the cache. Several sweeps, also concurrent ones, can
+ * share it. If not set, no experiment is cached.
+ * @config
+ */
+public static final String PAR_DIR = "cache.dir";
+
+/**
+ * The version of the code, part of the key of every experiment. If not
+ * set, a digest of the class and jar files on the class path is used.
+ * @config
+ */
+public static final String PAR_VERSION = "cache.version";
+
+/** Properties (or prefixes of properties) not included in the key */
+private static final String[] IGNORED = {
+	"cache.",
+	"jvm.",
+	"range.",
+	Simulator.PAR_EXPS,
+	Simulator.PAR_REDIRECT,
+};
+
+/** Directory of an entry holding the output files */
+private static final String OUTPUTS = "outputs";
+
+/** File of an entry holding the text the key was computed from */
+private static final String KEY = "key.txt";
+
+/** File of an entry holding the seed drawn after the experiment */
+private static final String NEXT_SEED = "next-seed.txt";
+
+// ==================== static fields ===================================
+// ======================================================================
+
+/** The files written by the running experiment, with their initial size */
+private static final Map<File,Long> outputs = new LinkedHashMap<File,Long>();
+
+/** Number of experiments found in the cache */
+private static int hits = 0;
+
+/** Number of experiments not found in the cache */
+private static int misses = 0;
+
+// ==================== methods =========================================
+// ======================================================================
+
+/**
+* Returns true if experiments of the current configuration are cached.
+*/
+public static boolean isEnabled()
+{
+	return Configuration.contains(PAR_DIR) && !ReplicaChannel.isReplicated();
+}
+
+// ----------------------------------------------------------------------
+
+/**
+* Returns the key of an experiment.
+* @param config all the properties of the experiment, as returned by
+* {@link Configuration#snapshot}
+* @param seed the seed the experiment is started with
+*/
+public static String key(SortedMap<String,String> config, long seed)
+{
+	try {
+		MessageDigest md = MessageDigest.getInstance("SHA-256");
+		return hex(md.digest(keyText(config, seed).getBytes(
+			StandardCharsets.UTF_8)));
+	} catch (NoSuchAlgorithmException e) {
+		throw new IllegalStateException(e);
+	}
+}
+
+// ----------------------------------------------------------------------
+
+/**
+* Returns the properties of the given object, sorted by name, as
+* {@link #key} expects them.
+*/
+public static SortedMap<String,String> sorted(Properties p)
+{
+	SortedMap<String,String> map = new TreeMap<String,String>();
+	for (String name : p.stringPropertyNames())
+		map.put(name, p.getProperty(name));
+	return map;
+}
+
+// ----------------------------------------------------------------------
+
+/**
+* Looks up an experiment, counting it as a hit or a miss. On a hit the
+* stored contents are appended to the output files, and the seed that
+* {@link Simulator} draws for the following experiment is returned.
+* @return the next seed, or null if the experiment is not in the cache
+*/
+public static Long restore(String key)
+{
+	File entry = new File(Configuration.getString(PAR_DIR), key);
+	File next = new File(entry, NEXT_SEED);
+	if (!next.isFile()) {
+		misses++;
+		outputs.clear();
+		return null;
+	}
+	try {
+		final Path dir = new File(entry, OUTPUTS).toPath();
+		final List<Path> files = new ArrayList<Path>();
+		if (Files.isDirectory(dir)) {
+			Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+				public FileVisitResult visitFile(Path f,
+					BasicFileAttributes a)
+				{
+					files.add(f);
+					return FileVisitResult.CONTINUE;
+				}
+			});
+		}
+		for (Path f : files) {
+			File target = new File(dir.relativize(f).toString());
+			if (target.getParentFile() != null)
+				target.getParentFile().mkdirs();
+			OutputStream out = new FileOutputStream(target, true);
+			try {
+				Files.copy(f, out);
+			} finally {
+				out.close();
+			}
+		}
+		String seed = new String(Files.readAllBytes(next.toPath()),
+			StandardCharsets.UTF_8).trim();
+		hits++;
+		return Long.valueOf(seed);
+	} catch (IOException e) {
+		throw new RuntimeException("Cannot restore cached experiment " +
+			entry, e);
+	}
+}
+
+// ----------------------------------------------------------------------
+
+/**
+* Registers a file written by the running experiment. Only what is
+* written after this call is stored, as the file may be appended to.
+*/
+public static void addOutput(File f)
+{
+	if (!outputs.containsKey(f))
+		outputs.put(f, f.length());
+}
+
+// ----------------------------------------------------------------------
+
+/**
+* Stores the output files registered since the last {@link #restore} under
+* the key of the experiment that has just ended. Failures are reported
+* and otherwise ignored, since the results of the experiment are safe on
+* disk anyway.
+* @param key the key of the experiment
+* @param config the properties the key was computed from
+* @param seed the seed of the experiment
+* @param next the seed drawn for the following experiment
+*/
+public static void store(String key, SortedMap<String,String> config,
+	long seed, long next)
+{
+	File root = new File(Configuration.getString(PAR_DIR));
+	Path cwd = new File("").getAbsoluteFile().toPath();
+	Path tmp = null;
+	try {
+		root.mkdirs();
+		tmp = Files.createTempDirectory(root.toPath(), key + ".");
+		for (Map.Entry<File,Long> e : outputs.entrySet()) {
+			Path name = cwd.relativize(e.getKey().getAbsoluteFile().toPath());
+			if (name.startsWith(".."))
+				throw new IOException(e.getKey() +
+					" is outside of the working directory");
+			Path target = tmp.resolve(OUTPUTS).resolve(name);
+			Files.createDirectories(target.getParent());
+			FileChannel in = FileChannel.open(e.getKey().toPath());
+			try {
+				in.position(e.getValue());
+				Files.copy(Channels.newInputStream(in), target);
+			} finally {
+				in.close();
+			}
+		}
+		Files.write(tmp.resolve(KEY),
+			keyText(config, seed).getBytes(StandardCharsets.UTF_8));
+		Files.write(tmp.resolve(NEXT_SEED),
+			(next + "\n").getBytes(StandardCharsets.UTF_8));
+		try {
+			Files.move(tmp, new File(root, key).toPath(),
+				StandardCopyOption.ATOMIC_MOVE);
+			tmp = null;
+		} catch (FileAlreadyExistsException e) {
+			// stored meanwhile by a concurrent run of the same experiment
+		} catch (DirectoryNotEmptyException e) {
+			// idem
+		}
+	} catch (IOException e) {
+		System.err.println("ResultCache: cannot store experiment " + key +
+			": " + e);
+	} finally {
+		outputs.clear();
+		if (tmp != null) delete(tmp.toFile());
+	}
+}
+
+// ----------------------------------------------------------------------
+
+/** Returns the number of experiments found in the cache so far */
+public static int getHits()
+{
+	return hits;
+}
+
+// ----------------------------------------------------------------------
+
+/** Returns the number of experiments not found in the cache so far */
+public static int getMisses()
+{
+	return misses;
+}
+
+// ----------------------------------------------------------------------
+
+/** Returns a line reporting the hits and misses so far */
+public static String report()
+{
+	return "ResultCache: " + hits + " experiments found in the cache, " +
+		misses + " run";
+}
+
+// ----------------------------------------------------------------------
+
+/** Returns the text hashed into the key of an experiment */
+private static String keyText(SortedMap<String,String> config, long seed)
+{
+	StringBuilder b = new StringBuilder();
+	b.append("version ").append(version()).append('\n');
+	b.append("seed ").append(seed).append('\n');
+	for (Map.Entry<String,String> e : config.entrySet()) {
+		if (isIgnored(e.getKey())) continue;
+		b.append(e.getKey()).append('=').append(e.getValue().trim());
+		b.append('\n');
+	}
+	return b.toString();
+}
+
+// ----------------------------------------------------------------------
+
+/** Returns true if the property is not part of the key */
+private static boolean isIgnored(String name)
+{
+	for (String s : IGNORED)
+		if (name.startsWith(s)) return true;
+	return false;
+}
+
+// ----------------------------------------------------------------------
+
+/**
+* Returns {@value #PAR_VERSION}, or else the digest of the class path,
+* computed once for the JVM.
+*/
+private static String version()
+{
+	String v = Configuration.getString(PAR_VERSION, null);
+	if (v != null) return v;
+	return SimulationContext.shared(ResultCache.class.getName(),
+		new Callable<String>() {
+			public String call() throws IOException
+			{
+				return classPathDigest();
+			}
+		});
+}
+
+// ----------------------------------------------------------------------
+
+/**
+* Returns a digest of the names and contents of the class and jar files
+* on the class path. Other files are left out, since the working directory
+* of the simulation, where it writes its results, may be on the class
+* path.
+*/
+private static String classPathDigest() throws IOException
+{
+	final MessageDigest md;
+	try {
+		md = MessageDigest.getInstance("SHA-256");
+	} catch (NoSuchAlgorithmException e) {
+		throw new IllegalStateException(e);
+	}
+	String path = System.getProperty("java.class.path");
+	for (String entry : path.split(File.pathSeparator)) {
+		final Path root = new File(entry).toPath();
+		if (Files.isRegularFile(root)) {
+			md.update(root.getFileName().toString().getBytes(
+				StandardCharsets.UTF_8));
+			md.update(Files.readAllBytes(root));
+		} else if (Files.isDirectory(root)) {
+			final SortedMap<String,Path> files = new TreeMap<String,Path>();
+			Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+				public FileVisitResult visitFile(Path f,
+					BasicFileAttributes a)
+				{
+					String name = root.relativize(f).toString();
+					if (name.endsWith(".class") || name.endsWith(".jar"))
+						files.put(name, f);
+					return FileVisitResult.CONTINUE;
+				}
+			});
+			for (Map.Entry<String,Path> e : files.entrySet()) {
+				md.update(e.getKey().getBytes(StandardCharsets.UTF_8));
+				md.update(Files.readAllBytes(e.getValue()));
+			}
+		}
+	}
+	return hex(md.digest());
+}
+
+// ----------------------------------------------------------------------
+
+/** Returns the bytes as hexadecimal digits */
+private static String hex(byte[] bytes)
+{
+	StringBuilder b = new StringBuilder();
+	for (byte x : bytes)
+		b.append(String.format("%02x", x & 0xff));
+	return b.toString();
+}
+
+// ----------------------------------------------------------------------
+
+/** Deletes a file or a directory with its contents */
+private static void delete(File f)
+{
+	File[] files = f.listFiles();
+	if (files != null)
+		for (File c : files) delete(c);
+	f.delete();
+}
+
+}
@@ -0,0 +1,404 @@
+/*
+ * Copyright (c) 2003-2005 The BISON Project
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License version 2 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ */
+
+package peersim;
+
+import java.io.*;
+import java.lang.reflect.*;
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.logging.*;
+
+/**
+* An isolated run of the simulator inside a shared JVM.
+* <p>
+* Almost all simulation state (the network, {@link peersim.core.CommonState},
+* the configuration and every static registry of the protocols) lives in
+* static fields. Rather than threading an explicit context through all of
+* them, each context loads its own copy of the simulator classes through a
+* private class loader, so the statics of one run are simply not visible
+* to another. Classes outside the isolated packages (the JDK, the libraries
+* on the classpath and this class itself) are shared by all contexts.
+* <p>
+* A context is run on the calling thread with {@link #run}. While it runs,
+* {@link #current} returns it on that thread and on threads started from
+* it, and anything printed to <code>System.out</code> or
+* <code>System.err</code> is sent to the streams of the context (see
+* {@link #installStreams}). Data that is immutable and expensive to build
+* can be computed once for all contexts with {@link #shared}.
+* @see MultiSimulator
+*/
+public class SimulationContext
+{
+
+// ========================== static constants ==========================
+// ======================================================================
+
+/** Package prefixes loaded separately for each context by default */
+public static final String[] ISOLATED = { "peersim.", "fungus." };
+
+/** Classes that must be shared even though they are in an isolated
+* package: this class and the launchers that drive it */
+private static final String[] SHARED = {
+	"peersim.SimulationContext",
+	"peersim.MultiSimulator",
+};
+
+// ==================== static fields ===================================
+// ======================================================================
+
+/** The context of the running thread, inherited by new threads */
+private static final InheritableThreadLocal<SimulationContext> active =
+	new InheritableThreadLocal<SimulationContext>();
+
+/** Values computed once for all contexts */
+private static final ConcurrentMap<String,Object> sharedValues =
+	new ConcurrentHashMap<String,Object>();
+
+/** The streams in place before {@link #installStreams} */
+private static PrintStream defaultOut = null;
+
+/** The streams in place before {@link #installStreams} */
+private static PrintStream defaultErr = null;
+
+// ==================== fields ==========================================
+// ======================================================================
+
+/** Name of the run, used in messages */
+private final String name;
+
+/** The configuration of this run, owned by the context */
+private final Properties config;
+
+/** Standard output of this run */
+private final PrintStream out;
+
+/** Standard error of this run */
+private final PrintStream err;
+
+/** Package prefixes loaded separately for this context */
+private final String[] isolated;
+
+/** The stream given by {@value Simulator#PAR_REDIRECT}, if any */
+private volatile PrintStream redirect = null;
+
+/** The loader of this context while it runs */
+private ClassLoader loader = null;
+
+// ==================== initialization ==================================
+// ======================================================================
+
+/**
+* Creates a context that runs the given configuration. The properties are
+* copied, so the caller may reuse or modify them afterwards.
+* @param name the name of the run, used in messages
+* @param config the configuration of the run
+* @param out where the standard output of the run is sent
+* @param err where the standard error of the run is sent
+*/
+public SimulationContext(String name, Properties config, PrintStream out,
+	PrintStream err)
+{
+	this(name, config, out, err, ISOLATED);
+}
+
+// ----------------------------------------------------------------------
+
+/**
+* Creates a context that also isolates the classes in the given package
+* prefixes. These should include {@link #ISOLATED}; add to them any
+* package that keeps simulation state in static fields.
+*/
+public SimulationContext(String name, Properties config, PrintStream out,
+	PrintStream err, String[] isolated)
+{
+	this.name = name;
+	this.config = new Properties();
+	this.config.putAll(config);
+	this.out = out;
+	this.err = err;
+	this.isolated = isolated.clone();
+}
+
+// ==================== methods =========================================
+// ======================================================================
+
+/**
+* Returns the context of the running thread, or null if the thread is
+* not running inside a context.
+*/
+public static SimulationContext current()
+{
+	return active.get();
+}
+
+// ----------------------------------------------------------------------
+
+/**
+* Returns the standard output of the context of the running thread, or
+* <code>System.out</code> outside of any context. A stream that wraps the
+* standard output, as configured by {@value Simulator#PAR_REDIRECT}, must
+* write to this stream: inside a context <code>System.out</code> leads back
+* to the wrapping stream itself.
+*/
+public static PrintStream stdout()
+{
+	SimulationContext c = active.get();
+	return c == null ? System.out : c.out;
+}
+
+// ----------------------------------------------------------------------
+
+/** Returns the name given to this context */
+public String getName()
+{
+	return name;
+}
+
+// ----------------------------------------------------------------------
+
+/**
+* Returns the value stored under the key, computing it first if no
+* context has done so yet. The value must not be modified after it is
+* returned, since every context sees the same object. Two contexts asking
+* at the same time may both compute it; only one of the values is kept.
+* @param key a name unique to the caller, e.g. its class name
+* @param builder computes the value
+*/
+@SuppressWarnings("unchecked")
+public static <T> T shared(String key, Callable<T> builder)
+{
+	Object v = sharedValues.get(key);
+	if (v == null) {
+		try {
+			v = builder.call();
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+		Object old = sharedValues.putIfAbsent(key, v);
+		if (old != null) v = old;
+	}
+	return (T) v;
+}
+
+// ----------------------------------------------------------------------
+
+/**
+* Replaces <code>System.out</code> and <code>System.err</code> with
+* streams that send each write to the streams of the context of the
+* writing thread, or to the original streams outside of any context.
+* This must be done before the contexts start, and before anything (for
+* example a logging handler) keeps a reference to the original streams.
+* Calling it more than once has no further effect.
+*/
+public static synchronized void installStreams()
+{
+	if (defaultOut != null) return;
+	defaultOut = System.out;
+	defaultErr = System.err;
+	System.setOut(new PrintStream(new Router(false), true));
+	System.setErr(new PrintStream(new Router(true), true));
+}
+
+// ----------------------------------------------------------------------
+
+/**
+* Runs all the experiments of this context on the calling thread, as
+* {@link Simulator#main} would. If {@value Simulator#PAR_REDIRECT} is set,
+* the standard output of the context is sent through the configured stream.
+* Exceptions thrown by the simulation are passed on unchanged. A context
+* can be run only once.
+*/
+public void run() throws Exception
+{
+	synchronized (this) {
+		if (loader != null)
+			throw new IllegalStateException(
+				"Context " + name + " has already been run");
+		loader = new Loader(classPath(), getClass().getClassLoader());
+	}
+
+	SimulationContext outer = active.get();
+	Thread thread = Thread.currentThread();
+	ClassLoader outerLoader = thread.getContextClassLoader();
+	active.set(this);
+	thread.setContextClassLoader(loader);
+	try {
+		Class<?> c = loader.loadClass("peersim.config.Configuration");
+		c.getMethod("setConfig", Properties.class).invoke(null, config);
+		redirect = (PrintStream) c.getMethod("getInstance", String.class,
+			Object.class).invoke(null, Simulator.PAR_REDIRECT, null);
+		c = loader.loadClass("peersim.Simulator");
+		c.getMethod("runExperiments").invoke(null);
+	} catch (InvocationTargetException e) {
+		Throwable t = e.getCause();
+		if (t instanceof Exception) throw (Exception) t;
+		if (t instanceof Error) throw (Error) t;
+		throw e;
+	} finally {
+		if (redirect != null) redirect.flush();
+		out.flush();
+		err.flush();
+		releaseHandlers();
+		thread.setContextClassLoader(outerLoader);
+		active.set(outer);
+		try {
+			((URLClassLoader) loader).close();
+		} catch (IOException e) {
+			// nothing we can do; the classes are already loaded
+		}
+	}
+}
+
+// ----------------------------------------------------------------------
+
+/**
+* Removes from the (JVM-wide) loggers the handlers installed by this
+* context, which would otherwise keep writing for a finished run and
+* keep all its classes alive.
+*/
+private void releaseHandlers()
+{
+	LogManager manager = LogManager.getLogManager();
+	Enumeration<String> names = manager.getLoggerNames();
+	while (names.hasMoreElements()) {
+		Logger logger = manager.getLogger(names.nextElement());
+		if (logger == null) continue;
+		for (Handler h : logger.getHandlers()) {
+			if (ownedBy(h) || ownedBy(h.getFormatter()) ||
+				ownedBy(h.getFilter())) {
+				logger.removeHandler(h);
+				h.close();
+			}
+		}
+	}
+}
+
+// ----------------------------------------------------------------------
+
+/** Returns true if the class of the object was loaded for this context */
+private boolean ownedBy(Object o)
+{
+	return o != null && o.getClass().getClassLoader() == loader;
+}
+
+// ----------------------------------------------------------------------
+
+/** Returns the class path of the JVM as URLs */
+private static URL[] classPath()
+{
+	String path = System.getProperty("java.class.path");
+	StringTokenizer t = new StringTokenizer(path, File.pathSeparator);
+	List<URL> urls = new ArrayList<URL>();
+	while (t.hasMoreTokens()) {
+		try {
+			urls.add(new File(t.nextToken()).toURI().toURL());
+		} catch (MalformedURLException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+	return urls.toArray(new URL[urls.size()]);
+}
+
+// ======================== inner classes ===============================
+// ======================================================================
+
+/**
+* Loads the isolated packages itself from the class path, and delegates
+* everything else to the parent.
+*/
+private class Loader extends URLClassLoader
+{
+
+	Loader(URL[] urls, ClassLoader parent)
+	{
+		super(urls, parent);
+	}
+
+	protected Class<?> loadClass(String cname, boolean resolve)
+	throws ClassNotFoundException
+	{
+		if (!isIsolated(cname)) return super.loadClass(cname, resolve);
+		synchronized (getClassLoadingLock(cname)) {
+			Class<?> c = findLoadedClass(cname);
+			if (c == null) {
+				try {
+					c = findClass(cname);
+				} catch (ClassNotFoundException e) {
+					return super.loadClass(cname, resolve);
+				}
+			}
+			if (resolve) resolveClass(c);
+			return c;
+		}
+	}
+
+	private boolean isIsolated(String cname)
+	{
+		for (String s : SHARED)
+			if (cname.equals(s) || cname.startsWith(s + "$")) return false;
+		for (String p : isolated)
+			if (cname.startsWith(p)) return true;
+		return false;
+	}
+}
+
+// ----------------------------------------------------------------------
+
+/**
+* Sends each write to the stream of the context of the writing thread.
+*/
+private static class Router extends OutputStream
+{
+
+	private final boolean error;
+
+	Router(boolean error)
+	{
+		this.error = error;
+	}
+
+	private PrintStream target()
+	{
+		SimulationContext c = active.get();
+		if (c == null) return error ? defaultErr : defaultOut;
+		if (error) return c.err;
+		PrintStream r = c.redirect;
+		return r == null ? c.out : r;
+	}
+
+	public void write(int b)
+	{
+		target().write(b);
+	}
+
+	public void write(byte[] b, int off, int len)
+	{
+		target().write(b, off, len);
+	}
+
+	public void flush()
+	{
+		target().flush();
+	}
+}
+
+}
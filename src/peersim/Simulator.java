@@ -19,6 +19,7 @@
 package peersim;
 
 import java.io.*;
+import java.util.*;
 
 import peersim.cdsim.*;
 import peersim.config.*;
@@ -110,6 +111,83 @@ public static int getSimID() {
 
 // ----------------------------------------------------------------------
 
+/**
+* Runs the experiments of the configuration already set through
+* {@link Configuration#setConfig}. This is {@link #main} without loading
+* the configuration, redirecting the output and exiting on errors, for
+* callers that drive the simulator themselves (see
+* {@link SimulationContext}). If {@value ResultCache#PAR_DIR} is set,
+* experiments found in the {@link ResultCache} are restored instead of
+* being run, and the others are stored in it.
+*/
+public static void runExperiments()
+{
+	int exps = Configuration.getInt(PAR_EXPS,1);
+
+	final int SIMID = getSimID();
+	if( SIMID == UNKNOWN )
+	{
+		System.err.println(
+		    "Simulator: unable to identify configuration, exiting.");
+		return;
+	}
+
+	// The properties are read before the first experiment, which may
+	// override some of them
+	boolean cached = ResultCache.isEnabled();
+	SortedMap<String,String> config = cached ? Configuration.snapshot() : null;
+
+	// The seed of the next experiment is drawn at the end of the previous
+	// one; if that was found in the cache, it is the seed drawn when the
+	// experiment was run
+	Long next = null;
+	for(int k=0; k<exps; ++k)
+	{
+		if( k>0 )
+		{
+			long seed = (next != null ? next : CommonState.r.nextLong());
+			CommonState.initializeRandom(seed);
+		}
+		long seed = CommonState.r.getLastSeed();
+		String key = null;
+		if( cached )
+		{
+			key = ResultCache.key(config, seed);
+			next = ResultCache.restore(key);
+			if( next != null )
+			{
+				System.err.println("Simulator: experiment "+k+
+					" with seed "+seed+" restored from the cache");
+				continue;
+			}
+		}
+		System.err.print("Simulator: starting experiment "+k);
+		System.err.println(" invoking "+simName[SIMID]);
+		System.err.println("Random seed: "+seed);
+		System.out.println("\n\n");
+
+		// XXX could be done through reflection, but
+		// this is easier to read.
+		switch(SIMID)
+		{
+		case CDSIM:
+			CDSimulator.nextExperiment();
+			break;
+		case EDSIM:
+			EDSimulator.nextExperiment();
+			break;
+		}
+		if( cached )
+		{
+			next = CommonState.r.nextLong();
+			ResultCache.store(key, config, seed, next);
+		}
+	}
+	if( cached && exps>1 ) System.err.println(ResultCache.report());
+}
+
+// ----------------------------------------------------------------------
+
 /**
 * Loads the configuration and executes the experiments.
 * The number of independent experiments is given by config parameter
@@ -157,44 +235,8 @@ public static void main(String[] args)
 		(PrintStream)Configuration.getInstance(PAR_REDIRECT,System.out);
 	if(newout!=System.out) System.setOut(newout);
 	
-	int exps = Configuration.getInt(PAR_EXPS,1);
-
-	final int SIMID = getSimID();
-	if( SIMID == UNKNOWN )
-	{
-		System.err.println(
-		    "Simulator: unable to identify configuration, exiting.");
-		return;
-	}
-	
 	try {
-
-		for(int k=0; k<exps; ++k)
-		{
-			if( k>0 )
-			{
-				long seed = CommonState.r.nextLong();
-				CommonState.initializeRandom(seed);
-			}
-			System.err.print("Simulator: starting experiment "+k);
-			System.err.println(" invoking "+simName[SIMID]);
-			System.err.println("Random seed: "+
-				CommonState.r.getLastSeed());
-			System.out.println("\n\n");
-			
-			// XXX could be done through reflection, but
-			// this is easier to read.
-			switch(SIMID)
-			{
-			case CDSIM:
-				CDSimulator.nextExperiment();
-				break;
-			case EDSIM:
-				EDSimulator.nextExperiment();
-				break;
-			}
-		}
-	
+		runExperiments();
 	} catch (MissingParameterException e) {
 		System.err.println(e+"");
 		System.exit(1);
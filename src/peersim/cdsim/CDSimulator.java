@@ -104,6 +104,9 @@ private static Control[] controls = null;
 /** Holds the control schedulers of this simulation */
 private static Scheduler[] ctrlSchedules = null;
 
+/** Tasks to run once the current experiment is completely over */
+private static List<Runnable> afterExperiment = new ArrayList<Runnable>();
+
 // =============== initialization ======================================
 // =====================================================================
 
@@ -195,8 +198,26 @@ public static final void nextExperiment()
 	// main cycle
 	loadControls();
 
+	// an initializer restoring a saved simulation may have moved the
+	// cycle on
 	System.err.println("CDSimulator: starting simulation");
-	for (int i = 0; i < cycles; ++i) {
+	runCycles(CDState.getCycle());
+
+	// tasks may register further tasks
+	while (!afterExperiment.isEmpty()) {
+		afterExperiment.remove(0).run();
+	}
+}
+
+// ---------------------------------------------------------------------
+
+/**
+ * Runs the loaded controls from cycle <code>from</code> to the end of the
+ * experiment, followed by the controls scheduled after the last cycle.
+ */
+private static void runCycles(int from)
+{
+	for (int i = from; i < cycles; ++i) {
 		CDState.setCycle(i);
 
 		boolean stop = false;
@@ -218,4 +239,34 @@ public static final void nextExperiment()
 	}
 }
 
+// ---------------------------------------------------------------------
+
+/**
+ * Registers a task to run after the current experiment, once its
+ * controls scheduled after the last cycle are done.
+ */
+public static void runAfterExperiment(Runnable task)
+{
+	afterExperiment.add(task);
+}
+
+// ---------------------------------------------------------------------
+
+/**
+ * Runs a branch of the experiment that just finished: loads a fresh set
+ * of controls from the (possibly changed) configuration and runs them
+ * from cycle <code>from</code> to the end, including the controls
+ * scheduled after the last cycle. The caller is responsible for putting
+ * the network into the state the branch starts from. Meant to be called
+ * from a task registered with {@link #runAfterExperiment}.
+ */
+public static void runBranch(int from)
+{
+	CDState.setCycle(from);
+	CDState.setPhase(CDState.PHASE_UNKNOWN);
+	loadControls();
+	System.err.println("CDSimulator: starting branch at cycle " + from);
+	runCycles(from);
+}
+
 }
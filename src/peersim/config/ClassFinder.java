@@ -20,8 +20,11 @@ package peersim.config;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.Callable;
 import java.util.zip.*;
 
+import peersim.SimulationContext;
+
 /**
  * Provides static methods to obtain the package-qualified class name
  * of a class, given just the non-qualified name, and to obtain
@@ -42,16 +45,20 @@ class ClassFinder
 //--------------------------------------------------------------------------
 	
 	
-/** Local map containing the associations */
-private static Map<String,String> map = new TreeMap<String,String>();	
-	
-static {
-	try {
-		findClasses(map);
-	} catch (IOException e) {
-		e.printStackTrace();
-	}
-}
+/** Local map containing the associations; scanned once per JVM, even
+ * when several simulations run in it (see {@link SimulationContext}) */
+private static Map<String,String> map = SimulationContext.shared(
+	ClassFinder.class.getName(), new Callable<Map<String,String>>() {
+		public Map<String,String> call() {
+			Map<String,String> m = new TreeMap<String,String>();
+			try {
+				findClasses(m);
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			return Collections.unmodifiableMap(m);
+		}
+	});
 	
 	
 //--------------------------------------------------------------------------
@@ -20,6 +20,7 @@ package peersim.config;
 
 import java.lang.reflect.*;
 import java.util.*;
+import java.util.concurrent.*;
 import org.lsmp.djep.groupJep.*;
 
 /**
@@ -65,6 +66,16 @@ private int maxdepth;
 /** Debug level */
 private int debugLevel;
 
+/**
+ * Numeric properties already evaluated, by name. Expressions are parsed
+ * and evaluated once; the table is cleared by {@link #override}.
+ */
+private final Map<String, Number> values =
+		new ConcurrentHashMap<String, Number>();
+
+/** Incremented whenever a property is overridden */
+private volatile int generation = 0;
+
 /**
  * If true, no exception is thrown. Instead, an error is printed and the
  * Configuration tries to return a reasonable return value
@@ -90,13 +101,7 @@ public ConfigContainer(Properties config, boolean check)
 	if (Configuration.DEBUG_EXTENDED.equals(debug))
 		debugLevel = DEBUG_CONTEXT;
 	else if (Configuration.DEBUG_FULL.equals(debug)) {
-		Map<String, String> map = new TreeMap<String, String>();
-		Enumeration e = config.propertyNames();
-		while (e.hasMoreElements()) {
-			String name = (String) e.nextElement();
-			String value = config.getProperty(name);
-			map.put(name, value);
-		}
+		Map<String, String> map = snapshot();
 		Iterator i = map.keySet().iterator();
 		while (i.hasNext()) {
 			String name = (String) i.next();
@@ -125,6 +130,52 @@ public boolean contains(String name)
 
 // -------------------------------------------------------------------
 
+/**
+ * Replaces or, if <code>value</code> is null, removes a property.
+ * @return the previous value, or null if it was not set
+ * @see Configuration#override
+ */
+String override(String name, String value)
+{
+	Object old = (value == null) ? config.remove(name)
+			: config.setProperty(name, value);
+	// Any evaluated expression may have referred to the property
+	values.clear();
+	generation++;
+	return (String) old;
+}
+
+// -------------------------------------------------------------------
+
+/**
+ * Returns a copy of all the properties, sorted by name.
+ * @see Configuration#snapshot
+ */
+public SortedMap<String, String> snapshot()
+{
+	SortedMap<String, String> map = new TreeMap<String, String>();
+	Enumeration e = config.propertyNames();
+	while (e.hasMoreElements()) {
+		String name = (String) e.nextElement();
+		map.put(name, config.getProperty(name));
+	}
+	return map;
+}
+
+// -------------------------------------------------------------------
+
+/**
+ * Returns a number that changes whenever a property is overridden, so
+ * that values read before can be recognized as stale.
+ * @see ConfigValue
+ */
+int generation()
+{
+	return generation;
+}
+
+// -------------------------------------------------------------------
+
 /**
  * Reads given configuration property. If not found, throws a
  * {@link MissingParameterException}.
@@ -315,6 +366,8 @@ public double getDouble(String name)
 
 /**
  * Read numeric property values, parsing expression if necessary.
+ * Values are memoized, including those of the properties referred to by
+ * an expression.
  * 
  * @param initial
  *          the property name that started this expression evaluation
@@ -332,6 +385,11 @@ private Number getVal(String initial, String property, int depth)
 				maxdepth);
 	}
 
+	Number cached = values.get(property);
+	if (cached != null) {
+		return cached;
+	}
+
 	String s = config.getProperty(property);
 	if (s == null || s.equals("")) {
 		throw new MissingParameterException(property,
@@ -351,6 +409,8 @@ private Number getVal(String initial, String property, int depth)
 	Object ret = jep.getValueAsObject();
 	if (jep.hasError())
 		System.err.println(jep.getErrorInfo());
+	else if (ret != null)
+		values.put(property, (Number) ret);
 	return (Number) ret;
 }
 
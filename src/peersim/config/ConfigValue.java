@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) 2003-2005 The BISON Project
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License version 2 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ */
+
+package peersim.config;
+
+/**
+ * A numeric configuration property bound once and read many times.
+ * <p>
+ * Components that read a parameter outside of their constructor (for
+ * example objects created for every event) can keep a
+ * <code>ConfigValue</code> in a static field instead of calling
+ * {@link Configuration} each time. The value is looked up on first use and
+ * then returned from a field; it is looked up again only if a property has
+ * been changed through {@link Configuration#override} in the meantime.
+ * <p>
+ * Errors are reported as by the corresponding <code>Configuration</code>
+ * methods, when the value is first read.
+ */
+public class ConfigValue
+{
+
+// ======================= fields ===========================================
+// ==========================================================================
+
+/** The full name of the property */
+private final String name;
+
+/** Whether the property has a default value */
+private final boolean hasDefault;
+
+/** The default value */
+private final double def;
+
+/** The value read from the configuration, as a double */
+private double doubleValue;
+
+/** The value read from the configuration, as a long */
+private long longValue;
+
+/**
+ * The {@link Configuration#generation} at which the values were read;
+ * written after them, so a reader seeing it also sees the values.
+ */
+private volatile int generation = -1;
+
+// ======================= initialization ===================================
+// ==========================================================================
+
+/**
+ * Binds a required property. Reading it throws a
+ * {@link MissingParameterException} if it is not set.
+ * @param name
+ *          Full name of the configuration property
+ */
+public ConfigValue(String name)
+{
+	this.name = name;
+	this.hasDefault = false;
+	this.def = 0;
+}
+
+// --------------------------------------------------------------------------
+
+/**
+ * Binds a property with a default value, returned if it is not set.
+ * @param name
+ *          Full name of the configuration property
+ * @param def
+ *          default value
+ */
+public ConfigValue(String name, double def)
+{
+	this.name = name;
+	this.hasDefault = true;
+	this.def = def;
+}
+
+// ======================= methods ==========================================
+// ==========================================================================
+
+/** Returns the value as a double */
+public double getDouble()
+{
+	refresh();
+	return doubleValue;
+}
+
+// --------------------------------------------------------------------------
+
+/** Returns the value as an int */
+public int getInt()
+{
+	refresh();
+	return (int) longValue;
+}
+
+// --------------------------------------------------------------------------
+
+/** Returns the value as a long */
+public long getLong()
+{
+	refresh();
+	return longValue;
+}
+
+// --------------------------------------------------------------------------
+
+/** Returns the name of the bound property */
+public String getName()
+{
+	return name;
+}
+
+// --------------------------------------------------------------------------
+
+/** Reads the values again if the configuration has changed */
+private void refresh()
+{
+	int g = Configuration.generation();
+	if (generation == g)
+		return;
+	if (hasDefault) {
+		doubleValue = Configuration.getDouble(name, def);
+		longValue = Configuration.getLong(name, (long) def);
+	} else {
+		doubleValue = Configuration.getDouble(name);
+		longValue = Configuration.getLong(name);
+	}
+	generation = g;
+}
+
+}
@@ -339,6 +339,32 @@ public static void setConfig(Properties p, boolean check)
 
 // -------------------------------------------------------------------
 
+/**
+ * Replaces the value of a property, or removes it if <code>value</code>
+ * is null, and returns the previous value (null if it was not set). This
+ * is the one exception to the configuration being read only, meant for
+ * running variants of a configuration within one JVM. Components read
+ * their parameters when they are constructed, so only those created
+ * afterwards see the change. Protocol definitions must not be changed.
+ */
+public static String override(String name, String value)
+{
+	return config.override(name, value);
+}
+
+// -------------------------------------------------------------------
+
+/**
+ * Returns a number that changes whenever a property is overridden.
+ * @see ConfigValue
+ */
+static int generation()
+{
+	return config.generation();
+}
+
+// -------------------------------------------------------------------
+
 /**
  * @return true if and only if name is a specified (existing) property.
  */
@@ -665,4 +691,16 @@ public static String[] getNames(String name)
 	return config.getNames(name);
 }
 
+// -------------------------------------------------------------------
+
+/**
+ * Returns a copy of all the properties, sorted by name, with their values
+ * as written in the configuration (expressions are not evaluated).
+ * Changing the returned map has no effect on the configuration.
+ */
+public static SortedMap<String, String> snapshot()
+{
+	return config.snapshot();
+}
+
 }
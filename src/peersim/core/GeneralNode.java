@@ -33,6 +33,12 @@ public class GeneralNode implements Node {
 /** used to generate unique IDs */
 private static long counterID = -1;
 
+/**
+* While {@link Network} clones nodes on several threads, the next ID to be
+* given to a node cloned by the current thread.
+*/
+private static final ThreadLocal<long[]> reservedID = new ThreadLocal<long[]>();
+
 /**
 * The protocols on this node.
 */
@@ -103,9 +109,60 @@ public Object clone() {
 /** returns the next unique ID */
 private long nextID() {
 
+	long[] reserved = reservedID.get();
+	if (reserved != null) return reserved[0]++;
 	return counterID++;
 }
 
+// -----------------------------------------------------------------
+
+/**
+* Overrides the ID of this node, e.g. when a saved network is restored.
+* The node must not yet be stored in any hashed collection.
+*/
+protected void setID(long id) {
+
+	ID = id;
+}
+
+// -----------------------------------------------------------------
+
+/** Returns the ID the next node created will get. */
+protected static long peekNextID() {
+
+	return counterID;
+}
+
+// -----------------------------------------------------------------
+
+/** Sets the ID the next node created will get. */
+protected static void setNextID(long id) {
+
+	counterID = id;
+}
+
+// -----------------------------------------------------------------
+
+/**
+* Makes the nodes created by the current thread get consecutive IDs starting
+* from <code>first</code>, instead of drawing them from the shared counter,
+* until {@link #releaseIDs} is called. The caller is responsible for the
+* ranges of different threads not overlapping, and for moving the shared
+* counter past them.
+*/
+static void reserveIDs(long first) {
+
+	reservedID.set(new long[] { first });
+}
+
+// -----------------------------------------------------------------
+
+/** Ends {@link #reserveIDs} for the current thread. */
+static void releaseIDs() {
+
+	reservedID.remove();
+}
+
 // =============== public methods ==================================
 // =================================================================
 
@@ -23,6 +23,10 @@ import java.util.Comparator;
 import java.util.Arrays;
 import java.util.Map;
 import java.util.HashMap;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 /**
 * This class forms the basic framework of all simulations.
@@ -76,6 +80,25 @@ private static final String PAR_MAXSIZE = "network.initialCapacity";
 */
 private static final String PAR_SIZE = "network.size";
 
+/**
+* This config property sets the number of threads used to create the
+* nodes and to run {@link RangeInitializer}s. If it is set, even to 1, the
+* network is built and initialized in chunks of {@link #CHUNK} nodes (see
+* {@link #initializeRanges}), and the result does not depend on the number
+* of threads. If not set, everything is done sequentially as before.
+* Nodes are created in parallel only if the prototype is a
+* {@link GeneralNode}, and only if the <code>clone()</code> methods of its
+* protocols touch nothing but the new copy.
+* @config
+*/
+public static final String PAR_THREADS = "network.initThreads";
+
+/**
+* The number of nodes in each chunk processed by
+* {@link #initializeRanges}.
+*/
+public static final int CHUNK = 4096;
+
 /**
 * The node array. This is not a private array which is not nice but
 * efficiency has the highest priority here. The main purpose is to allow
@@ -95,6 +118,11 @@ static Node[] node = null;
 */
 private static int len;
 
+/**
+* The value of {@value #PAR_THREADS}, or 0 if it is not set.
+*/
+private static int threads;
+
 /**
 * The prototype node which is used to populate the simulation via cloning.
 * After all the nodes have been cloned, {@link Control} components can be
@@ -122,6 +150,7 @@ public static void reset() {
         }
 
         len = Configuration.getInt(PAR_SIZE);
+        threads = Configuration.getInt(PAR_THREADS,0);
         int maxlen = Configuration.getInt(PAR_MAXSIZE,len);
         if( maxlen < len ) throw new IllegalArgumentException(
                         PAR_MAXSIZE+" is less than "+PAR_SIZE);
@@ -144,7 +173,30 @@ public static void reset() {
         prototype.setIndex(-1);
 
         // cloning the nodes
-        if(len > 0 )
+        if(len > 0 && threads > 0 && prototype instanceof GeneralNode)
+        {
+                // Each chunk reserves its own block of IDs, so nodes get
+                // the same IDs as when cloned one after the other
+                final long first = GeneralNode.peekNextID();
+                initializeRanges(new RangeInitializer() {
+                        public void initializeRange(int from, int to,
+                                        int chunk) {
+                                GeneralNode.reserveIDs(first + from);
+                                try {
+                                        for(int i=from; i<to; ++i)
+                                        {
+                                                node[i] = (Node)
+                                                        prototype.clone();
+                                                node[i].setIndex(i);
+                                        }
+                                } finally {
+                                        GeneralNode.releaseIDs();
+                                }
+                        }
+                });
+                GeneralNode.setNextID(first + len);
+        }
+        else if(len > 0 )
         {
                 for(int i=0; i<len; ++i)
                 {
@@ -154,6 +206,55 @@ public static void reset() {
         }
 }
 
+// -----------------------------------------------------------------
+
+/**
+* Returns true if {@value #PAR_THREADS} is set, so initializers should use
+* {@link #initializeRanges} instead of walking the network themselves.
+*/
+public static boolean isChunked() { return threads > 0; }
+
+// -----------------------------------------------------------------
+
+/**
+* Passes every chunk of {@link #CHUNK} nodes of the network to the
+* initializer, on the number of threads given by {@value #PAR_THREADS}.
+* Returns when all the chunks are done; an exception thrown for any chunk
+* is thrown again here. With one thread (or if the parameter is not set)
+* the chunks are processed in order on the calling thread.
+*/
+public static void initializeRanges(final RangeInitializer init) {
+
+        int chunks = (len + CHUNK - 1) / CHUNK;
+        if( threads <= 1 || chunks <= 1 )
+        {
+                for(int c=0; c<chunks; ++c)
+                        init.initializeRange(c*CHUNK,
+                                        Math.min(len, (c+1)*CHUNK), c);
+                return;
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(Math.min(threads, chunks));
+        try {
+                List<ForkJoinTask<?>> tasks =
+                        new ArrayList<ForkJoinTask<?>>(chunks);
+                for(int c=0; c<chunks; ++c)
+                {
+                        final int chunk = c;
+                        final int from = c*CHUNK;
+                        final int to = Math.min(len, (c+1)*CHUNK);
+                        tasks.add(pool.submit(new Runnable() {
+                                public void run() {
+                                        init.initializeRange(from, to, chunk);
+                                }
+                        }));
+                }
+                for(ForkJoinTask<?> t : tasks) t.join();
+        } finally {
+                pool.shutdown();
+        }
+}
+
 /** Disable instance construction */
 private Network() {}
 
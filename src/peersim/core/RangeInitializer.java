@@ -0,0 +1,46 @@
+/*
+ * Copyright (c) 2003-2005 The BISON Project
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License version 2 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ */
+
+package peersim.core;
+
+/**
+ * Initialization of the network that can be split into independent ranges of
+ * nodes. {@link Network#initializeRanges} divides the network into chunks of
+ * {@link Network#CHUNK} nodes and passes each chunk to
+ * {@link #initializeRange}, possibly on several threads at once (see
+ * {@value Network#PAR_THREADS}). Chunk boundaries do not depend on the
+ * number of threads, so an implementation that derives its randomness from
+ * the chunk index (and not from a shared generator) produces the same network
+ * however many threads are used.
+ */
+public interface RangeInitializer
+{
+
+/**
+ * Initializes the nodes with indices from <code>from</code> (inclusive) to
+ * <code>to</code> (exclusive). Calls for different chunks may run
+ * concurrently, so an implementation must only modify these nodes, and
+ * must not use shared state such as {@link CommonState#r} or global
+ * registries; that part of the work belongs in a sequential pass
+ * afterwards.
+ * @param chunk the index of the chunk, equal to <code>from /
+ * {@link Network#CHUNK}</code>
+ */
+public void initializeRange(int from, int to, int chunk);
+
+}
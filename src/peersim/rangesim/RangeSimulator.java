@@ -78,6 +78,19 @@ java peersim.rangesim.RangeSimulator config.file jvm.options=-Xmx256m
  * The new JVM inherits the same classpath as the JVM running the
  * RangeSimulator. The {@value #PAR_JVM} parameter can be used to
  * specify additional classpath specification.
+ * <p>
+ * If {@value #PAR_WORKERS} is set, that many JVMs are started once and
+ * run the experiments concurrently, each receiving the next experiment
+ * when it is done with the previous one (see {@link RangeWorker}). This
+ * saves the startup and class path scanning of a JVM per experiment, and
+ * on a multi-core host a sweep takes roughly its serial time divided by
+ * the number of workers. The output of each experiment is printed in one
+ * block when it completes, so experiments may appear out of order.
+ * <p>
+ * If {@value peersim.ResultCache#PAR_DIR} is set, experiments whose
+ * results are already in the {@link ResultCache} are not run again: their
+ * output files are restored, and the number of experiments found in the
+ * cache is reported at the end of the sweep.
  * 
  * @author Alberto Montresor
  * @version $Revision: 1.10 $
@@ -104,6 +117,14 @@ private static final String PAR_RANGE = "range";
  */
 public static final String PAR_JVM = "jvm.options";
 
+/**
+ * The number of long-lived JVMs running experiments concurrently. If not
+ * set, a new JVM is started for each experiment and experiments are run
+ * one after the other.
+ * @config
+ */
+public static final String PAR_WORKERS = "jvm.workers";
+
 
 // --------------------------------------------------------------------------
 // Static variables
@@ -121,9 +142,21 @@ private String[] jvmoptions;
 /** Command line arguments */
 private String[] args;
 
+/** The configuration given by the command line arguments */
+private Properties properties;
+
 /** The current process that is executed */
 private Process p;
 
+/** The number of worker JVMs; 0 if one JVM is started per experiment */
+private int workers;
+
+/** The shutdown hook stopping all the processes */
+private ProcessManager manager;
+
+/** The experiments not yet taken by a worker */
+private final LinkedList<Experiment> pending = new LinkedList<Experiment>();
+
 
 // --------------------------------------------------------------------------
 // Main
@@ -156,7 +189,7 @@ public RangeSimulator(String[] args)
 
 	// Read property file
 	System.err.println("Simulator: loading configuration");
-	Properties properties = new ParsedProperties(args);
+	properties = new ParsedProperties(args);
 	Configuration.setConfig(properties);
 	
 	// Read jvm options and separate them in different strings
@@ -165,6 +198,7 @@ public RangeSimulator(String[] args)
 		jvmoptions = new String[0];
 	else
 		jvmoptions = opt.split(" ");
+	workers = Configuration.getInt(PAR_WORKERS, 0);
 
 	// Parse range parameters
 	parseRanges();
@@ -179,6 +213,7 @@ public void run()
 	// Shutdown thread management
 	ProcessManager t = new ProcessManager();
 	t.addThread(this);
+	manager = t;
 	Runtime.getRuntime().addShutdownHook(t);
 
 	// Executes experiments; report short messages about exceptions that are
@@ -278,7 +313,8 @@ private void doExperiments(String[] args)
 		list.add(jvmoptions[i]);
 	
 	// The class to be run in the forked JVM
-	list.add("peersim.Simulator");
+	list.add(workers > 0 ? RangeWorker.class.getName() : "peersim.Simulator");
+	int startargs = list.size();
 	
 	// Parameters specified on the command line
 	for (int i=0; i < args.length; i++) {
@@ -287,6 +323,7 @@ private void doExperiments(String[] args)
 	
 	// Since multiple experiments are managed here, the value
 	// of standard variable for multiple experiments is changed to 1
+	int startexp = list.size();
 	list.add(Simulator.PAR_EXPS+"=1");
 
 	// Activate redirection to separate stdout from stderr
@@ -304,6 +341,7 @@ private void doExperiments(String[] args)
 		list.add("");
 		
 	// Execute with different values
+	boolean cached = ResultCache.isEnabled();
 	int[] idx = new int[values.length]; // Initialized to 0
 	while (idx[0] < values[0].length) {
 
@@ -327,14 +365,81 @@ private void doExperiments(String[] args)
 		long seed = CommonState.r.nextLong();
 		list.set(startseed, CommonState.PAR_SEED+"="+seed);
 
-		System.err.println("Experiment: " + log);
-		
-		executeProcess(list);
+		// Skip the experiment if its results are in the cache
+		if (cached && ResultCache.restore(ResultCache.key(
+				experimentConfig(list.subList(startexp, list.size())),
+				seed)) != null) {
+			System.err.println("Experiment: " + log + "(cached)");
+		} else if (workers > 0) {
+			pending.add(new Experiment(log.toString(),
+					list.subList(startargs, list.size())));
+		} else {
+			System.err.println("Experiment: " + log);
+			executeProcess(list);
+		}
 
 		// Increment values
 		nextValues(idx, values);
 	
 	}
+
+	if (workers > 0) {
+		runWorkers(list.subList(0, startargs));
+	}
+	if (cached) {
+		System.err.println(ResultCache.report());
+	}
+}
+
+//--------------------------------------------------------------------
+
+/**
+ * Returns the configuration of an experiment, given the properties added
+ * to the command line arguments for it, for computing its cache key.
+ */
+private SortedMap<String,String> experimentConfig(List<String> defs)
+{
+	SortedMap<String,String> config = ResultCache.sorted(properties);
+	for (String def : defs) {
+		int eq = def.indexOf('=');
+		config.put(def.substring(0, eq), def.substring(eq + 1));
+	}
+	return config;
+}
+
+//--------------------------------------------------------------------
+
+/**
+ * Runs the pending experiments on {@link #workers} JVMs started with the
+ * given command line, and waits until all of them are done.
+ */
+private void runWorkers(List<String> command)
+{
+	List<Worker> started = new ArrayList<Worker>();
+	for (int i = 0; i < Math.min(workers, pending.size()); i++) {
+		Worker w = new Worker(command);
+		manager.addThread(w);
+		started.add(w);
+		w.start();
+	}
+	for (Worker w : started) {
+		try {
+			w.join();
+		} catch (InterruptedException e) {
+			return;
+		}
+	}
+}
+
+//--------------------------------------------------------------------
+
+/**
+ * Returns the next experiment to be run by a worker, or null if there
+ * are none left.
+ */
+private synchronized Experiment nextExperiment()
+{
+	return pending.poll();
 }
 
 //--------------------------------------------------------------------
@@ -347,24 +452,12 @@ private void doExperiments(String[] args)
  */
 private void executeProcess(List<String> list)
 {
-	// Prepare the argument array for process forking
-	String[] newargs = new String[list.size()];
-
 	// Execute a new JVM
 	try {
-		ProcessBuilder pb = new ProcessBuilder(list.toArray(newargs));
-		pb.redirectErrorStream(true);
-		p = pb.start();
-	} catch (IOException e1) {
-		try {
-			list.set(0, "java");
-			ProcessBuilder pb = new ProcessBuilder(list.toArray(newargs));
-			pb.redirectErrorStream(true);
-			p = pb.start();
-		} catch (IOException e2) {
-			System.err.println("Unable to launch a Java virtual machine");
-			System.exit(1);
-		}
+		p = startProcess(list);
+	} catch (IOException e) {
+		System.err.println("Unable to launch a Java virtual machine");
+		System.exit(1);
 	}
 
 	// Read the output from the process and redirect it to System.out
@@ -373,17 +466,7 @@ private void executeProcess(List<String> list)
 			.getInputStream()));
 	String line;
 	while ((line = getLine(toprint)) != null) {
-		if (line.length() == 0) {
-			System.out.println();
-		} else {
-			int last = line.charAt(line.length()-1);
-			if (last != TaggedOutputStream.TAG) {
-				System.err.println(line);
-			} else {
-				line = line.substring(0, line.length()-1);
-				System.out.println(line);
-			}
-		}
+		printLine(line);
 	}
 
 	// We close all the files and we destroy the process. They are not 
@@ -409,6 +492,48 @@ private void executeProcess(List<String> list)
 
 //--------------------------------------------------------------------
 
+/**
+ * Prints a line read from a forked JVM on System.out if it has been
+ * tagged by {@link TaggedOutputStream}, on System.err otherwise.
+ */
+private static void printLine(String line)
+{
+	if (line.length() == 0) {
+		System.out.println();
+	} else {
+		int last = line.charAt(line.length()-1);
+		if (last != TaggedOutputStream.TAG) {
+			System.err.println(line);
+		} else {
+			line = line.substring(0, line.length()-1);
+			System.out.println(line);
+		}
+	}
+}
+
+//--------------------------------------------------------------------
+
+/**
+ * Starts a JVM with the given command line, trying the same JVM as the
+ * current one first and then the first java command in the path.
+ */
+private static Process startProcess(List<String> list) throws IOException
+{
+	String[] newargs = list.toArray(new String[list.size()]);
+	try {
+		ProcessBuilder pb = new ProcessBuilder(newargs);
+		pb.redirectErrorStream(true);
+		return pb.start();
+	} catch (IOException e) {
+		newargs[0] = "java";
+		ProcessBuilder pb = new ProcessBuilder(newargs);
+		pb.redirectErrorStream(true);
+		return pb.start();
+	}
+}
+
+//--------------------------------------------------------------------
+
 private static String getLine(BufferedReader toprint)
 {
 	try {
@@ -455,4 +580,111 @@ public void join() throws InterruptedException
 	p.waitFor();
 }
 
+//--------------------------------------------------------------------------
+//Inner classes
+//--------------------------------------------------------------------------
+
+/**
+ * The command line arguments of an experiment, and the description of
+ * its range values.
+ */
+private static class Experiment
+{
+	final String log;
+	final List<String> args;
+
+	Experiment(String log, List<String> args)
+	{
+		this.log = log;
+		this.args = new ArrayList<String>(args);
+	}
+}
+
+//--------------------------------------------------------------------------
+
+/**
+ * A thread feeding experiments to one worker JVM. If the JVM dies during
+ * an experiment, the experiment is reported as failed and a new JVM is
+ * started for the next one.
+ */
+private class Worker extends Thread implements ProcessHandler
+{
+
+	/** Command line starting the worker JVM */
+	private final List<String> command;
+
+	/** The worker JVM, or null if it is not running */
+	private volatile Process proc;
+
+	Worker(List<String> command)
+	{
+		this.command = new ArrayList<String>(command);
+	}
+
+	public void run()
+	{
+		Experiment exp;
+		BufferedReader in = null;
+		Writer cmd = null;
+		while ((exp = nextExperiment()) != null) {
+			List<String> output = new ArrayList<String>();
+			String status = null;
+			try {
+				if (proc == null) {
+					proc = startProcess(command);
+					in = new BufferedReader(new InputStreamReader(
+							proc.getInputStream()));
+					cmd = new BufferedWriter(new OutputStreamWriter(
+							proc.getOutputStream()));
+				}
+				for (String arg : exp.args) {
+					cmd.write(arg);
+					cmd.write('\n');
+				}
+				cmd.write('\n');
+				cmd.flush();
+				String line;
+				while ((line = in.readLine()) != null) {
+					if (line.length() > 0 && line.charAt(0) == RangeWorker.DONE) {
+						status = line.substring(1);
+						break;
+					}
+					output.add(line);
+				}
+			} catch (IOException e) {
+				output.add(e.toString());
+			}
+			if (status == null) {
+				// The JVM died or could not be started
+				doStop();
+				status = "killed";
+			}
+			synchronized (RangeSimulator.this) {
+				System.err.println("Experiment: " + exp.log);
+				for (String line : output)
+					printLine(line);
+				if (!status.equals("0"))
+					System.err.println("Experiment failed (" + status + "): " +
+							exp.log);
+			}
+		}
+		doStop();
+	}
+
+	public void doStop()
+	{
+		Process q = proc;
+		if (q != null) {
+			try {
+				q.getOutputStream().close();
+				q.getInputStream().close();
+			} catch (IOException e) {
+				// The process is going away anyway
+			}
+			q.destroy();
+			proc = null;
+		}
+	}
+}
+
 }
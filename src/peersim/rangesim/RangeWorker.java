@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2003-2005 The BISON Project
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License version 2 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ */
+
+package peersim.rangesim;
+
+import java.io.*;
+import java.util.*;
+
+import peersim.*;
+import peersim.config.*;
+
+/**
+ * Main class of the long-lived JVMs started by {@link RangeSimulator}
+ * when {@value RangeSimulator#PAR_WORKERS} is set. Instead of running a
+ * single experiment given on the command line, the worker reads
+ * experiments from its standard input: the command line arguments of an
+ * experiment (as they would be passed to {@link Simulator}), one per line,
+ * followed by an empty line. Each experiment runs in a fresh
+ * {@link SimulationContext}, so it starts from clean static state while
+ * the JVM, the libraries and the class path scan are reused.
+ * <p>
+ * The output of each experiment is written to the standard output as
+ * {@link Simulator} would write it, followed by a line made of
+ * {@link #DONE} and the exit status of the experiment (0 on success).
+ * The worker terminates when its standard input is closed.
+ *
+ * @see RangeSimulator
+ */
+public class RangeWorker
+{
+
+//--------------------------------------------------------------------------
+//Constants
+//--------------------------------------------------------------------------
+
+/**
+ * Starts the line written at the end of each experiment. It cannot occur
+ * in lines written by the simulation.
+ */
+protected static final char DONE = 4;
+
+//--------------------------------------------------------------------------
+//Main
+//--------------------------------------------------------------------------
+
+/**
+ * Runs experiments read from the standard input until it is closed.
+ */
+public static void main(String[] args) throws IOException
+{
+	PrintStream out = System.out;
+	SimulationContext.installStreams();
+	BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
+
+	List<String> exp = new ArrayList<String>();
+	int n = 0;
+	String line;
+	while ((line = in.readLine()) != null) {
+		if (line.length() > 0) {
+			exp.add(line);
+			continue;
+		}
+		int status = 0;
+		try {
+			Properties p = new ParsedProperties(exp.toArray(new String[0]));
+			new SimulationContext("experiment " + n, p, out, out).run();
+		} catch (Exception e) {
+			// Configuration errors are thrown by the context's own copy
+			// of the configuration classes; report them briefly, as
+			// Simulator does
+			if (e.getClass().getName().startsWith("peersim.config."))
+				out.println(e + "");
+			else
+				e.printStackTrace(out);
+			status = 1;
+		}
+		out.println(DONE + "" + status);
+		out.flush();
+		exp.clear();
+		n++;
+	}
+}
+
+}
@@ -0,0 +1,229 @@
+/*
+ * Copyright (c) 2003-2005 The BISON Project
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License version 2 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ */
+
+package peersim.rangesim;
+
+import java.io.*;
+import java.net.*;
+
+import peersim.config.*;
+
+/**
+ * The connection of one replica of a replicated simulation to the coordinator
+ * run by {@link ReplicaSimulator}. A replica is a full simulation process
+ * that is told, through the {@value #PAR_INDEX} and {@value #PAR_COUNT}
+ * parameters, which part of the work it is responsible for. At each
+ * barrier every replica sends a frame with {@link #exchange}, and gets back
+ * the frames of all replicas, its own included, in replica order.
+ * <p>
+ * Along with each frame a replica sends the number of the current cycle and
+ * a digest of its state. The coordinator stops the simulation if these
+ * differ between replicas, which catches replicas that have fallen out of
+ * step.
+ *
+ * @see ReplicaSimulator
+ */
+public class ReplicaChannel
+{
+
+//--------------------------------------------------------------------------
+//Parameters
+//--------------------------------------------------------------------------
+
+/**
+ * The index of this replica, between 0 and {@value #PAR_COUNT} - 1.
+ * @config
+ */
+public static final String PAR_INDEX = "replica.index";
+
+/**
+ * The number of replicas. If not set, or 1, the simulation is not replicated.
+ * @config
+ */
+public static final String PAR_COUNT = "replica.count";
+
+/**
+ * The address of the coordinator, as <code>host:port</code>.
+ * @config
+ */
+public static final String PAR_COORDINATOR = "replica.coordinator";
+
+//--------------------------------------------------------------------------
+//Constants
+//--------------------------------------------------------------------------
+
+/** Number of attempts to connect, one every {@link #RETRY_MS} */
+private static final int RETRIES = 50;
+
+/** Time between two attempts to connect */
+private static final int RETRY_MS = 200;
+
+//--------------------------------------------------------------------------
+//Fields
+//--------------------------------------------------------------------------
+
+/** The index of this replica */
+private final int index;
+
+/** The number of replicas */
+private final int count;
+
+/** The connection to the coordinator */
+private final Socket socket;
+
+/** Frames to the coordinator */
+private final DataOutputStream out;
+
+/** Frames from the coordinator */
+private final DataInputStream in;
+
+//--------------------------------------------------------------------------
+//Initialization
+//--------------------------------------------------------------------------
+
+/**
+ * Returns true if the simulation is configured to run as several replicas.
+ */
+public static boolean isReplicated()
+{
+	return Configuration.getInt(PAR_COUNT, 1) > 1;
+}
+
+//--------------------------------------------------------------------------
+
+/**
+ * Connects to the coordinator configured by {@value #PAR_COORDINATOR}, or
+ * returns null if the simulation is not replicated.
+ */
+public static ReplicaChannel fromConfig()
+{
+	if (!isReplicated())
+		return null;
+	int count = Configuration.getInt(PAR_COUNT);
+	int index = Configuration.getInt(PAR_INDEX);
+	if (index < 0 || index >= count)
+		throw new IllegalParameterException(PAR_INDEX,
+			"should be between 0 and " + (count - 1));
+	String address = Configuration.getString(PAR_COORDINATOR);
+	int colon = address.lastIndexOf(':');
+	if (colon < 0)
+		throw new IllegalParameterException(PAR_COORDINATOR,
+			"should be formatted as <host>:<port>");
+	try {
+		return new ReplicaChannel(index, count, address.substring(0, colon),
+			Integer.parseInt(address.substring(colon + 1)));
+	} catch (NumberFormatException e) {
+		throw new IllegalParameterException(PAR_COORDINATOR,
+			"should be formatted as <host>:<port>");
+	} catch (IOException e) {
+		throw new RuntimeException("Replica " + index +
+			": cannot reach the coordinator at " + address, e);
+	}
+}
+
+//--------------------------------------------------------------------------
+
+/**
+ * Connects to the coordinator and introduces this replica.
+ */
+public ReplicaChannel(int index, int count, String host, int port)
+throws IOException
+{
+	this.index = index;
+	this.count = count;
+	Socket s = null;
+	for (int i = 0; s == null; i++) {
+		try {
+			s = new Socket(host, port);
+		} catch (ConnectException e) {
+			// The coordinator may not be listening yet
+			if (i >= RETRIES) throw e;
+			try {
+				Thread.sleep(RETRY_MS);
+			} catch (InterruptedException ie) {
+				throw e;
+			}
+		}
+	}
+	socket = s;
+	socket.setTcpNoDelay(true);
+	out = new DataOutputStream(new BufferedOutputStream(
+		socket.getOutputStream()));
+	in = new DataInputStream(new BufferedInputStream(
+		socket.getInputStream()));
+	out.writeInt(index);
+	out.writeInt(count);
+	out.flush();
+}
+
+//--------------------------------------------------------------------------
+//Methods
+//--------------------------------------------------------------------------
+
+/** Returns the index of this replica */
+public int getIndex()
+{
+	return index;
+}
+
+//--------------------------------------------------------------------------
+
+/** Returns the number of replicas */
+public int getCount()
+{
+	return count;
+}
+
+//--------------------------------------------------------------------------
+
+/**
+ * Sends a frame and waits until the frames of all replicas are back.
+ * @param cycle the current cycle, checked by the coordinator
+ * @param digest a digest of the state of this replica, checked by the
+ *   coordinator
+ * @param frame the data for the other replicas
+ * @return the frames of all replicas, indexed by replica
+ * @throws IOException if the coordinator has gone, for example because
+ *   another replica failed
+ */
+public byte[][] exchange(long cycle, long digest, byte[] frame)
+throws IOException
+{
+	out.writeLong(cycle);
+	out.writeLong(digest);
+	out.writeInt(frame.length);
+	out.write(frame);
+	out.flush();
+	int n = in.readInt();
+	byte[][] ret = new byte[n][];
+	for (int i = 0; i < n; i++) {
+		ret[i] = new byte[in.readInt()];
+		in.readFully(ret[i]);
+	}
+	return ret;
+}
+
+//--------------------------------------------------------------------------
+
+/** Closes the connection, telling the coordinator this replica is done */
+public void close() throws IOException
+{
+	socket.close();
+}
+
+}
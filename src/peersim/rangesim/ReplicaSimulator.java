@@ -0,0 +1,435 @@
+/*
+ * Copyright (c) 2003-2005 The BISON Project
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License version 2 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ */
+
+package peersim.rangesim;
+
+import java.io.*;
+import java.net.*;
+import java.util.*;
+
+import peersim.*;
+import peersim.config.*;
+
+/**
+ * Runs one simulation as several replica processes, and coordinates them.
+ * Each replica is a standard {@link Simulator} JVM, started with
+ * the {@link ReplicaChannel} parameters that tell it its index and how to
+ * reach the coordinator. Each replica runs the whole simulation and holds
+ * all of its state; nothing is partitioned, so a replica needs as much
+ * memory as a run in a single process, and only work the simulation
+ * chooses to split by index is divided among them. The simulation decides
+ * what a replica does with its index; the coordinator only acts as the
+ * barrier between them:
+ * at each barrier it waits for a frame from every replica and sends all the
+ * frames back to every replica. It also checks that the replicas report the
+ * same cycle and state digest, and stops the simulation as soon as they
+ * do not.
+ * <p>
+ * The number of replicas is given by {@value ReplicaChannel#PAR_COUNT}:
+<pre>
+java peersim.rangesim.ReplicaSimulator config.file replica.count=4
+</pre>
+ * By default all the replicas are started on this host, and the coordinator
+ * listens on the loopback interface only. If {@value #PAR_LAUNCH} is lower
+ * than the number of replicas, only the replicas with the lowest indices are
+ * started here; the coordinator then listens on all interfaces (on
+ * {@value #PAR_PORT}) and the remaining replicas must be started by hand on
+ * other hosts, with the same configuration and class path, and the
+ * parameters printed by the coordinator.
+ * <p>
+ * Replica 0 runs in the current directory and writes to the standard output
+ * and error of the coordinator. Every other local replica runs in its own
+ * directory <code>replicas/replica-[index]</code>, where its output is written
+ * to <code>log.txt</code>, so that files written by the simulation do not
+ * collide. As with {@link RangeSimulator}, the replicas are started with the
+ * JVM running the coordinator, its class path and the options given by
+ * {@value RangeSimulator#PAR_JVM}, and are killed if the coordinator is.
+ *
+ * @see ReplicaChannel
+ */
+public class ReplicaSimulator implements ProcessHandler
+{
+
+//--------------------------------------------------------------------------
+//Parameters
+//--------------------------------------------------------------------------
+
+/**
+ * The port the coordinator listens on. Defaults to 0, any free port.
+ * @config
+ */
+public static final String PAR_PORT = "replica.port";
+
+/**
+ * The number of replicas started on this host. Defaults to all of them.
+ * @config
+ */
+public static final String PAR_LAUNCH = "replica.launch";
+
+//--------------------------------------------------------------------------
+//Constants
+//--------------------------------------------------------------------------
+
+/** How often local replicas are checked while waiting for connections */
+private static final int ACCEPT_MS = 1000;
+
+//--------------------------------------------------------------------------
+//Fields
+//--------------------------------------------------------------------------
+
+/** Command line arguments */
+private final String[] args;
+
+/** The number of replicas */
+private final int count;
+
+/** The number of replicas started on this host */
+private final int launch;
+
+/** The port the coordinator listens on */
+private final int port;
+
+/** The jvm options to be used when creating jvms */
+private final String[] jvmoptions;
+
+/** The replica processes started on this host */
+private final List<Process> processes =
+	Collections.synchronizedList(new ArrayList<Process>());
+
+//--------------------------------------------------------------------------
+//Main
+//--------------------------------------------------------------------------
+
+/**
+ * Main method of the system.
+ */
+public static void main(String[] args)
+{
+	ReplicaSimulator s = new ReplicaSimulator(args);
+	s.run();
+}
+
+//--------------------------------------------------------------------------
+//Constructor
+//--------------------------------------------------------------------------
+
+public ReplicaSimulator(String[] args)
+{
+	if (args.length == 0 || args[0].equals("--help")) {
+		usage();
+		System.exit(101);
+	}
+	this.args = args.clone();
+
+	System.err.println("ReplicaSimulator: loading configuration");
+	Configuration.setConfig(new ParsedProperties(args.clone()));
+	count = Configuration.getInt(ReplicaChannel.PAR_COUNT);
+	if (count < 2)
+		throw new IllegalParameterException(ReplicaChannel.PAR_COUNT,
+			"should be at least 2");
+	launch = Configuration.getInt(PAR_LAUNCH, count);
+	if (launch < 1 || launch > count)
+		throw new IllegalParameterException(PAR_LAUNCH,
+			"should be between 1 and " + count);
+	port = Configuration.getInt(PAR_PORT, 0);
+	String opt = Configuration.getString(RangeSimulator.PAR_JVM, null);
+	jvmoptions = (opt == null) ? new String[0] : opt.split(" ");
+}
+
+//--------------------------------------------------------------------------
+//Methods
+//--------------------------------------------------------------------------
+
+/**
+ * Starts the replicas, relays their frames until they are all done, and
+ * exits with a non-zero status if any of them failed.
+ */
+public void run()
+{
+	ProcessManager t = new ProcessManager();
+	t.addThread(this);
+	Runtime.getRuntime().addShutdownHook(t);
+	int status;
+	try {
+		status = coordinate();
+	} catch (IOException e) {
+		System.err.println("ReplicaSimulator: " + e);
+		status = 1;
+	}
+	if (status != 0)
+		doStop();
+	Runtime.getRuntime().removeShutdownHook(t);
+	System.exit(status);
+}
+
+//--------------------------------------------------------------------------
+
+/**
+ * Accepts the replicas and relays their frames. Returns the exit status.
+ */
+private int coordinate() throws IOException
+{
+	ServerSocket server = (launch == count)
+		? new ServerSocket(port, count, InetAddress.getLoopbackAddress())
+		: new ServerSocket(port, count);
+	int p = server.getLocalPort();
+	System.err.println("ReplicaSimulator: coordinator listening on port " + p);
+	for (int i = 0; i < launch; i++)
+		startReplica(i, "127.0.0.1:" + p);
+	for (int i = launch; i < count; i++)
+		System.err.println("ReplicaSimulator: waiting for replica " + i +
+			", to be started with " + ReplicaChannel.PAR_INDEX + "=" + i +
+			" " + ReplicaChannel.PAR_COUNT + "=" + count + " " +
+			ReplicaChannel.PAR_COORDINATOR + "=<this host>:" + p);
+
+	Socket[] sockets = new Socket[count];
+	DataInputStream[] in = new DataInputStream[count];
+	DataOutputStream[] out = new DataOutputStream[count];
+	try {
+		server.setSoTimeout(ACCEPT_MS);
+		for (int n = 0; n < count; n++) {
+			Socket s;
+			try {
+				s = server.accept();
+			} catch (SocketTimeoutException e) {
+				// A replica that fails before connecting would leave the
+				// others waiting for ever
+				if (localReplicaEnded()) {
+					System.err.println("ReplicaSimulator: a replica ended before " +
+						"all replicas were connected");
+					return 1;
+				}
+				n--;
+				continue;
+			}
+			s.setTcpNoDelay(true);
+			DataInputStream i = new DataInputStream(
+				new BufferedInputStream(s.getInputStream()));
+			int index = i.readInt();
+			int c = i.readInt();
+			if (c != count || index < 0 || index >= count ||
+				sockets[index] != null) {
+				System.err.println("ReplicaSimulator: rejected a replica claiming " +
+					"to be " + index + " of " + c);
+				s.close();
+				n--;
+				continue;
+			}
+			sockets[index] = s;
+			in[index] = i;
+			out[index] = new DataOutputStream(
+				new BufferedOutputStream(s.getOutputStream()));
+		}
+		server.close();
+
+		long barriers = relay(in, out);
+		if (barriers < 0) return 1;
+		System.err.println("ReplicaSimulator: " + count + " replicas passed " +
+			barriers + " barriers in step");
+	} finally {
+		server.close();
+		for (Socket s : sockets)
+			if (s != null) s.close();
+	}
+	return waitReplicas();
+}
+
+//--------------------------------------------------------------------------
+
+/**
+ * Relays frames until all replicas have closed their connection. Returns
+ * the number of barriers, or -1 if the replicas went out of step or one of
+ * them failed.
+ */
+private long relay(DataInputStream[] in, DataOutputStream[] out)
+throws IOException
+{
+	long barriers = 0;
+	byte[][] frames = new byte[count][];
+	long[] cycles = new long[count];
+	long[] digests = new long[count];
+	while (true) {
+		int ended = 0;
+		for (int i = 0; i < count; i++) {
+			try {
+				cycles[i] = in[i].readLong();
+			} catch (IOException e) {
+				frames[i] = null;
+				ended++;
+				continue;
+			}
+			digests[i] = in[i].readLong();
+			frames[i] = new byte[in[i].readInt()];
+			in[i].readFully(frames[i]);
+		}
+		if (ended == count)
+			return barriers;
+		for (int i = 0; i < count; i++) {
+			if (frames[i] == null) {
+				System.err.println("ReplicaSimulator: replica " + i +
+					" stopped at barrier " + barriers + " while others went on");
+				return -1;
+			}
+			if (cycles[i] != cycles[0] || digests[i] != digests[0]) {
+				System.err.println("ReplicaSimulator: replica " + i +
+					" is out of step with replica 0 at barrier " + barriers +
+					" (cycle " + cycles[i] + " against " + cycles[0] + ")");
+				return -1;
+			}
+		}
+		for (int i = 0; i < count; i++) {
+			out[i].writeInt(count);
+			for (byte[] f : frames) {
+				out[i].writeInt(f.length);
+				out[i].write(f);
+			}
+			out[i].flush();
+		}
+		barriers++;
+	}
+}
+
+//--------------------------------------------------------------------------
+
+/**
+ * Starts replica i on this host, connecting to the given coordinator.
+ */
+private void startReplica(int i, String coordinator) throws IOException
+{
+	String filesep = System.getProperty("file.separator");
+	List<String> list = new ArrayList<String>();
+	list.add(System.getProperty("java.home") + filesep + "bin" + filesep +
+		"java");
+	list.add("-cp");
+	list.add(absolutePath(System.getProperty("java.class.path")));
+	for (String o : jvmoptions)
+		list.add(o);
+	list.add(Simulator.class.getName());
+	for (int j = 0; j < args.length; j++) {
+		File f = new File(args[j]);
+		list.add(j == 0 && f.isFile() ? f.getAbsolutePath() : args[j]);
+	}
+	list.add(ReplicaChannel.PAR_INDEX + "=" + i);
+	list.add(ReplicaChannel.PAR_COUNT + "=" + count);
+	list.add(ReplicaChannel.PAR_COORDINATOR + "=" + coordinator);
+
+	ProcessBuilder pb = new ProcessBuilder(list);
+	if (i == 0) {
+		pb.inheritIO();
+	} else {
+		File dir = new File("replicas", "replica-" + i);
+		dir.mkdirs();
+		pb.directory(dir);
+		pb.redirectErrorStream(true);
+		pb.redirectOutput(new File(dir, "log.txt"));
+	}
+	processes.add(pb.start());
+}
+
+//--------------------------------------------------------------------------
+
+/**
+ * Returns the class path with all its entries made absolute, since most
+ * replicas run in a different directory.
+ */
+private static String absolutePath(String path)
+{
+	StringBuilder ret = new StringBuilder();
+	for (String e : path.split(File.pathSeparator)) {
+		if (e.length() == 0) continue;
+		if (ret.length() > 0) ret.append(File.pathSeparator);
+		if (e.endsWith("*")) {
+			String dir = e.substring(0, e.length() - 1);
+			ret.append(new File(dir.length() == 0 ? "." : dir)
+				.getAbsolutePath());
+			ret.append(File.separator).append("*");
+		} else {
+			ret.append(new File(e).getAbsolutePath());
+		}
+	}
+	return ret.toString();
+}
+
+//--------------------------------------------------------------------------
+
+/** Returns true if any replica started on this host has terminated */
+private boolean localReplicaEnded()
+{
+	synchronized (processes) {
+		for (Process q : processes)
+			if (!q.isAlive()) return true;
+	}
+	return false;
+}
+
+//--------------------------------------------------------------------------
+
+/**
+ * Waits for the local replicas and returns the highest exit status.
+ */
+private int waitReplicas()
+{
+	int ret = 0;
+	synchronized (processes) {
+		for (Process q : processes) {
+			try {
+				ret = Math.max(ret, q.waitFor());
+			} catch (InterruptedException e) {
+				return 1;
+			}
+		}
+	}
+	return ret;
+}
+
+//--------------------------------------------------------------------------
+
+private static void usage()
+{
+	System.err.println("Usage:");
+	System.err.println("  peersim.rangesim.ReplicaSimulator <configfile> " +
+		ReplicaChannel.PAR_COUNT + "=<replicas> [property]*");
+}
+
+//--------------------------------------------------------------------------
+
+/**
+ * Kills the replica processes started on this host.
+ */
+public void doStop()
+{
+	synchronized (processes) {
+		for (Process q : processes)
+			q.destroy();
+	}
+}
+
+//--------------------------------------------------------------------------
+
+/**
+ * Waits until the replica processes started on this host have terminated.
+ */
+public void join() throws InterruptedException
+{
+	synchronized (processes) {
+		for (Process q : processes)
+			q.waitFor();
+	}
+}
+
+}
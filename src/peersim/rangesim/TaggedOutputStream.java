@@ -21,6 +21,7 @@ package peersim.rangesim;
 import java.io.*;
 import java.util.*;
 
+import peersim.*;
 import peersim.config.*;
 import peersim.core.*;
 
@@ -98,7 +99,7 @@ private final ArrayList<String> obstime;
  */
 public TaggedOutputStream(String prefix)
 {
-	super(System.out);
+	super(SimulationContext.stdout());
 	
 	obstime = new ArrayList<String>();
 	String[] obs = Configuration.getString(PAR_TIME, "").split("[ :,]");
@@ -106,7 +107,7 @@ public TaggedOutputStream(String prefix)
 		obstime.add("control." + obs[i]);
 	}
 	ranges = Configuration.getString(prefix + "." + PAR_RANGES, "");
-	stdout = System.out;
+	stdout = SimulationContext.stdout();
 	size = 0;
 }
 
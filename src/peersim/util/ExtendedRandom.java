@@ -19,6 +19,7 @@
 package peersim.util;
 
 import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
 import java.lang.Math;
 
 /**
@@ -28,6 +29,17 @@ public class ExtendedRandom extends Random {
 
 private long lastSeed;
 
+/** The state of the generator, mirrored here as that of
+<code>java.util.Random</code> is private. Atomic like the original, so
+that the generator can still be shared between threads. Not final
+because the super constructor sets it through {@link #setSeed}. */
+private AtomicLong state;
+
+/** Constants of the generator of <code>java.util.Random</code> */
+private static final long MULTIPLIER = 0x5DEECE66DL;
+private static final long ADDEND = 0xBL;
+private static final long MASK = (1L << 48) - 1;
+
 // -------------------------------------------------------------------------
 
 /** Calls super constructor. Also stores the seed to be returned by
@@ -98,6 +110,32 @@ public void setSeed( long seed ) {
 	
 	super.setSeed(seed);
 	lastSeed = seed;
+	putState(seed);
+}
+
+// -------------------------------------------------------------------------
+
+/**
+ * Steps the generator exactly as <code>java.util.Random</code> does, but
+ * on a state this class can read back (see {@link #getCurrentSeed}).
+ */
+protected int next(int bits) {
+
+	long old, next;
+	do {
+		old = state.get();
+		next = (old * MULTIPLIER + ADDEND) & MASK;
+	} while (!state.compareAndSet(old, next));
+	return (int) (next >>> (48 - bits));
+}
+
+// -------------------------------------------------------------------------
+
+private void putState(long seed) {
+
+	if (state == null)
+		state = new AtomicLong();
+	state.set((seed ^ MULTIPLIER) & MASK);
 }
 
 // -------------------------------------------------------------------------
@@ -110,6 +148,27 @@ public long getLastSeed() { return lastSeed; }
 
 // -------------------------------------------------------------------------
 
+/**
+* Reseeds the underlying <code>java.util.Random</code> without changing
+* {@link #getLastSeed}. Used to put a generator back into a saved state.
+*/
+public void restoreSeed(long seed) {
+
+	super.setSeed(seed);
+	putState(seed);
+}
+
+// -------------------------------------------------------------------------
+
+/**
+* Returns the seed that {@link #restoreSeed} takes to put the generator
+* back into its current state. A cached <code>nextGaussian()</code> value
+* is not part of the state.
+*/
+public long getCurrentSeed() { return state.get() ^ MULTIPLIER; }
+
+// -------------------------------------------------------------------------
+
 /*
 public static void main(String[] args) {
 